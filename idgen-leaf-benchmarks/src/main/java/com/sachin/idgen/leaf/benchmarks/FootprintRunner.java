@@ -0,0 +1,63 @@
+package com.sachin.idgen.leaf.benchmarks;
+
+import com.sachin.idgen.leaf.core.segment.SegmentIDGenImpl;
+import com.sachin.idgen.leaf.core.segment.dao.impl.MemoryIDAllocDao;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * 测量每个业务tag在SegmentIDGenImpl中占用的堆内存，包括cache中的entry、SegmentBuffer、Segment以及它们引用的对象，不包括key字符串。
+ *
+ * 先创建tagCount个业务tag的MemoryIDAllocDao，记录此时的堆内存，再init并对每个业务tag取一次号，
+ * 两次堆内存的差除以tagCount就是每个业务tag的占用。例如：
+ * java -cp idgen-leaf-benchmarks/target/benchmarks.jar com.sachin.idgen.leaf.benchmarks.FootprintRunner 200000 lock
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class FootprintRunner {
+
+    public static void main(String[] args) throws InterruptedException {
+        final int tagCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final boolean lockFree = args.length > 1 && "lockFree".equals(args[1]);
+
+        MemoryIDAllocDao dao = new MemoryIDAllocDao();
+        String[] tags = new String[tagCount];
+        for (int i = 0; i < tagCount; i++) {
+            tags[i] = "tag-" + i;
+            dao.addTag(tags[i], 0, 1000);
+        }
+        final long before = usedHeap();
+
+        SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+        idGen.setIdAllocDao(dao);
+        idGen.setLockFree(lockFree);
+        idGen.init();
+        for (String tag : tags) {
+            idGen.get(tag);
+        }
+        final long after = usedHeap();
+
+        System.out.printf("tags: %d, mode: %s, heap: %d bytes, per tag: %d bytes%n",
+                tagCount, lockFree ? "lockFree" : "lock", after - before, (after - before) / tagCount);
+        /**
+         * 保证测量期间idGen和tags可达
+         */
+        if (idGen.getCache().size() != tags.length) {
+            System.out.println("cache size " + idGen.getCache().size());
+        }
+        idGen.close();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
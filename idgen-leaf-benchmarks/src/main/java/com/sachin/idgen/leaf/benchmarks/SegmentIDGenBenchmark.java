@@ -0,0 +1,136 @@
+package com.sachin.idgen.leaf.benchmarks;
+
+import com.sachin.idgen.leaf.core.IdAllocator;
+import com.sachin.idgen.leaf.core.common.Result;
+import com.sachin.idgen.leaf.core.segment.SegmentIDGenImpl;
+import com.sachin.idgen.leaf.core.segment.dao.impl.FaultInjectingIDAllocDao;
+import com.sachin.idgen.leaf.core.segment.dao.impl.MemoryIDAllocDao;
+import com.sachin.idgen.leaf.core.segment.model.SegmentBuffer;
+import com.sachin.idgen.leaf.core.segment.model.TagConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SegmentIDGenImpl取号的压测。
+ *
+ * 线程数通过 -t 参数指定（或者使用 ThreadScalingRunner 依次压测1到128个线程），例如：
+ * java -jar idgen-leaf-benchmarks/target/benchmarks.jar SegmentIDGenBenchmark -t 64 -p tagCount=1
+ *
+ * 参数说明：
+ * tagCount      业务tag的数量，1表示所有线程对同一个热点tag取号
+ * step          leaf_alloc中配置的step，step越小Segment切换越频繁。TagConfig.maxStep同样设置为step，
+ *               step不会被StepPolicy放大，整个压测期间保持不变
+ * latencyMicros 模拟的db往返耗时
+ * mode          取号方式：lock为getIdFromSegmentBuffer，original为源码中的getIdFromSegmentBuffer_originalSource，
+ *               lockFree为无锁模式，striped为无锁模式加上每个线程256个id的条带化取号。
+ *               get压测中original与lock相同，getIdFromSegmentBuffer压测中striped与lockFree相同
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SegmentIDGenBenchmark {
+
+    @Param({"1", "4096"})
+    public int tagCount;
+
+    @Param({"10", "100000"})
+    public int step;
+
+    @Param({"0", "1000"})
+    public long latencyMicros;
+
+    @Param({"lock", "original", "lockFree", "striped"})
+    public String mode;
+
+    private boolean original;
+
+    private SegmentIDGenImpl idGen;
+    private String[] tags;
+    private SegmentBuffer[] buffers;
+    private IdAllocator[] handles;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MemoryIDAllocDao dao = new MemoryIDAllocDao();
+        tags = new String[tagCount];
+        for (int i = 0; i < tagCount; i++) {
+            tags[i] = "bench-tag-" + i;
+            dao.addTag(tags[i], 1, step);
+        }
+        idGen = new SegmentIDGenImpl();
+        idGen.setIdAllocDao(new FaultInjectingIDAllocDao(dao, latencyMicros, 0));
+        idGen.setLockFree("lockFree".equals(mode) || "striped".equals(mode));
+        original = "original".equals(mode);
+        TagConfig tagConfig = new TagConfig();
+        /**
+         * step的下限是数据库中配置的step，上限也设置为step，否则一次压测中step会逐渐翻倍，不同step参数的结果没有区别
+         */
+        tagConfig.setMaxStep(step);
+        if ("striped".equals(mode)) {
+            tagConfig.setStripedChunkSize(256);
+        }
+        idGen.setDefaultTagConfig(tagConfig);
+        idGen.init();
+        buffers = new SegmentBuffer[tagCount];
+        handles = new IdAllocator[tagCount];
+        for (int i = 0; i < tagCount; i++) {
+            /**
+             * 第一次get会同步从db装载Segment，放在setup中完成
+             */
+            idGen.get(tags[i]);
+            buffers[i] = idGen.getCache().get(tags[i]);
+            handles[i] = idGen.handle(tags[i]);
+        }
+    }
+
+    /**
+     * 完整的取号流程，包括cache查找
+     */
+    @Benchmark
+    public Result get() {
+        return idGen.get(tags[nextIndex()]);
+    }
+
+    /**
+     * 不创建Result对象的取号流程，使用 -prof gc 可以观察到快速路径上没有对象分配
+     */
+    @Benchmark
+    public long nextId() {
+        return idGen.nextId(tags[nextIndex()]);
+    }
+
+    /**
+     * 通过绑定了业务tag的句柄取号，不包括cache查找
+     */
+    @Benchmark
+    public long handleNextId() {
+        return handles[nextIndex()].nextId();
+    }
+
+    /**
+     * 直接从SegmentBuffer取号，不包括cache查找
+     */
+    @Benchmark
+    public Result getIdFromSegmentBuffer() {
+        SegmentBuffer buffer = buffers[nextIndex()];
+        if (buffer.isLockFree()) {
+            return idGen.getIdFromSegmentBufferLockFree(buffer);
+        }
+        if (original) {
+            return idGen.getIdFromSegmentBuffer_originalSource(buffer);
+        }
+        return idGen.getIdFromSegmentBuffer(buffer);
+    }
+
+    private int nextIndex() {
+        return tagCount == 1 ? 0 : ThreadLocalRandom.current().nextInt(tagCount);
+    }
+}
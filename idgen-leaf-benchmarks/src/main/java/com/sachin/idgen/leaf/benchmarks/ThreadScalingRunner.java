@@ -0,0 +1,31 @@
+package com.sachin.idgen.leaf.benchmarks;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 依次使用1,2,4...128个线程运行压测，其余参数与JMH命令行相同，例如：
+ * java -cp idgen-leaf-benchmarks/target/benchmarks.jar com.sachin.idgen.leaf.benchmarks.ThreadScalingRunner SegmentIDGenBenchmark.get -p tagCount=1
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class ThreadScalingRunner {
+
+    private static final int MAX_THREADS = 128;
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLineOptions)
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.sachin.idgen.leaf.client;
+
+import com.sachin.idgen.leaf.client.protocol.IdRequest;
+import com.sachin.idgen.leaf.client.protocol.IdResponse;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个取号服务地址，持有一个长连接，连接上的请求通过requestId与响应对应，不需要等待上一个请求的响应。
+ * 连接在第一次请求时建立，断开之后下一次请求时重连；连接失败之后在reconnectBackoffMillis之内直接失败
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class Endpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(Endpoint.class);
+
+    private final String host;
+    private final int port;
+    private final Bootstrap bootstrap;
+    private final long requestTimeoutMillis;
+    private final long reconnectBackoffMillis;
+    private final AtomicInteger requestIds = new AtomicInteger();
+
+    private CompletableFuture<Channel> connecting;
+    private long downUntil;
+
+    /**
+     * 一个连接上未完成的请求，连接断开时全部失败
+     */
+    static class ResponseHandler extends SimpleChannelInboundHandler<IdResponse> {
+        private final Map<Integer, CompletableFuture<IdResponse>> pending = new ConcurrentHashMap<>();
+
+        void send(Channel channel, final IdRequest request, final CompletableFuture<IdResponse> future, long timeoutMillis) {
+            final int requestId = request.getRequestId();
+            pending.put(requestId, future);
+            channel.writeAndFlush(request).addListener(f -> {
+                if (!f.isSuccess() && pending.remove(requestId) != null) {
+                    future.completeExceptionally(f.cause());
+                }
+            });
+            channel.eventLoop().schedule(() -> {
+                if (pending.remove(requestId) != null) {
+                    future.completeExceptionally(new TimeoutException("request " + request.getKey() + " timeout after " + timeoutMillis + " ms"));
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, IdResponse response) {
+            CompletableFuture<IdResponse> future = pending.remove(response.getRequestId());
+            if (future != null) {
+                future.complete(response);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            for (Integer requestId : pending.keySet()) {
+                CompletableFuture<IdResponse> future = pending.remove(requestId);
+                if (future != null) {
+                    future.completeExceptionally(new ClosedChannelException());
+                }
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.warn("connection to {} exception, close it", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * @param address host:port
+     * @param bootstrap pipeline中需要有ClientCodec和ResponseHandler
+     * @param config
+     */
+    public Endpoint(String address, Bootstrap bootstrap, IdClientConfig config) {
+        final int index = address.lastIndexOf(':');
+        if (index <= 0) {
+            throw new IllegalArgumentException("endpoint must be host:port, but was " + address);
+        }
+        this.host = address.substring(0, index);
+        this.port = Integer.parseInt(address.substring(index + 1));
+        this.bootstrap = bootstrap;
+        this.requestTimeoutMillis = config.getRequestTimeoutMillis();
+        this.reconnectBackoffMillis = config.getReconnectBackoffMillis();
+    }
+
+    /**
+     * 发送一个请求
+     * @param type IdProtocol.TYPE_*
+     * @param key
+     * @param count
+     * @return 连接失败、连接断开或者超时时异常完成
+     */
+    public CompletableFuture<IdResponse> send(final byte type, final String key, final int count) {
+        final CompletableFuture<IdResponse> future = new CompletableFuture<>();
+        connect().whenComplete((channel, t) -> {
+            if (t != null) {
+                future.completeExceptionally(t);
+                return;
+            }
+            ResponseHandler handler = channel.pipeline().get(ResponseHandler.class);
+            if (handler == null) {
+                future.completeExceptionally(new ClosedChannelException());
+                return;
+            }
+            handler.send(channel, new IdRequest(requestIds.incrementAndGet(), type, key, count), future, requestTimeoutMillis);
+        });
+        return future;
+    }
+
+    /**
+     * 返回可用的连接，没有时建立新的连接
+     * @return
+     */
+    public synchronized CompletableFuture<Channel> connect() {
+        if (connecting != null) {
+            if (!connecting.isDone()) {
+                return connecting;
+            }
+            if (connecting.isCompletedExceptionally()) {
+                if (System.currentTimeMillis() < downUntil) {
+                    return connecting;
+                }
+            } else if (connecting.join().isActive()) {
+                return connecting;
+            }
+        }
+        final CompletableFuture<Channel> future = new CompletableFuture<>();
+        bootstrap.connect(host, port).addListener((ChannelFuture f) -> {
+            if (f.isSuccess()) {
+                future.complete(f.channel());
+            } else {
+                markDown();
+                logger.warn("connect to {}:{} failed: {}", host, port, f.cause().toString());
+                future.completeExceptionally(new IOException("connect to " + this + " failed", f.cause()));
+            }
+        });
+        connecting = future;
+        return future;
+    }
+
+    public synchronized void close() {
+        if (connecting != null && connecting.isDone() && !connecting.isCompletedExceptionally()) {
+            connecting.join().close();
+        }
+        connecting = null;
+    }
+
+    private synchronized void markDown() {
+        downUntil = System.currentTimeMillis() + reconnectBackoffMillis;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
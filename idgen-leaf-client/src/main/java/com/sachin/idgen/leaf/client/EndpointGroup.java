@@ -0,0 +1,140 @@
+package com.sachin.idgen.leaf.client;
+
+import com.sachin.idgen.leaf.client.protocol.ClientCodec;
+import com.sachin.idgen.leaf.client.protocol.IdProtocol;
+import com.sachin.idgen.leaf.client.protocol.IdResponse;
+import com.sachin.idgen.leaf.core.common.Status;
+import com.sachin.idgen.leaf.core.segment.SegmentIDGenImpl;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个取号服务地址之间的故障转移。
+ *
+ * 请求优先发送到最近一次成功的地址，网络失败、超时或者服务端暂时无法取号时依次尝试下一个地址，
+ * 所有地址都失败时返回最后一个失败的结果。业务tag不存在等确定的失败不会转移
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class EndpointGroup implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EndpointGroup.class);
+
+    private final EventLoopGroup group;
+    private final Endpoint[] endpoints;
+    private volatile int preferred = 0;
+
+    public EndpointGroup(IdClientConfig config) {
+        if (config.getEndpoints() == null || config.getEndpoints().isEmpty()) {
+            throw new IllegalArgumentException("endpoints must not be empty");
+        }
+        this.group = new NioEventLoopGroup(config.getIoThreads(), new DefaultThreadFactory("leaf-client-io", true));
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) config.getConnectTimeoutMillis())
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new ClientCodec(), new Endpoint.ResponseHandler());
+                    }
+                });
+        this.endpoints = new Endpoint[config.getEndpoints().size()];
+        for (int i = 0; i < endpoints.length; i++) {
+            endpoints[i] = new Endpoint(config.getEndpoints().get(i), bootstrap, config);
+        }
+    }
+
+    /**
+     * 同时连接所有地址并等待完成
+     * @param timeoutMillis
+     * @return 连接成功的地址个数
+     */
+    public int connectAll(long timeoutMillis) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[endpoints.length];
+        for (int i = 0; i < endpoints.length; i++) {
+            futures[i] = endpoints[i].connect();
+        }
+        int connected = 0;
+        for (CompletableFuture<?> future : futures) {
+            try {
+                future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                connected++;
+            } catch (Exception e) {
+                // 失败的地址在取号时按照重连间隔重试
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * 发送一个请求，失败时依次尝试其他地址
+     * @param type IdProtocol.TYPE_*
+     * @param key
+     * @param count
+     * @return
+     */
+    public CompletableFuture<IdResponse> send(byte type, String key, int count) {
+        return send(type, key, count, preferred, 0);
+    }
+
+    private CompletableFuture<IdResponse> send(final byte type, final String key, final int count, final int index, final int attempts) {
+        final Endpoint endpoint = endpoints[index % endpoints.length];
+        return endpoint.send(type, key, count).handle((response, t) -> {
+            if (t == null && !shouldFailover(response)) {
+                preferred = index % endpoints.length;
+                return CompletableFuture.completedFuture(response);
+            }
+            if (t != null) {
+                logger.warn("request {} to {} failed: {}", key, endpoint, t.toString());
+            } else {
+                logger.warn("request {} to {} failed, code {}", key, endpoint, response.getIds()[0]);
+            }
+            if (attempts + 1 >= endpoints.length) {
+                if (t != null) {
+                    CompletableFuture<IdResponse> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(t);
+                    return failed;
+                }
+                return CompletableFuture.completedFuture(response);
+            }
+            return send(type, key, count, index + 1, attempts + 1);
+        }).thenCompose(f -> f);
+    }
+
+    /**
+     * 服务端没有初始化、无法从db装载号段、db不可用时已经降级或者出现未预期的异常时，其他服务端可能可以取号
+     */
+    private static boolean shouldFailover(IdResponse response) {
+        if (response.getStatus() == Status.SUCCESS) {
+            return false;
+        }
+        final long code = response.getIds()[0];
+        return code == SegmentIDGenImpl.EXCEPTION_ID_IDCACHE_INIT_FALSE
+                || code == SegmentIDGenImpl.EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL
+                || code == SegmentIDGenImpl.EXCEPTION_ID_DB_UNAVAILABLE
+                || code == IdProtocol.EXCEPTION_ID_SERVER_ERROR;
+    }
+
+    @Override
+    public void close() {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.close();
+        }
+        group.shutdownGracefully(0, 2, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+}
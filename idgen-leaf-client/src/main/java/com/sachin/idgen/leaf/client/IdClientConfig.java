@@ -0,0 +1,58 @@
+package com.sachin.idgen.leaf.client;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RemoteIDGen的配置
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+public class IdClientConfig {
+
+    /**
+     * 取号服务的地址，格式为 host:port，按照顺序作为备用
+     */
+    private List<String> endpoints = new ArrayList<>();
+
+    /**
+     * 初始的租用个数，也是租用个数的下限
+     */
+    private int leaseSize = 1000;
+    /**
+     * 租用个数的上限，不能超过服务端的maxLeaseCount
+     */
+    private int maxLeaseSize = 100000;
+    /**
+     * 一次租用的号段预期维持的时间：少于该时间用完则下一次租用个数翻倍，超过两倍则减半
+     */
+    private long leaseDurationMillis = 10 * 1000L;
+    /**
+     * 一次批量取号最多的id个数，与服务端的maxBatchCount相同，超过时返回 EXCEPTION_ID_BATCH_COUNT_ILLEGAL
+     */
+    private int maxBatchCount = 10000;
+    /**
+     * 当前号段剩余的比例低于该值，并且没有已经准备好的号段时，异步预取下一个号段
+     */
+    private double prefetchThreshold = 0.9;
+
+    private long connectTimeoutMillis = 1000;
+    /**
+     * 一次网络请求的超时时间，也是取号时等待号段的最长时间
+     */
+    private long requestTimeoutMillis = 1000;
+    /**
+     * 连接失败之后，在这段时间内不再尝试连接该地址，直接使用下一个地址
+     */
+    private long reconnectBackoffMillis = 1000;
+    /**
+     * 租用失败之后，在这段时间内取号直接返回失败的异常码，避免每次取号都访问服务端
+     */
+    private long errorBackoffMillis = 100;
+
+    private int ioThreads = 1;
+}
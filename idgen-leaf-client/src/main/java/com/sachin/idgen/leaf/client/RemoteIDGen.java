@@ -0,0 +1,275 @@
+package com.sachin.idgen.leaf.client;
+
+import com.sachin.idgen.leaf.client.model.LeaseBuffer;
+import com.sachin.idgen.leaf.client.model.LeaseSegment;
+import com.sachin.idgen.leaf.client.protocol.IdProtocol;
+import com.sachin.idgen.leaf.core.IDGen;
+import com.sachin.idgen.leaf.core.IdAllocator;
+import com.sachin.idgen.leaf.core.common.BatchResult;
+import com.sachin.idgen.leaf.core.common.ImmutableResult;
+import com.sachin.idgen.leaf.core.common.Result;
+import com.sachin.idgen.leaf.core.common.Status;
+import com.sachin.idgen.leaf.core.segment.SegmentIDGenImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 通过取号服务取号的IDGen，从服务端按区间租用号段，在本地发放，大部分取号不需要访问网络。
+ *
+ * 每个业务tag对应一个LeaseBuffer，与服务端的SegmentBuffer相同采用双buffer：当前号段剩余不足prefetchThreshold时，
+ * 异步租用下一个号段，当前号段用完时直接切换。租用个数按照号段维持的时间动态调整，与服务端的step调整方式相同。
+ * 与SegmentIDGenImpl实现同一个IDGen接口，业务代码从内嵌的SegmentIDGenImpl切换到取号服务只需要修改配置。
+ *
+ * 进程退出时本地没有发放完的id会被丢弃，与服务端重启时丢弃号段的行为一致
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class RemoteIDGen implements IDGen, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemoteIDGen.class);
+
+    /**
+     * 所有取号服务都不可用，或者等待租用超时
+     */
+    public static final long EXCEPTION_ID_SERVER_UNAVAILABLE = -9;
+
+    private final IdClientConfig config;
+    private final Map<String, LeaseBuffer> buffers = new ConcurrentHashMap<>();
+    private volatile EndpointGroup endpoints;
+    private volatile boolean initOk = false;
+
+    public RemoteIDGen(IdClientConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * 连接所有取号服务
+     * @return 至少一个取号服务连接成功时返回true；都失败时仍然可以取号，取号时会重试连接
+     */
+    @Override
+    public boolean init() {
+        if (endpoints == null) {
+            endpoints = new EndpointGroup(config);
+        }
+        final int connected = endpoints.connectAll(config.getConnectTimeoutMillis());
+        initOk = true;
+        logger.info("remote id gen init, {} of {} endpoints connected", connected, config.getEndpoints().size());
+        return connected > 0;
+    }
+
+    @Override
+    public Result get(String key) {
+        return ImmutableResult.of(nextId(key));
+    }
+
+    @Override
+    public long nextId(String key) {
+        if (!initOk) {
+            return SegmentIDGenImpl.EXCEPTION_ID_IDCACHE_INIT_FALSE;
+        }
+        return nextId(buffer(key));
+    }
+
+    @Override
+    public BatchResult getBatch(String key, int count) {
+        if (!initOk) {
+            return new BatchResult(new long[]{SegmentIDGenImpl.EXCEPTION_ID_IDCACHE_INIT_FALSE}, Status.EXCEPTION);
+        }
+        if (count <= 0 || count > config.getMaxBatchCount()) {
+            return new BatchResult(new long[]{SegmentIDGenImpl.EXCEPTION_ID_BATCH_COUNT_ILLEGAL}, Status.EXCEPTION);
+        }
+        return getBatch(buffer(key), count);
+    }
+
+    @Override
+    public IdAllocator handle(final String key) {
+        final LeaseBuffer buffer = buffer(key);
+        return new IdAllocator() {
+            @Override
+            public String getKey() {
+                return key;
+            }
+
+            @Override
+            public Result get() {
+                return ImmutableResult.of(nextId());
+            }
+
+            @Override
+            public long nextId() {
+                return initOk ? RemoteIDGen.this.nextId(buffer) : SegmentIDGenImpl.EXCEPTION_ID_IDCACHE_INIT_FALSE;
+            }
+
+            @Override
+            public BatchResult getBatch(int count) {
+                if (!initOk) {
+                    return new BatchResult(new long[]{SegmentIDGenImpl.EXCEPTION_ID_IDCACHE_INIT_FALSE}, Status.EXCEPTION);
+                }
+                if (count <= 0 || count > config.getMaxBatchCount()) {
+                    return new BatchResult(new long[]{SegmentIDGenImpl.EXCEPTION_ID_BATCH_COUNT_ILLEGAL}, Status.EXCEPTION);
+                }
+                return RemoteIDGen.this.getBatch(buffer, count);
+            }
+        };
+    }
+
+    private LeaseBuffer buffer(String key) {
+        LeaseBuffer buffer = buffers.get(key);
+        return buffer != null ? buffer : buffers.computeIfAbsent(key, k -> new LeaseBuffer(k, config.getLeaseSize()));
+    }
+
+    private long nextId(LeaseBuffer buffer) {
+        long deadline = 0;
+        while (true) {
+            final LeaseSegment segment = buffer.getCurrent();
+            if (segment != null) {
+                final long id = segment.getAndIncrement();
+                if (id < segment.getMax()) {
+                    if (id == segment.getPrefetchAt()) {
+                        prefetch(buffer);
+                    }
+                    return id;
+                }
+            }
+            if (buffer.switchSegment(segment)) {
+                continue;
+            }
+            final long error = buffer.getError();
+            if (error < 0) {
+                return error;
+            }
+            fetch(buffer, 1);
+            if (deadline == 0) {
+                deadline = System.currentTimeMillis() + config.getRequestTimeoutMillis();
+            }
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return EXCEPTION_ID_SERVER_UNAVAILABLE;
+            }
+            try {
+                buffer.await(segment, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return EXCEPTION_ID_SERVER_UNAVAILABLE;
+            }
+        }
+    }
+
+    private BatchResult getBatch(LeaseBuffer buffer, int count) {
+        final long[] ids = new long[count];
+        int filled = 0;
+        long deadline = 0;
+        while (filled < count) {
+            final LeaseSegment segment = buffer.getCurrent();
+            if (segment != null) {
+                final long start = segment.getAndAdd(count - filled);
+                final long end = Math.min(segment.getMax(), start + count - filled);
+                if (start < end) {
+                    for (long id = start; id < end; id++) {
+                        ids[filled++] = id;
+                    }
+                    if (start <= segment.getPrefetchAt() && segment.getPrefetchAt() < end) {
+                        prefetch(buffer);
+                    }
+                    continue;
+                }
+            }
+            if (buffer.switchSegment(segment)) {
+                continue;
+            }
+            final long error = buffer.getError();
+            if (error < 0) {
+                return new BatchResult(new long[]{error}, Status.EXCEPTION);
+            }
+            fetch(buffer, count - filled);
+            if (deadline == 0) {
+                deadline = System.currentTimeMillis() + config.getRequestTimeoutMillis();
+            }
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return new BatchResult(new long[]{EXCEPTION_ID_SERVER_UNAVAILABLE}, Status.EXCEPTION);
+            }
+            try {
+                buffer.await(segment, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new BatchResult(new long[]{EXCEPTION_ID_SERVER_UNAVAILABLE}, Status.EXCEPTION);
+            }
+        }
+        return new BatchResult(ids, Status.SUCCESS);
+    }
+
+    /**
+     * 当前号段发放到预取点，并且没有已经准备好的号段时，异步租用下一个号段
+     */
+    private void prefetch(LeaseBuffer buffer) {
+        if (!buffer.hasReadySegment()) {
+            fetch(buffer, 1);
+        }
+    }
+
+    /**
+     * 异步租用号段，同一个业务tag同一时间只有一个租用请求，租用完成之后由IO线程放入LeaseBuffer
+     * @param buffer
+     * @param minCount 至少租用的个数
+     */
+    private void fetch(final LeaseBuffer buffer, int minCount) {
+        final EndpointGroup group = endpoints;
+        if (group == null || !buffer.startFetch()) {
+            return;
+        }
+        final int count = nextLeaseSize(buffer, minCount);
+        final String key = buffer.getKey();
+        group.send(IdProtocol.TYPE_LEASE, key, count).whenComplete((response, t) -> {
+            if (t != null) {
+                buffer.failed(EXCEPTION_ID_SERVER_UNAVAILABLE, config.getErrorBackoffMillis());
+            } else if (response.getStatus() != Status.SUCCESS) {
+                logger.warn("lease {} failed, code {}", key, response.getIds()[0]);
+                buffer.failed(response.getIds()[0], config.getErrorBackoffMillis());
+            } else {
+                buffer.setLastLeaseMillis(System.currentTimeMillis());
+                buffer.fetched(response.getIds(), config.getPrefetchThreshold());
+            }
+        });
+    }
+
+    /**
+     * 与服务端的step调整相同：上一个号段维持的时间少于leaseDurationMillis则翻倍，超过两倍则减半
+     */
+    private int nextLeaseSize(LeaseBuffer buffer, int minCount) {
+        final long duration = System.currentTimeMillis() - buffer.getLastLeaseMillis();
+        int leaseSize = buffer.getLeaseSize();
+        if (buffer.getLastLeaseMillis() > 0) {
+            if (duration < config.getLeaseDurationMillis()) {
+                leaseSize = Math.min(leaseSize * 2, config.getMaxLeaseSize());
+            } else if (duration >= config.getLeaseDurationMillis() * 2) {
+                leaseSize = Math.max(leaseSize / 2, config.getLeaseSize());
+            }
+        }
+        buffer.setLeaseSize(leaseSize);
+        return Math.max(leaseSize, Math.min(minCount, config.getMaxLeaseSize()));
+    }
+
+    public Map<String, LeaseBuffer> getBuffers() {
+        return buffers;
+    }
+
+    public IdClientConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public void close() {
+        initOk = false;
+        EndpointGroup group = endpoints;
+        endpoints = null;
+        if (group != null) {
+            group.close();
+        }
+    }
+}
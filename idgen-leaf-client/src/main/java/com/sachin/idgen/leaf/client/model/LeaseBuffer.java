@@ -0,0 +1,157 @@
+package com.sachin.idgen.leaf.client.model;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一个业务tag在客户端的号段缓存，对应服务端lock-free模式的SegmentBuffer：
+ * current为正在发放的号段，取号只对它做一次原子加；readySegments为已经租用、等待使用的号段，
+ * current用完之后在buffer的锁内切换到下一个号段。同一时间只有一个租用请求，由fetching保证
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class LeaseBuffer {
+
+    private final String key;
+    private volatile LeaseSegment current;
+    /**
+     * 已经租用、等待使用的号段，访问时需要持有buffer的锁
+     */
+    private final ArrayDeque<LeaseSegment> readySegments = new ArrayDeque<>(2);
+    private final AtomicBoolean fetching = new AtomicBoolean(false);
+
+    /**
+     * 下一次租用的个数，只在持有fetching的线程中访问
+     */
+    private int leaseSize;
+    private long lastLeaseMillis;
+
+    /**
+     * 最近一次租用失败的异常码，在errorUntil之前有效
+     */
+    private volatile long errorCode;
+    private volatile long errorUntil;
+
+    public LeaseBuffer(String key, int leaseSize) {
+        this.key = key;
+        this.leaseSize = leaseSize;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public LeaseSegment getCurrent() {
+        return current;
+    }
+
+    /**
+     * current已经用完时切换到下一个已经准备好的号段
+     * @param exhausted 调用方看到的已经用完的号段
+     * @return current是否已经不是exhausted，为true时调用方应当重新取号
+     */
+    public synchronized boolean switchSegment(LeaseSegment exhausted) {
+        if (current != exhausted) {
+            return true;
+        }
+        LeaseSegment next = readySegments.poll();
+        if (next == null) {
+            return false;
+        }
+        current = next;
+        return true;
+    }
+
+    public synchronized boolean hasReadySegment() {
+        return !readySegments.isEmpty();
+    }
+
+    /**
+     * 开始租用，同一时间只有一个线程可以成功
+     * @return
+     */
+    public boolean startFetch() {
+        return fetching.compareAndSet(false, true);
+    }
+
+    /**
+     * 租用成功，ranges中的区间依次加入readySegments并唤醒等待的线程
+     * @param ranges 依次排列的start和end
+     * @param prefetchThreshold
+     */
+    public synchronized void fetched(long[] ranges, double prefetchThreshold) {
+        for (int i = 0; i + 1 < ranges.length; i += 2) {
+            if (ranges[i] < ranges[i + 1]) {
+                readySegments.add(new LeaseSegment(ranges[i], ranges[i + 1], prefetchThreshold));
+            }
+        }
+        if (current == null || current.getIdle() == 0) {
+            LeaseSegment next = readySegments.poll();
+            if (next != null) {
+                current = next;
+            }
+        }
+        errorUntil = 0;
+        fetching.set(false);
+        notifyAll();
+    }
+
+    /**
+     * 租用失败，backoffMillis之内取号直接返回errorCode
+     * @param errorCode
+     * @param backoffMillis
+     */
+    public synchronized void failed(long errorCode, long backoffMillis) {
+        this.errorCode = errorCode;
+        this.errorUntil = System.currentTimeMillis() + backoffMillis;
+        fetching.set(false);
+        notifyAll();
+    }
+
+    /**
+     * @return 最近一次租用失败并且还在退避时间内时返回异常码，否则返回0
+     */
+    public long getError() {
+        return errorUntil != 0 && System.currentTimeMillis() < errorUntil ? errorCode : 0;
+    }
+
+    /**
+     * 等待租用完成
+     * @param exhausted 调用方看到的已经用完的号段
+     * @param timeoutMillis
+     * @throws InterruptedException
+     */
+    public synchronized void await(LeaseSegment exhausted, long timeoutMillis) throws InterruptedException {
+        if (current == exhausted && readySegments.isEmpty() && fetching.get() && timeoutMillis > 0) {
+            wait(timeoutMillis);
+        }
+    }
+
+    public int getLeaseSize() {
+        return leaseSize;
+    }
+
+    public void setLeaseSize(int leaseSize) {
+        this.leaseSize = leaseSize;
+    }
+
+    public long getLastLeaseMillis() {
+        return lastLeaseMillis;
+    }
+
+    public void setLastLeaseMillis(long lastLeaseMillis) {
+        this.lastLeaseMillis = lastLeaseMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("LeaseBuffer{");
+        sb.append("key='").append(key).append('\'');
+        sb.append(", current=").append(current);
+        sb.append(", leaseSize=").append(leaseSize);
+        sb.append(", fetching=").append(fetching.get());
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,56 @@
+package com.sachin.idgen.leaf.client.model;
+
+import lombok.Data;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * 从取号服务租用的一个号段 [value, max)，对应服务端的Segment
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+public class LeaseSegment {
+
+    private static final AtomicLongFieldUpdater<LeaseSegment> VALUE_UPDATER = AtomicLongFieldUpdater.newUpdater(LeaseSegment.class, "value");
+
+    /**
+     * 当前使用的值，用完之后会继续增加，超过max的值无效
+     */
+    private volatile long value;
+    private final long max;
+    /**
+     * 发放到这个值时触发预取
+     */
+    private final long prefetchAt;
+
+    public LeaseSegment(long value, long max, double prefetchThreshold) {
+        this.value = value;
+        this.max = max;
+        this.prefetchAt = Math.min(max - 1, max - (long) ((max - value) * prefetchThreshold));
+    }
+
+    public long getIdle() {
+        return Math.max(0, max - value);
+    }
+
+    public long getAndIncrement() {
+        return VALUE_UPDATER.getAndIncrement(this);
+    }
+
+    public long getAndAdd(long delta) {
+        return VALUE_UPDATER.getAndAdd(this, delta);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("LeaseSegment(");
+        sb.append("value:");
+        sb.append(value);
+        sb.append(",max:");
+        sb.append(max);
+        sb.append(")");
+        return sb.toString();
+    }
+}
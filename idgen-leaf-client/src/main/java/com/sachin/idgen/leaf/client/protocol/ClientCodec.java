@@ -0,0 +1,80 @@
+package com.sachin.idgen.leaf.client.protocol;
+
+import com.sachin.idgen.leaf.core.common.Status;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 客户端编解码：编码IdRequest，解码IdResponse
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class ClientCodec extends ByteToMessageCodec<IdRequest> {
+
+    private final int maxFrameLength;
+
+    public ClientCodec() {
+        this(IdProtocol.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public ClientCodec(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, IdRequest request, ByteBuf out) {
+        final byte[] key = request.getKey().getBytes(StandardCharsets.UTF_8);
+        if (key.length > IdProtocol.MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("key length must not exceed " + IdProtocol.MAX_KEY_LENGTH + " bytes");
+        }
+        final int lengthIndex = IdProtocol.beginFrame(out);
+        out.writeByte(IdProtocol.VERSION);
+        out.writeByte(request.getType());
+        out.writeInt(request.getRequestId());
+        out.writeInt(request.getCount());
+        out.writeShort(key.length);
+        out.writeBytes(key);
+        IdProtocol.endFrame(out, lengthIndex);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        final ByteBuf frame;
+        try {
+            frame = IdProtocol.readFrame(in, maxFrameLength);
+        } catch (IllegalArgumentException e) {
+            in.skipBytes(in.readableBytes());
+            throw new CorruptedFrameException(e.getMessage());
+        }
+        if (frame == null) {
+            return;
+        }
+        try {
+            if (frame.readByte() != IdProtocol.VERSION) {
+                throw new CorruptedFrameException("unsupported protocol version");
+            }
+            final byte type = frame.readByte();
+            final int requestId = frame.readInt();
+            final Status status = frame.readByte() == IdProtocol.STATUS_SUCCESS ? Status.SUCCESS : Status.EXCEPTION;
+            final int count = frame.readInt();
+            if (count < 0 || count * 8L != frame.readableBytes()) {
+                throw new CorruptedFrameException("bad id count " + count);
+            }
+            final long[] ids = new long[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = frame.readLong();
+            }
+            out.add(new IdResponse(requestId, type, status, ids));
+        } catch (IndexOutOfBoundsException e) {
+            throw new CorruptedFrameException("truncated response frame");
+        } finally {
+            frame.release();
+        }
+    }
+}
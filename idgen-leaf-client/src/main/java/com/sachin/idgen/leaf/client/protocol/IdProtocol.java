@@ -0,0 +1,136 @@
+package com.sachin.idgen.leaf.client.protocol;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 取号服务的二进制协议。
+ *
+ * 每一帧为：magic(2) + 帧体长度(4) + 帧体，帧体的第一个字节为协议版本，第二个字节为帧类型。
+ * 请求帧体：version(1) + type(1) + requestId(4) + count(4) + key长度(2) + key(UTF-8)
+ * 响应帧体：version(1) + type(1) + requestId(4) + status(1) + id个数(4) + id(8) * id个数
+ *
+ * 同一个连接上可以连续发送多个请求而不等待响应，响应通过requestId与请求对应，不保证按照请求的顺序返回。
+ * 取号失败时响应中只有一个id，为服务端IDGen返回的 EXCEPTION_ID_* 异常码。
+ * 租用号段的响应中id两两一组，每组为一个区间 [start, end)，客户端在本地发放区间内的id。
+ * magic的两个字节为"LF"，不会与HTTP请求的方法名冲突，因此二进制协议与HTTP可以共用一个端口
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public final class IdProtocol {
+
+    public static final short MAGIC = 0x4C46;
+    public static final byte VERSION = 1;
+
+    /**
+     * 取一个id
+     */
+    public static final byte TYPE_GET = 1;
+    /**
+     * 批量取号，一次取count个id
+     */
+    public static final byte TYPE_BATCH = 2;
+    /**
+     * 租用号段，一次租用count个id，以区间的形式返回
+     */
+    public static final byte TYPE_LEASE = 3;
+
+    public static final byte STATUS_SUCCESS = 0;
+    public static final byte STATUS_EXCEPTION = 1;
+
+    /**
+     * 服务端处理请求时出现未预期的异常
+     */
+    public static final long EXCEPTION_ID_SERVER_ERROR = -8;
+
+    /**
+     * magic + 帧体长度
+     */
+    public static final int FRAME_HEADER_LENGTH = 2 + 4;
+    public static final int MAX_KEY_LENGTH = 128;
+    /**
+     * 默认的最大帧体长度，足够容纳 100000 个id的响应
+     */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;
+
+    private IdProtocol() {
+    }
+
+    /**
+     * 是否以二进制协议的magic开头，可读字节不足2个时返回false
+     * @param in
+     * @return
+     */
+    public static boolean isBinary(ByteBuf in) {
+        return in.readableBytes() >= 2 && in.getShort(in.readerIndex()) == MAGIC;
+    }
+
+    /**
+     * 把批量取号得到的id压缩为区间，连续的id合并为一个区间 [start, end)
+     * @param ids
+     * @return 依次排列的start和end
+     */
+    public static long[] toRanges(long[] ids) {
+        int ranges = ids.length > 0 ? 1 : 0;
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] != ids[i - 1] + 1) {
+                ranges++;
+            }
+        }
+        final long[] result = new long[ranges * 2];
+        int index = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i == 0 || ids[i] != ids[i - 1] + 1) {
+                if (i > 0) {
+                    result[index++] = ids[i - 1] + 1;
+                }
+                result[index++] = ids[i];
+            }
+        }
+        if (ids.length > 0) {
+            result[index] = ids[ids.length - 1] + 1;
+        }
+        return result;
+    }
+
+    /**
+     * 从in中读取一个完整的帧体，不足一帧时不移动读指针并返回null
+     * @param in
+     * @param maxFrameLength
+     * @return 帧体，调用方负责release
+     */
+    static ByteBuf readFrame(ByteBuf in, int maxFrameLength) {
+        if (in.readableBytes() < FRAME_HEADER_LENGTH) {
+            return null;
+        }
+        final int start = in.readerIndex();
+        if (in.getShort(start) != MAGIC) {
+            throw new IllegalArgumentException("bad magic " + Integer.toHexString(in.getShort(start) & 0xFFFF));
+        }
+        final int length = in.getInt(start + 2);
+        if (length < 2 || length > maxFrameLength) {
+            throw new IllegalArgumentException("bad frame length " + length);
+        }
+        if (in.readableBytes() < FRAME_HEADER_LENGTH + length) {
+            return null;
+        }
+        in.skipBytes(FRAME_HEADER_LENGTH);
+        return in.readRetainedSlice(length);
+    }
+
+    /**
+     * 写入帧头并预留帧体长度，帧体写完之后调用 endFrame
+     * @param out
+     * @return 帧体长度字段的位置
+     */
+    static int beginFrame(ByteBuf out) {
+        out.writeShort(MAGIC);
+        final int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        return lengthIndex;
+    }
+
+    static void endFrame(ByteBuf out, int lengthIndex) {
+        out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+    }
+}
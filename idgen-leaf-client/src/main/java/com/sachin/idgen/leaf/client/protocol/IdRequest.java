@@ -0,0 +1,31 @@
+package com.sachin.idgen.leaf.client.protocol;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 二进制协议的取号请求
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class IdRequest {
+
+    /**
+     * 由客户端分配，服务端原样返回
+     */
+    private int requestId;
+    /**
+     * IdProtocol.TYPE_*
+     */
+    private byte type;
+    private String key;
+    /**
+     * 批量取号的id个数，TYPE_GET时为1
+     */
+    private int count;
+}
@@ -0,0 +1,36 @@
+package com.sachin.idgen.leaf.client.protocol;
+
+import com.sachin.idgen.leaf.core.common.Status;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Arrays;
+
+/**
+ * 二进制协议的取号响应，与BatchResult的约定一致：取号失败时ids中只包含一个异常码
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class IdResponse {
+
+    private int requestId;
+    private byte type;
+    private Status status;
+    private long[] ids;
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("IdResponse{");
+        sb.append("requestId=").append(requestId);
+        sb.append(", type=").append(type);
+        sb.append(", status=").append(status);
+        sb.append(", ids=").append(Arrays.toString(ids));
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.sachin.idgen.leaf.client.protocol;
+
+import com.sachin.idgen.leaf.core.common.Status;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 服务端编解码：解码IdRequest，编码IdResponse
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class ServerCodec extends ByteToMessageCodec<IdResponse> {
+
+    private final int maxFrameLength;
+
+    public ServerCodec() {
+        this(IdProtocol.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public ServerCodec(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, IdResponse response, ByteBuf out) {
+        final long[] ids = response.getIds();
+        out.ensureWritable(IdProtocol.FRAME_HEADER_LENGTH + 11 + ids.length * 8);
+        final int lengthIndex = IdProtocol.beginFrame(out);
+        out.writeByte(IdProtocol.VERSION);
+        out.writeByte(response.getType());
+        out.writeInt(response.getRequestId());
+        out.writeByte(response.getStatus() == Status.SUCCESS ? IdProtocol.STATUS_SUCCESS : IdProtocol.STATUS_EXCEPTION);
+        out.writeInt(ids.length);
+        for (long id : ids) {
+            out.writeLong(id);
+        }
+        IdProtocol.endFrame(out, lengthIndex);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        final ByteBuf frame;
+        try {
+            frame = IdProtocol.readFrame(in, maxFrameLength);
+        } catch (IllegalArgumentException e) {
+            in.skipBytes(in.readableBytes());
+            throw new CorruptedFrameException(e.getMessage());
+        }
+        if (frame == null) {
+            return;
+        }
+        try {
+            if (frame.readByte() != IdProtocol.VERSION) {
+                throw new CorruptedFrameException("unsupported protocol version");
+            }
+            final byte type = frame.readByte();
+            final int requestId = frame.readInt();
+            final int count = frame.readInt();
+            final int keyLength = frame.readUnsignedShort();
+            if (keyLength > IdProtocol.MAX_KEY_LENGTH || keyLength != frame.readableBytes()) {
+                throw new CorruptedFrameException("bad key length " + keyLength);
+            }
+            out.add(new IdRequest(requestId, type, frame.toString(frame.readerIndex(), keyLength, StandardCharsets.UTF_8), count));
+        } catch (IndexOutOfBoundsException e) {
+            throw new CorruptedFrameException("truncated request frame");
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.sachin.idgen.leaf.core;
+
+import com.sachin.idgen.leaf.core.common.BatchResult;
+import com.sachin.idgen.leaf.core.common.RangeResult;
+import com.sachin.idgen.leaf.core.common.Result;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步取号，取号线程不会因为等待Segment装载而阻塞，适用于Netty等事件驱动的调用方。
+ *
+ * 内存中有可用id时返回的future已经完成；否则请求被挂起，在后台装载Segment完成之后由装载线程完成future，
+ * 因此future上注册的非async回调可能在装载线程中执行
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public interface AsyncIDGen {
+
+    CompletableFuture<Result> getAsync(String key);
+
+    CompletableFuture<BatchResult> getBatchAsync(String key, int count);
+
+    /**
+     * 租用count个id，与getBatchAsync相同，只是以区间的形式返回，不为每个id分配内存
+     * @param key
+     * @param count
+     * @return
+     */
+    CompletableFuture<RangeResult> leaseAsync(String key, int count);
+}
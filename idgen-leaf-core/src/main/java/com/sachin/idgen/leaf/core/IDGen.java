@@ -1,5 +1,6 @@
 package com.sachin.idgen.leaf.core;
 
+import com.sachin.idgen.leaf.core.common.BatchResult;
 import com.sachin.idgen.leaf.core.common.Result;
 
 /**
@@ -10,5 +11,50 @@ public interface IDGen {
 
     Result get(String key);
 
+    /**
+     * 取号，不创建Result对象。
+     * 返回值小于0表示取号失败，返回值为实现类中定义的 EXCEPTION_ID_* 异常码
+     * @param key 业务tag
+     * @return
+     */
+    long nextId(String key);
+
+    /**
+     * 批量取号，一次申请count个id，尽量从同一个Segment中连续分配
+     * @param key 业务tag
+     * @param count 申请的id个数
+     * @return
+     */
+    BatchResult getBatch(String key, int count);
+
     boolean init();
+
+    /**
+     * 获取绑定了业务tag的取号句柄，默认实现每次取号仍然调用当前接口中按业务tag取号的方法
+     * @param key 业务tag
+     * @return
+     */
+    default IdAllocator handle(final String key) {
+        return new IdAllocator() {
+            @Override
+            public String getKey() {
+                return key;
+            }
+
+            @Override
+            public Result get() {
+                return IDGen.this.get(key);
+            }
+
+            @Override
+            public long nextId() {
+                return IDGen.this.nextId(key);
+            }
+
+            @Override
+            public BatchResult getBatch(int count) {
+                return IDGen.this.getBatch(key, count);
+            }
+        };
+    }
 }
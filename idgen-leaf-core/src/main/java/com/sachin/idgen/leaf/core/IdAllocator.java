@@ -0,0 +1,27 @@
+package com.sachin.idgen.leaf.core;
+
+import com.sachin.idgen.leaf.core.common.BatchResult;
+import com.sachin.idgen.leaf.core.common.Result;
+
+/**
+ * 绑定了业务tag的取号句柄，通过 IDGen.handle 获取。
+ * 适用于业务tag在启动时就确定的调用方：取号时不再按业务tag查找，返回值的含义与IDGen中对应的方法相同。
+ * 句柄是线程安全的，可以被多个线程共享
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public interface IdAllocator {
+
+    String getKey();
+
+    Result get();
+
+    /**
+     * 取号，返回值小于0表示取号失败，与 IDGen.nextId 相同
+     * @return
+     */
+    long nextId();
+
+    BatchResult getBatch(int count);
+}
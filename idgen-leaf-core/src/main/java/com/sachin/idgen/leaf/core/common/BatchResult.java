@@ -0,0 +1,33 @@
+package com.sachin.idgen.leaf.core.common;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Arrays;
+
+/**
+ * 批量取号的结果
+ *
+ * 取号成功时ids中为本次申请到的全部id；取号失败时与Result的约定一致，ids中只包含一个异常码
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchResult {
+
+    private long[] ids;
+    private Status status;
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("BatchResult{");
+        sb.append("ids=").append(Arrays.toString(ids));
+        sb.append(", status=").append(status);
+        sb.append('}');
+        return sb.toString();
+    }
+}
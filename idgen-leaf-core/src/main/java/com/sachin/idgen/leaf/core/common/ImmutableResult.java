@@ -0,0 +1,57 @@
+package com.sachin.idgen.leaf.core.common;
+
+/**
+ * 不可修改的Result，用于预先分配的取号失败结果，避免每次取号失败都创建新的对象。
+ *
+ * 异常码都是较小的负数，[-MAX_CACHED_CODE, -1] 范围内的异常码对应的结果会被缓存复用
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public final class ImmutableResult extends Result {
+
+    private static final int MAX_CACHED_CODE = 64;
+
+    private static final ImmutableResult[] EXCEPTION_RESULTS = new ImmutableResult[MAX_CACHED_CODE + 1];
+
+    static {
+        for (int i = 1; i <= MAX_CACHED_CODE; i++) {
+            EXCEPTION_RESULTS[i] = new ImmutableResult(-i, Status.EXCEPTION);
+        }
+    }
+
+    private ImmutableResult(long id, Status status) {
+        super(id, status);
+    }
+
+    /**
+     * 获取异常码对应的取号失败结果
+     * @param code 异常码，小于0
+     * @return
+     */
+    public static Result exception(long code) {
+        if (code < 0 && code >= -MAX_CACHED_CODE) {
+            return EXCEPTION_RESULTS[(int) -code];
+        }
+        return new ImmutableResult(code, Status.EXCEPTION);
+    }
+
+    /**
+     * 将nextId返回的id转换为Result，小于0的id是异常码
+     * @param id
+     * @return
+     */
+    public static Result of(long id) {
+        return id < 0 ? exception(id) : new Result(id, Status.SUCCESS);
+    }
+
+    @Override
+    public void setId(long id) {
+        throw new UnsupportedOperationException("immutable result");
+    }
+
+    @Override
+    public void setStatus(Status status) {
+        throw new UnsupportedOperationException("immutable result");
+    }
+}
@@ -0,0 +1,34 @@
+package com.sachin.idgen.leaf.core.common;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Arrays;
+
+/**
+ * 租用号段的结果
+ *
+ * 取号成功时ranges中依次排列每个区间的start和end，区间为 [start, end)，连续的id合并为一个区间；
+ * 取号失败时与Result的约定一致，ranges中只包含一个异常码
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RangeResult {
+
+    private long[] ranges;
+    private Status status;
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("RangeResult{");
+        sb.append("ranges=").append(Arrays.toString(ranges));
+        sb.append(", status=").append(status);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,44 @@
+package com.sachin.idgen.leaf.core.common;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Enumeration;
+
+/**
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class Utils {
+
+    private Utils() {
+    }
+
+    /**
+     * 获取本机第一个非回环的IPv4地址，找不到时返回127.0.0.1
+     * @return
+     */
+    public static String getIp() {
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while (interfaces.hasMoreElements()) {
+                NetworkInterface networkInterface = interfaces.nextElement();
+                if (networkInterface.isLoopback() || networkInterface.isVirtual() || !networkInterface.isUp()) {
+                    continue;
+                }
+                Enumeration<InetAddress> addresses = networkInterface.getInetAddresses();
+                while (addresses.hasMoreElements()) {
+                    InetAddress address = addresses.nextElement();
+                    if (address.isLoopbackAddress() || address instanceof Inet6Address) {
+                        continue;
+                    }
+                    return address.getHostAddress();
+                }
+            }
+        } catch (SocketException e) {
+            throw new IllegalStateException("get local ip failed", e);
+        }
+        return "127.0.0.1";
+    }
+}
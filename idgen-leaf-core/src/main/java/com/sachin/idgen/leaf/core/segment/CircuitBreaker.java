@@ -0,0 +1,175 @@
+package com.sachin.idgen.leaf.core.segment;
+
+import com.sachin.idgen.leaf.core.segment.model.DegradeConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 从db装载Segment的熔断器。
+ *
+ * CLOSED：正常访问db，连续failureThreshold次失败或者一次访问超过slowCallMillis之后进入OPEN；
+ * OPEN：不访问db，openMillis之后第一个访问进入HALF_OPEN作为探测；
+ * HALF_OPEN：只放行探测的那一次访问，成功进入CLOSED，失败或者超时重新进入OPEN。
+ *
+ * db完全卡住时访问不会返回，因此记录正在进行的访问，取号线程等待超时的时候通过checkSlowCalls检查，
+ * 超过slowCallMillis还没有返回的访问同样打开熔断器，之后它的结果不再计入
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+
+    private volatile State state = State.CLOSED;
+    /**
+     * 最近一次打开的时间，System.nanoTime
+     */
+    private volatile long openedAt;
+    /**
+     * 连续失败的次数，状态转换都在监视器内完成
+     */
+    private int consecutiveFailures;
+    /**
+     * 打开的总次数
+     */
+    private volatile long openCount;
+
+    private final AtomicLong callSequence = new AtomicLong();
+    /**
+     * 正在进行的访问以及开始时间，已经按照超时计入的访问会被移除
+     */
+    private final Map<Long, Long> inFlight = new ConcurrentHashMap<>();
+
+    public CircuitBreaker(DegradeConfig config) {
+        this.failureThreshold = Math.max(1, config.getFailureThreshold());
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(config.getSlowCallMillis());
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(config.getOpenMillis());
+    }
+
+    /**
+     * 申请访问db，OPEN到期时当前访问作为探测进入HALF_OPEN
+     * @return 访问的编号，结束时传给onSuccess或者onFailure；不允许访问时返回-1
+     */
+    public long tryAcquire() {
+        if (state != State.CLOSED) {
+            synchronized (this) {
+                if (state == State.HALF_OPEN || state == State.OPEN && System.nanoTime() - openedAt < openNanos) {
+                    return -1;
+                }
+                if (state == State.OPEN) {
+                    state = State.HALF_OPEN;
+                    logger.info("circuit breaker half open, probing db");
+                }
+            }
+        }
+        final long call = callSequence.incrementAndGet();
+        inFlight.put(call, System.nanoTime());
+        return call;
+    }
+
+    /**
+     * 是否允许访问db，不改变状态。用于提交装载任务之前判断，避免提交注定被拒绝的任务
+     * @return
+     */
+    public boolean isCallPermitted() {
+        final State current = state;
+        return current == State.CLOSED || current == State.OPEN && System.nanoTime() - openedAt >= openNanos;
+    }
+
+    /**
+     * 是否处于关闭状态，OPEN和HALF_OPEN都视为db不可用
+     * @return
+     */
+    public boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * 访问db成功，耗时超过slowCallMillis时按照失败处理
+     * @param call tryAcquire返回的编号
+     */
+    public void onSuccess(long call) {
+        final Long start = inFlight.remove(call);
+        if (start == null) {
+            return;
+        }
+        if (System.nanoTime() - start > slowCallNanos) {
+            trip("slow call " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures = 0;
+            /**
+             * OPEN状态下打开之前发起的访问成功不代表db已经恢复，只有探测成功才关闭
+             */
+            if (state == State.HALF_OPEN) {
+                state = State.CLOSED;
+                logger.info("circuit breaker closed");
+            }
+        }
+    }
+
+    /**
+     * 访问db失败
+     * @param call tryAcquire返回的编号
+     */
+    public void onFailure(long call) {
+        if (inFlight.remove(call) == null) {
+            return;
+        }
+        synchronized (this) {
+            if (state == State.HALF_OPEN) {
+                trip("probe failed");
+            } else if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+                trip(consecutiveFailures + " consecutive failures");
+            }
+        }
+    }
+
+    /**
+     * 检查正在进行的访问，超过slowCallMillis还没有返回时打开熔断器
+     */
+    public void checkSlowCalls() {
+        if (inFlight.isEmpty()) {
+            return;
+        }
+        final long now = System.nanoTime();
+        for (Map.Entry<Long, Long> entry : inFlight.entrySet()) {
+            if (now - entry.getValue() > slowCallNanos && inFlight.remove(entry.getKey(), entry.getValue())) {
+                trip("call stalled " + TimeUnit.NANOSECONDS.toMillis(now - entry.getValue()) + "ms");
+            }
+        }
+    }
+
+    private synchronized void trip(String reason) {
+        if (state != State.OPEN) {
+            openCount++;
+            logger.warn("circuit breaker open: {}", reason);
+        }
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        consecutiveFailures = 0;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getOpenCount() {
+        return openCount;
+    }
+}
@@ -0,0 +1,260 @@
+package com.sachin.idgen.leaf.core.segment;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 准备Segment的有界线程池。
+ *
+ * 源码中的线程池最大线程数为Integer.MAX_VALUE，大量业务tag同时达到阈值时会创建同样多的线程，同时占用同样多的db连接。
+ * 这里使用固定个数的工作线程，线程数应当与db连接池的大小匹配；排队的任务按照紧急程度排序，
+ * 紧急程度是当前Segment预计还能维持的时间，越快耗尽的业务tag越先装载，相同的按照提交顺序执行。
+ * 提交时可以指定去重的key，同一个key同一时间只会有一个任务在排队。
+ *
+ * 运行在JDK 21及以上时可以使用虚拟线程执行任务，虚拟线程的个数同样受限于工作线程数
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class RefillExecutor extends AbstractExecutorService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefillExecutor.class);
+
+    /**
+     * 默认的工作线程数，与源码中线程池的核心线程数相同
+     */
+    public static final int DEFAULT_THREADS = 5;
+
+    /**
+     * 不知道紧急程度的任务，排在所有已知紧急程度的任务之后
+     */
+    public static final long UNKNOWN_URGENCY = Long.MAX_VALUE;
+
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>();
+    private final Set<String> queuedKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Thread[] workers;
+    private final CountDownLatch terminated;
+    private volatile boolean shutdown = false;
+
+    /**
+     * runnable为null的任务通知工作线程退出
+     */
+    private static class Task implements Comparable<Task> {
+        private final String dedupKey;
+        private final long urgency;
+        private final long seq;
+        private final Runnable runnable;
+
+        private Task(String dedupKey, long urgency, long seq, Runnable runnable) {
+            this.dedupKey = dedupKey;
+            this.urgency = urgency;
+            this.seq = seq;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            int c = Long.compare(urgency, o.urgency);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    public RefillExecutor() {
+        this(DEFAULT_THREADS, false);
+    }
+
+    /**
+     * @param threads 工作线程数
+     * @param virtualThreads 是否使用虚拟线程，当前JDK不支持时使用普通线程
+     */
+    public RefillExecutor(int threads, boolean virtualThreads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        ThreadFactory threadFactory = virtualThreads ? virtualThreadFactory() : null;
+        if (threadFactory == null) {
+            threadFactory = new SegmentIDGenImpl.UpdateThreadFactory();
+        }
+        this.workers = new Thread[threads];
+        this.terminated = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+            workers[i].start();
+        }
+    }
+
+    /**
+     * 提交一个任务
+     * @param dedupKey 去重的key，为null时不去重
+     * @param urgency 紧急程度，越小越先执行
+     * @param runnable
+     * @return 是否提交成功，相同dedupKey的任务正在排队或者已经shutdown时返回false
+     */
+    public synchronized boolean execute(String dedupKey, long urgency, Runnable runnable) {
+        if (shutdown) {
+            return false;
+        }
+        if (dedupKey != null && !queuedKeys.add(dedupKey)) {
+            return false;
+        }
+        queue.offer(new Task(dedupKey, urgency, sequence.getAndIncrement(), runnable));
+        return true;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (!execute(null, UNKNOWN_URGENCY, command)) {
+            throw new RejectedExecutionException("RefillExecutor is shutdown");
+        }
+    }
+
+    /**
+     * 排队中的任务个数
+     * @return
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public int getThreads() {
+        return workers.length;
+    }
+
+    private void work() {
+        try {
+            while (true) {
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (task.runnable == null) {
+                    return;
+                }
+                /**
+                 * 执行之前移除去重key，执行过程中提交的任务需要重新排队
+                 */
+                if (task.dedupKey != null) {
+                    queuedKeys.remove(task.dedupKey);
+                }
+                try {
+                    task.runnable.run();
+                } catch (Throwable t) {
+                    logger.warn("refill task exception", t);
+                }
+            }
+        } finally {
+            terminated.countDown();
+        }
+    }
+
+    /**
+     * 不再接收新的任务，已经排队的任务执行完之后工作线程退出。
+     * 不中断工作线程，避免中断正在进行的db访问
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        for (int i = 0; i < workers.length; i++) {
+            queue.offer(new Task(null, Long.MAX_VALUE, Long.MAX_VALUE, null));
+        }
+    }
+
+    /**
+     * 不再接收新的任务，返回还在排队的任务，正在执行的任务执行完之后工作线程退出
+     */
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Task> tasks = new ArrayList<>();
+        queue.drainTo(tasks);
+        List<Runnable> runnables = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            if (task.runnable != null) {
+                runnables.add(task.runnable);
+            }
+        }
+        for (int i = 0; i < workers.length; i++) {
+            queue.offer(new Task(null, Long.MIN_VALUE, 0, null));
+        }
+        return runnables;
+    }
+
+    /**
+     * 不再接收新的任务，还在排队的任务连同去重key和紧急程度转移到target，正在执行的任务执行完之后工作线程退出。
+     * target中已经有相同去重key的任务时不再转移
+     * @param target
+     */
+    public synchronized void transferTo(RefillExecutor target) {
+        shutdown = true;
+        List<Task> tasks = new ArrayList<>();
+        queue.drainTo(tasks);
+        for (Task task : tasks) {
+            if (task.runnable == null) {
+                continue;
+            }
+            if (task.dedupKey != null) {
+                queuedKeys.remove(task.dedupKey);
+            }
+            if (!target.execute(task.dedupKey, task.urgency, task.runnable)) {
+                logger.debug("task {} is already queued in target executor", task.dedupKey);
+            }
+        }
+        for (int i = 0; i < workers.length; i++) {
+            queue.offer(new Task(null, Long.MIN_VALUE, 0, null));
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    /**
+     * 通过反射调用 Thread.ofVirtual().name(prefix, 0).factory()，保证在JDK 8上也可以编译和运行
+     * @return 当前JDK不支持虚拟线程时返回null
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "Thread-Segment-Update-Virtual-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            logger.warn("virtual threads are not supported by current jdk, fall back to platform threads");
+            return null;
+        }
+    }
+}
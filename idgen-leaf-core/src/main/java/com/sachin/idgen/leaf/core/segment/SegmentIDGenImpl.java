@@ -1,26 +1,48 @@
 package com.sachin.idgen.leaf.core.segment;
 
+import com.sachin.idgen.leaf.core.AsyncIDGen;
 import com.sachin.idgen.leaf.core.IDGen;
+import com.sachin.idgen.leaf.core.IdAllocator;
+import com.sachin.idgen.leaf.core.common.BatchResult;
+import com.sachin.idgen.leaf.core.common.ImmutableResult;
+import com.sachin.idgen.leaf.core.common.RangeResult;
 import com.sachin.idgen.leaf.core.common.Result;
 import com.sachin.idgen.leaf.core.common.Status;
 import com.sachin.idgen.leaf.core.segment.dao.IDAllocDao;
+import com.sachin.idgen.leaf.core.segment.journal.LeasedRange;
+import com.sachin.idgen.leaf.core.segment.journal.SegmentJournal;
+import com.sachin.idgen.leaf.core.segment.metrics.NoopSegmentMetrics;
+import com.sachin.idgen.leaf.core.segment.metrics.SegmentMetrics;
+import com.sachin.idgen.leaf.core.segment.metrics.TagMetricsSnapshot;
+import com.sachin.idgen.leaf.core.segment.model.DegradeConfig;
+import com.sachin.idgen.leaf.core.segment.model.IdBatch;
+import com.sachin.idgen.leaf.core.segment.model.LazyLoadConfig;
 import com.sachin.idgen.leaf.core.segment.model.LeafAlloc;
+import com.sachin.idgen.leaf.core.segment.model.PendingRequest;
 import com.sachin.idgen.leaf.core.segment.model.Segment;
 import com.sachin.idgen.leaf.core.segment.model.SegmentBuffer;
+import com.sachin.idgen.leaf.core.segment.model.StripedChunk;
+import com.sachin.idgen.leaf.core.segment.model.TagConfig;
+import com.sachin.idgen.leaf.core.segment.model.TagSyncConfig;
+import com.sachin.idgen.leaf.core.segment.model.WarmUpConfig;
+import com.sachin.idgen.leaf.core.segment.policy.DefaultSegmentRingPolicy;
+import com.sachin.idgen.leaf.core.segment.policy.DefaultStepPolicy;
+import com.sachin.idgen.leaf.core.segment.policy.SegmentRingPolicy;
+import com.sachin.idgen.leaf.core.segment.policy.StepPolicy;
 import org.perf4j.StopWatch;
 import org.perf4j.slf4j.Slf4JStopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @Author Sachin
  * @Date 2022/3/27
  **/
-public class SegmentIDGenImpl implements IDGen {
+public class SegmentIDGenImpl implements IDGen, AsyncIDGen {
     public static final Logger logger = LoggerFactory.getLogger(SegmentIDGenImpl.class);
 
 
@@ -38,21 +60,122 @@ public class SegmentIDGenImpl implements IDGen {
      * SegmentBuffer中的两个Segment均未从db中装载时的异常码
      */
     public static final long EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL = -3;
-    private ExecutorService service = new ThreadPoolExecutor(5, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new UpdateThreadFactory());
 
     /**
-     * 一个Segment维持时间为15分钟
+     * 批量取号时申请的id个数不合法的异常码
      */
-    private static final long SEGMENT_DURATION = 15 * 60 * 1000L;
+    public static final long EXCEPTION_ID_BATCH_COUNT_ILLEGAL = -4;
+
     /**
-     *
-     * test
-     * 最大步长不超过100,0000
+     * db不可用时的异常码：开启降级之后熔断器打开且没有可用的应急号段、阻塞取号等待nextSegment超时，
+     * 以及挂起的异步取号请求等待超时
+     */
+    public static final long EXCEPTION_ID_DB_UNAVAILABLE = -10;
+
+    /**
+     * 非阻塞取号时表示需要等待nextSegment装载，只在内部使用，不会返回给调用方
+     */
+    private static final long ID_WOULD_BLOCK = Long.MIN_VALUE;
+
+    /**
+     * 批量取号降级失败时填充函数的返回值，只在内部使用
+     */
+    private static final int FILL_FAILED = -1;
+
+    /**
+     * 批量取号时SegmentIDGenImpl已经关闭，填充函数的返回值，只在内部使用
+     */
+    private static final int FILL_CLOSED = -2;
+
+    /**
+     * 批量取号时SegmentBuffer已经被移除，填充函数的返回值，只在内部使用
+     */
+    private static final int FILL_REMOVED = -3;
+    /**
+     * 准备Segment的线程池，线程数有上限，避免大量业务tag同时装载时创建大量线程、占满db连接池。
+     * init或者第一次使用时才创建，构造SegmentIDGenImpl不会启动线程
      */
-    private static final int MAX_STEP = 1000000;
+    private volatile RefillExecutor service;
+    private int refillThreads = RefillExecutor.DEFAULT_THREADS;
+    private boolean refillVirtualThreads = false;
+
     private IDAllocDao idAllocDao;
     private volatile boolean initOk = false;
+    /**
+     * 是否使用无锁模式取号，需要在init之前设置。无锁模式下取号只需要一次原子加和一次volatile读，
+     * Segment的切换通过CAS完成，适用于大量线程同时对同一个业务tag取号的场景
+     */
+    private boolean lockFree = false;
     private Map<String, SegmentBuffer> cache = new ConcurrentHashMap<>();
+    /**
+     * 没有单独配置的业务tag使用的默认配置
+     */
+    private TagConfig defaultTagConfig = new TagConfig();
+    /**
+     * 业务tag单独的配置
+     */
+    private Map<String, TagConfig> tagConfigs = new ConcurrentHashMap<>();
+    /**
+     * Segment环的预取策略
+     */
+    private SegmentRingPolicy ringPolicy = new DefaultSegmentRingPolicy();
+    /**
+     * step的调整策略，默认为源码中的翻倍/减半
+     */
+    private StepPolicy stepPolicy = new DefaultStepPolicy();
+    /**
+     * 合并多个tag的db装载请求，为null时每次装载单独访问数据库
+     */
+    private volatile SegmentRefillScheduler refillScheduler;
+    /**
+     * 监控指标，默认不记录
+     */
+    private SegmentMetrics metrics = NoopSegmentMetrics.INSTANCE;
+    /**
+     * 本地号段日志，为null时不记录，重启之后没有发放的号段全部丢弃
+     */
+    private SegmentJournal journal;
+    /**
+     * 定时从db同步业务tag的线程
+     */
+    private ScheduledExecutorService cacheUpdateService;
+    /**
+     * init时预热SegmentBuffer的配置，默认不预热
+     */
+    private WarmUpConfig warmUpConfig = new WarmUpConfig();
+    /**
+     * 业务tag同步的配置，init之前设置
+     */
+    private TagSyncConfig syncConfig = new TagSyncConfig();
+    /**
+     * 上一次同步成功的开始时间以及距离上一次全量同步的次数，只在init和check-idCache-thread中访问
+     */
+    private volatile long lastSyncMillis = -1;
+    private int syncRounds = 0;
+    /**
+     * 按需装载的配置，init之前设置
+     */
+    private LazyLoadConfig lazyLoadConfig = new LazyLoadConfig();
+    /**
+     * 正在从db装载的业务tag，保证同一个业务tag同一时间只有一个装载
+     */
+    private final Map<String, CompletableFuture<SegmentBuffer>> loadingTags = new ConcurrentHashMap<>();
+    /**
+     * db中不存在的业务tag以及过期时间
+     */
+    private final Map<String, Long> missingTags = new ConcurrentHashMap<>();
+    /**
+     * db变慢或者不可用时的降级配置，init之前设置
+     */
+    private DegradeConfig degradeConfig = new DegradeConfig();
+    /**
+     * 从db装载Segment的熔断器，没有开启降级时为null
+     */
+    private volatile CircuitBreaker circuitBreaker;
+    /**
+     * 挂起的异步请求超时以及装载失败之后退避的定时器，init时创建
+     */
+    private volatile ScheduledExecutorService timer;
 
     public static class UpdateThreadFactory implements ThreadFactory {
         private static int threadInitNumber = 0;
@@ -71,13 +194,24 @@ public class SegmentIDGenImpl implements IDGen {
 
     @Override
     public Result get(String key) {
+        return ImmutableResult.of(nextId(key));
+    }
+
+    @Override
+    public long nextId(String key) {
         /**
          * 如果get的线程 发现SegmentIDGenImpl没有初始化完成则 返回错误
          */
         if (!initOk) {
-            return new Result(EXCEPTION_ID_IDCACHE_INIT_FALSE, Status.EXCEPTION);
+            return EXCEPTION_ID_IDCACHE_INIT_FALSE;
         }
-        if (cache.containsKey(key)) {
+        SegmentBuffer buffer;
+        try {
+            buffer = getOrLoadBuffer(key);
+        } catch (CompletionException e) {
+            return EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL;
+        }
+        if (buffer != null) {
             /**
              * 这个get的Buffer可能为空
              *其实我觉得还是有问题，只不过是发生几率很小。
@@ -88,269 +222,1493 @@ public class SegmentIDGenImpl implements IDGen {
              *
              * 【如果remove发生在cache.containsKey(key) 和 cache.get(key)之间，空指针就会出现。】从线程安全来说，确实会有这个问题，虽然发生的概率很小很小。
              *
+             * 这里只取一次
              */
-            SegmentBuffer buffer = cache.get(key);
-            /**
-             * 判断Buffer是否初始化完成
-             */
-            if (!buffer.isInitOk()) {
-                //buffer 没有初始化,加同步锁，保证只有一个线程对SegmentBuffer进行初始化
-                synchronized (buffer) {
-                    if (!buffer.isInitOk()) {
-                        try {
-                            Segment current = buffer.getCurrent();
-                            updateSegmentFromDB(key, current);
-                            logger.info(" init buffer ,update leafkey {} {} from db", key, buffer.getCurrent());
-                            /**
-                             * 因为 initOk这个属性存在多线程访问的问题，因此需要 使用volatile修饰
-                             */
-                            buffer.setInitOk(true);
-                        } catch (Exception e) {
-                            logger.warn("init buffer {} exception", buffer.getCurrent(), e);
-                        }
-                    }
-                }
-            }
-            // buffer 已经初始化完成
-            return getIdFromSegmentBuffer(cache.get(key));
+            return nextId(buffer);
         }
         /**
          * 业务tag不存在
          */
-        return new Result(EXCEPTION_ID_KEY_NOT_EXISTS, Status.EXCEPTION);
+        return EXCEPTION_ID_KEY_NOT_EXISTS;
     }
 
     /**
-     * 从数据库中读取指定 业务的 Segment
-     * @param key
-     * @param curSegment
+     * 从已经找到的SegmentBuffer中取号
+     * @param buffer
+     * @return
      */
-    private void updateSegmentFromDB(String key, Segment curSegment) {
-
-        StopWatch stopWatch = new Slf4JStopWatch();
-        SegmentBuffer buffer = curSegment.getBuffer();
-        LeafAlloc leafAlloc=null;
+    private long nextId(SegmentBuffer buffer) {
+        initBufferIfNecessary(buffer.getKey(), buffer);
+        // buffer 已经初始化完成
+        final int stripedChunkSize = tagConfig(buffer).getStripedChunkSize();
+        final long id = stripedChunkSize > 0 ? nextIdStriped(buffer, stripedChunkSize)
+                : buffer.isLockFree() ? nextIdFromSegmentBufferLockFree(buffer) : nextIdFromSegmentBuffer(buffer);
+        if (id >= 0) {
+            buffer.getMetrics().recordIssued(1);
+        } else if (id == EXCEPTION_ID_KEY_NOT_EXISTS && buffer.isRemoved()) {
+            final SegmentBuffer latest;
+            try {
+                latest = relocate(buffer);
+            } catch (CompletionException e) {
+                return EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL;
+            }
+            return latest != null ? nextId(latest) : EXCEPTION_ID_KEY_NOT_EXISTS;
+        }
+        return id;
+    }
 
+    @Override
+    public BatchResult getBatch(String key, int count) {
+        if (!initOk) {
+            return new BatchResult(new long[]{EXCEPTION_ID_IDCACHE_INIT_FALSE}, Status.EXCEPTION);
+        }
+        if (count <= 0) {
+            return new BatchResult(new long[]{EXCEPTION_ID_BATCH_COUNT_ILLEGAL}, Status.EXCEPTION);
+        }
         /**
-         * Buffer尚未初始化
+         * 只取一次，避免 containsKey和get之间发生remove导致的空指针
          */
-        if (!buffer.isInitOk()) {
-            /**
-             * 首先将 指定的业务tag的 maxId 自增step， 比如maxId=90,step=10，则update之后maxId=100
-             * 然后读取指定业务tag的 记录数据
-             */
-            leafAlloc=idAllocDao.updateMaxIdAndGetLeafAlloc(key);
-            /**
-             * 问题，为什么从数据库读取 放置到Buffer之后 为什么没有更新Buffer的 updateTimestamp字段
-             */
-            buffer.setStep(leafAlloc.getStep());
-            buffer.setMinStep(leafAlloc.getStep());
-        } else if (buffer.getUpdateTimestamp() == 0) {
-            /**
-             * 什么情况下会出现 initOk为true，但是 updateTimeStamp==0呢？
-             *考虑这种情况： 线程A 取号， 首先是SegmentBuffer没有 init，因此get的时候 会执行updateSegmentFromDB 方法，从而执行了上面的
-             * 第一个if。这个第一个if会初始化当前的Segment， updateSegmentFromDB执行完了之后 会设置SegmentBuffer的initOk为true。
-             * 然后线程A 不断通过 getIdFromSegmentBuffer 方法从Segment中取出id。 在getIdFromSegmentBuffer方法中会判断 当前Segment中剩余的可用id
-             * 达到阈值的时候 会启动一个线程 通过updateSegmentFromDb方法准备 下一个Segment， 也就是说这个时候 就满足 SegmentBuffer的initOk为true，但是updateTimestamp=0
-             * 然后这个时候 也会从数据库中读取数据到Buffer中，然后Buffer初始化另外一个Segment。
-             *
-             * ==================
-             * 考虑一种情况： （1）线程A取号，当达到阈值的时候启动线程B准备下一个Segment， 如果在线程B准备完成之前线程A已经消耗完了 当前Segment中的所有id 那么这个时候线程A如何处理？
-             *
-             *
-             */
-            leafAlloc = idAllocDao.updateMaxIdAndGetLeafAlloc(key);
-            /**
-             * 为什么上面 不设置 updateTimeStamp？
-             */
-            buffer.setUpdateTimestamp(System.currentTimeMillis());
-            buffer.setStep(leafAlloc.getStep());
-            buffer.setMinStep(leafAlloc.getStep());
+        SegmentBuffer buffer;
+        try {
+            buffer = getOrLoadBuffer(key);
+        } catch (CompletionException e) {
+            return new BatchResult(new long[]{EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL}, Status.EXCEPTION);
+        }
+        if (buffer == null) {
+            return new BatchResult(new long[]{EXCEPTION_ID_KEY_NOT_EXISTS}, Status.EXCEPTION);
+        }
+        return getBatch(buffer, count);
+    }
 
-        }else{
+    private BatchResult getBatch(SegmentBuffer buffer, int count) {
+        initBufferIfNecessary(buffer.getKey(), buffer);
+        final BatchResult result = buffer.isLockFree() ? getBatchFromSegmentBufferLockFree(buffer, count) : getBatchFromSegmentBuffer(buffer, count);
+        if (result.getStatus() == Status.SUCCESS) {
+            buffer.getMetrics().recordIssued(count);
+        } else if (result.getIds()[0] == EXCEPTION_ID_KEY_NOT_EXISTS && buffer.isRemoved()) {
+            final SegmentBuffer latest;
+            try {
+                latest = relocate(buffer);
+            } catch (CompletionException e) {
+                return new BatchResult(new long[]{EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL}, Status.EXCEPTION);
+            }
+            return latest != null ? getBatch(latest, count) : result;
+        }
+        return result;
+    }
 
-            /**
-             * 问题 SegmentBuffer的 initOk属性 只会在get方法中 被调用，而且 从代码上看 get方法中 会获取到Buffer锁对象 然后判断
-             * isInitOk为false的情况下才会执行 updateSegmentFromDB， 也就意味着 理论上updateSegmentFromDB方法内 SegmentBuffer对象的
-             * isInitOk为false（错误，只有在get内调用当前方法的时候才为false）。 然后当UpdateSegmentFromDB方法执行完之后才会将 SegmentBuffer的initOk属性设置为true。
-             * 所以什么情况下 会走到这里？
-             * 当前方法 还会被 getIdFromSegmentBuffer 方法调用。这个时候可能走到这里。
-             *
-             * 走到这里 就说明 SegmentBuffer中的两个Segment 都已经初始化过一次了
-             */
-            long duration = System.currentTimeMillis() - buffer.getUpdateTimestamp();
-             int nextStep = buffer.getStep();
-            if (duration < SEGMENT_DURATION) {
-                if (nextStep * 2 > MAX_STEP) {
+    /**
+     * 取号期间SegmentBuffer被移除（按需装载模式下被淘汰，或者业务tag被同步删除），重新查找业务tag的SegmentBuffer
+     * @param removed
+     * @return 业务tag已经不存在时返回null
+     * @throws CompletionException 按需装载时访问db失败
+     */
+    private SegmentBuffer relocate(SegmentBuffer removed) {
+        final SegmentBuffer latest = getOrLoadBuffer(removed.getKey());
+        return latest != removed ? latest : null;
+    }
 
-                }else{
-                    nextStep = nextStep * 2;
-                }
-            } else if (duration < SEGMENT_DURATION * 2) {
+    /**
+     * 返回缓存了SegmentBuffer的句柄，取号时不再查找cache。
+     * 业务tag被同步删除、按需装载模式下被移除之后，句柄在下一次取号时重新查找，业务tag重新加入之后自动绑定到新的SegmentBuffer
+     * @param key 业务tag
+     * @return
+     */
+    @Override
+    public IdAllocator handle(String key) {
+        return new SegmentIdAllocator(key);
+    }
 
-            }else{
-                nextStep = nextStep / 2 >= buffer.getMinStep() ? nextStep / 2 : nextStep;
-            }
-            logger.info("leafKey[{}], step[{}], duration[{}mins], nextStep[{}]", key, buffer.getStep(), String.format("%.2f",((double)duration / (1000 * 60))), nextStep);
-            LeafAlloc temp = new LeafAlloc();
-            temp.setKey(key);
-            temp.setStep(nextStep);
-             leafAlloc = idAllocDao.updateMaxIdByCustomStepAndGetLeafAlloc(temp);
-            buffer.setUpdateTimestamp(System.currentTimeMillis());
-            buffer.setStep(nextStep);
-            buffer.setMinStep(leafAlloc.getStep());
+    private class SegmentIdAllocator implements IdAllocator {
+
+        private final String key;
+        private volatile SegmentBuffer buffer;
+
+        private SegmentIdAllocator(String key) {
+            this.key = key;
         }
 
         /**
-         * 设置segment中 可用的开始值 ，比如maxid=100, step=10, 那么表示之前的maxId=90，
-         * 问题： 在上面的第一个if buffer.isInitOk为false的情况下 会读取数据库设置buffer，为什么下面没有 设置Buffer的updateTimeStamp字段？
-         *
+         * @return 业务tag不存在时返回null
+         * @throws CompletionException 按需装载时访问db失败
          */
-        long value = leafAlloc.getMaxId() - buffer.getStep();
-        curSegment.getValue().set(value);
-        curSegment.setMax(leafAlloc.getMaxId());
-        curSegment.setStep(buffer.getStep());
-        stopWatch.stop("updateSegmentFromDB", key + " " + curSegment);
-    }
+        private SegmentBuffer resolve() {
+            SegmentBuffer current = buffer;
+            if (current == null || current.isRemoved()) {
+                current = getOrLoadBuffer(key);
+                buffer = current;
+            }
+            return current;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
 
-    private Result getIdFromSegmentBuffer(SegmentBuffer segmentBuffer) {
+        @Override
+        public Result get() {
+            return ImmutableResult.of(nextId());
+        }
 
-        while (true) {
+        @Override
+        public long nextId() {
+            if (!initOk) {
+                return EXCEPTION_ID_IDCACHE_INIT_FALSE;
+            }
+            final SegmentBuffer current;
+            try {
+                current = resolve();
+            } catch (CompletionException e) {
+                return EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL;
+            }
+            return current != null ? SegmentIDGenImpl.this.nextId(current) : EXCEPTION_ID_KEY_NOT_EXISTS;
+        }
+
+        @Override
+        public BatchResult getBatch(int count) {
+            if (!initOk) {
+                return new BatchResult(new long[]{EXCEPTION_ID_IDCACHE_INIT_FALSE}, Status.EXCEPTION);
+            }
+            if (count <= 0) {
+                return new BatchResult(new long[]{EXCEPTION_ID_BATCH_COUNT_ILLEGAL}, Status.EXCEPTION);
+            }
+            final SegmentBuffer current;
+            try {
+                current = resolve();
+            } catch (CompletionException e) {
+                return new BatchResult(new long[]{EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL}, Status.EXCEPTION);
+            }
+            if (current == null) {
+                return new BatchResult(new long[]{EXCEPTION_ID_KEY_NOT_EXISTS}, Status.EXCEPTION);
+            }
+            return SegmentIDGenImpl.this.getBatch(current, count);
+        }
+    }
 
+    @Override
+    public CompletableFuture<Result> getAsync(final String key) {
+        if (!initOk) {
+            return CompletableFuture.completedFuture(ImmutableResult.exception(EXCEPTION_ID_IDCACHE_INIT_FALSE));
+        }
+        final SegmentBuffer buffer = cache.get(key);
+        if (buffer == null) {
+            if (!lazyLoadConfig.isEnabled()) {
+                return CompletableFuture.completedFuture(ImmutableResult.exception(EXCEPTION_ID_KEY_NOT_EXISTS));
+            }
+            return loadTag(key, true).handle((loaded, t) -> t != null ? CompletableFuture.completedFuture(ImmutableResult.exception(EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL))
+                    : loaded == null ? CompletableFuture.completedFuture(ImmutableResult.exception(EXCEPTION_ID_KEY_NOT_EXISTS))
+                    : getAsync(key)).thenCompose(f -> f);
+        }
+        if (buffer.isInitOk()) {
             /**
-             * 当前线程从SegmentBuffer中的segment中取号的时候 需要 阻止其他线程 修改SegmentBuffer当前使用的segment的下标号，放置切换Segment，
-             * 因此需要加读锁
+             * 内存中有可用id时直接返回已经完成的future
              */
-            segmentBuffer.rLock().lock();
-            try{
-                final Segment curSegment = segmentBuffer.getCurrent();
+            long id = tryNextIdFromSegmentBuffer(buffer);
+            if (id != ID_WOULD_BLOCK) {
+                if (id >= 0) {
+                    buffer.getMetrics().recordIssued(1);
+                }
+                return CompletableFuture.completedFuture(ImmutableResult.of(id));
+            }
+        }
+        final CompletableFuture<Result> future = new CompletableFuture<>();
+        final long deadline = blockDeadline(buffer);
+        submitPendingRequest(buffer, new PendingRequest() {
+            @Override
+            public long getDeadline() {
+                return deadline;
+            }
 
-                /**
-                 * 校验当前被使用的Segment 内剩余取号
-                 *
-                 * threadRunning主要用来保证只有一个线程 执行对 nextSegment的准备工作。
-                 */
-                if (!segmentBuffer.isNextReady() && (curSegment.getIdle() < 0.9 * curSegment.getStep()) && segmentBuffer.getThreadRunning().compareAndSet(false, true)) {
-                    service.execute(new Runnable() {
-                        @Override
-                        public void run() {
-                            final Segment nextSegment = segmentBuffer.getSegments()[segmentBuffer.nextPos()];
-                            boolean updateOk=false;
-                            try {
-                                updateSegmentFromDB(segmentBuffer.getKey(), nextSegment);
-                                updateOk = true;
-                                logger.info("update segment {} from db{}", segmentBuffer.getKey(), nextSegment);
-                            } catch (Exception e) {
-                                logger.warn(segmentBuffer.getKey() + " updateSegmentFromDb exception", e);
-                            }finally {
-                                if (updateOk) {
-                                    /**
-                                     * 修改SegmentBuffer的属性 需要加锁. 注意这里只更新 下一个segment是否准备就绪，并没有切换正在使用的Segment
-                                     * 因为线程A取号，线程A如果发现当前Segment中没有可用 id了则线程A负责切换Segment； 线程B只负责 准备下一个Segment中的数据，
-                                     * 不负责切换Segment。
-                                     * 需要注意的是 线程A  如果当前Segment没有可用id，且发现下一个Segment 已经准备好了，那么线程A切换Segment，这个操作是需要对SegmentBuffer加写锁，
-                                     * 那么问题就是： 先加锁然后判断 下一个segment是否可用呢  还是先判断下一个Segment是否可用然后对SegmentBuffer加锁呢？
-                                     */
-                                    segmentBuffer.wLock().lock();
-                                    segmentBuffer.setNextReady(true);
-                                    segmentBuffer.getThreadRunning().set(false);
-                                    segmentBuffer.wLock().unlock();
-                                }else{
-                                    segmentBuffer.getThreadRunning().set(false);
-                                }
-                            }
-                        }
-                    });
+            @Override
+            public void fail(long code) {
+                future.complete(ImmutableResult.exception(code));
+            }
 
+            @Override
+            public boolean tryComplete() {
+                long id = tryNextIdFromSegmentBuffer(buffer);
+                if (id == ID_WOULD_BLOCK) {
+                    return false;
                 }
-                //------------------------------------获取当前可用id
-                final long value = curSegment.getValue().getAndIncrement();
-                if (value < curSegment.getMax()) {
+                if (id >= 0) {
+                    buffer.getMetrics().recordIssued(1);
+                } else if (id == EXCEPTION_ID_KEY_NOT_EXISTS && buffer.isRemoved()) {
                     /**
-                     * 取号成功返回之前需要校验 剩余可用id是否达到阈值。
-                     *
-                     * 实际上不单单是取号成功返回之前需要校验，应该在每次取号之前都需要校验，不管当前取号是否成功。
-                     * 其次校验的时候需要针对当前SegmentBuffer 使用的Segment进行校验， 也就是说校验的过程中 需要保证 其他线程不能修改SegmentBuffer中使用的Segment下标。
-                     * 因此这个校验过程需要加锁，可以放在当前的 SegmentBuffer的读锁内完成。 这就为什么 上面的校验代码在前面的原因。
-                     *
+                     * SegmentBuffer已经被移除，重新查找业务tag之后取号
                      */
-                    return new Result(value, Status.SUCCESS);
+                    getAsync(key).thenAccept(future::complete);
+                    return true;
                 }
-
-            }finally {
-                segmentBuffer.rLock().unlock();
+                future.complete(ImmutableResult.of(id));
+                return true;
             }
+        });
+        return future;
+    }
 
-            /**
-             * 线程运行到这里 则意味着  当前segment 中已经没有可用的value了。 可能 同一时间有多个线程 阻塞在取号这里
-             */
-            waitAndSleep(segmentBuffer);
+    @Override
+    public CompletableFuture<BatchResult> getBatchAsync(final String key, final int count) {
+        return fillAsync(key, count, BATCH_COMPLETION);
+    }
 
-            /**
-             * 线程 从waitAndSleep方法中返回有三种情况
-             * （1）while条件不满足，也就是threadRunning=false，意味着 线程B准备nextSegment工作结束
-             *     A:如果线程B准备nextSegment成功， 则SegmentBuffer的nextReady为true，
-             *     B：如果线程B准备nextSegment失败， 则SegmentBuffer的nextReady为false
-             * （2） while条件满足，但是当前线程A 进行了sleep之后 break，这个时候线程B正在执行 nextSegment设置工作。
-             *
-             * 因此我们需要判断SegmentBuffer的nextSegment是否准备就绪。
-             *
-             * 但是在判断之前 我们考虑这种情况， 线程 A,C,D 可能会同时判断，而且理论上 如果 SegmentBuffer的nextReady为true的话 需要同步
-             * 切换Segment，切换之后再设置 nextReady为false，因此这个操作需要写加锁
-             */
+    @Override
+    public CompletableFuture<RangeResult> leaseAsync(final String key, final int count) {
+        return fillAsync(key, count, RANGE_COMPLETION);
+    }
 
-            if (!segmentBuffer.isNextReady()) {
-                /**
-                 * 1，因为线程B的异常退出导致 nextSegment没有准备好，
-                 * 2.又或者线程B已经将NextSegment准备好了，但是因为线程C发现的比较早，执行了Segment的切换工作。
-                 * 这个时候只需要 执行正常的取号流程就可以了
-                 */
-                continue;
-            }
-            /**
-             * SegmentBuffer已经准备好下一个Segment了，且尚未有其他线程 切换Segment. 当前线程尝试切换Segment，首先需要获取写锁
-             */
-            segmentBuffer.wLock().lock();
-            try{
+    /**
+     * 异步批量取号的结果类型：getBatchAsync返回每个id，leaseAsync只返回区间
+     * @param <T>
+     */
+    private interface BatchCompletion<T> {
 
-                /**
-                 * 再次判断 SegmentBuffer是否准备就绪，防止其他线程已经 切换了Segment
-                 *
-                 * 问题：可能会有这种情况， 有100个线程 阻塞在取号的地方， 线程B 正确设置了nextSegment， 然后线程C执行了切换Segment的工作，
-                 * 切换之后线程C和其他线程 从新的segment中取号（但是线程A还未从新的segment中取号，线程A尚未唤醒）。然后线程D发现新的segment剩余id不多了，然后又让线程E 准备next_N_segment，线程E准备好了，但是这个时候nextSegment中
-                 * 尚有 剩余的segment。 这个时候线程A唤醒了， 线程A本来是想从nextSegment中取号。 但是 线程A发现SegmentBuffer的nextReady属性为true，就擅自切换到了next_N_Segment。
-                 * 这个时候就会导致nextSegment中部分号码没有使用。
-                 *
-                 * 也就是说 切换segment的条件是 1，nextSegment准备就绪 2，当前Segment中没有可用的id。
-                 *
+        IdBatch newBatch(int count);
+
+        T success(IdBatch batch);
+
+        T failure(long code);
+    }
+
+    private static final BatchCompletion<BatchResult> BATCH_COMPLETION = new BatchCompletion<BatchResult>() {
+        @Override
+        public IdBatch newBatch(int count) {
+            return IdBatch.ofArray(new long[count]);
+        }
+
+        @Override
+        public BatchResult success(IdBatch batch) {
+            return new BatchResult(((IdBatch.ArrayBatch) batch).getIds(), Status.SUCCESS);
+        }
+
+        @Override
+        public BatchResult failure(long code) {
+            return new BatchResult(new long[]{code}, Status.EXCEPTION);
+        }
+    };
+
+    private static final BatchCompletion<RangeResult> RANGE_COMPLETION = new BatchCompletion<RangeResult>() {
+        @Override
+        public IdBatch newBatch(int count) {
+            return IdBatch.ofRanges(count);
+        }
+
+        @Override
+        public RangeResult success(IdBatch batch) {
+            return new RangeResult(((IdBatch.RangeBatch) batch).getRanges(), Status.SUCCESS);
+        }
+
+        @Override
+        public RangeResult failure(long code) {
+            return new RangeResult(new long[]{code}, Status.EXCEPTION);
+        }
+    };
+
+    private <T> CompletableFuture<T> fillAsync(final String key, final int count, final BatchCompletion<T> completion) {
+        if (!initOk) {
+            return CompletableFuture.completedFuture(completion.failure(EXCEPTION_ID_IDCACHE_INIT_FALSE));
+        }
+        if (count <= 0) {
+            return CompletableFuture.completedFuture(completion.failure(EXCEPTION_ID_BATCH_COUNT_ILLEGAL));
+        }
+        final SegmentBuffer buffer = cache.get(key);
+        if (buffer == null) {
+            if (!lazyLoadConfig.isEnabled()) {
+                return CompletableFuture.completedFuture(completion.failure(EXCEPTION_ID_KEY_NOT_EXISTS));
+            }
+            return loadTag(key, true).handle((loaded, t) -> t != null ? CompletableFuture.completedFuture(completion.failure(EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL))
+                    : loaded == null ? CompletableFuture.completedFuture(completion.failure(EXCEPTION_ID_KEY_NOT_EXISTS))
+                    : fillAsync(key, count, completion)).thenCompose(f -> f);
+        }
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        /**
+         * 同一时间只有一个线程执行tryComplete，batch中保存已经申请到的id
+         */
+        final IdBatch batch = completion.newBatch(count);
+        final long deadline = blockDeadline(buffer);
+        PendingRequest request = new PendingRequest() {
+            @Override
+            public long getDeadline() {
+                return deadline;
+            }
+
+            @Override
+            public void fail(long code) {
+                future.complete(completion.failure(code));
+            }
+
+            @Override
+            public boolean tryComplete() {
+                final int filled = buffer.isLockFree() ? fillBatchFromSegmentBufferLockFree(buffer, batch, false)
+                        : fillBatchFromSegmentBuffer(buffer, batch, false);
+                if (filled == FILL_REMOVED) {
+                    /**
+                     * SegmentBuffer已经被移除，已经申请到的id被丢弃，重新查找业务tag之后取号
+                     */
+                    fillAsync(key, count, completion).thenAccept(future::complete);
+                    return true;
+                }
+                if (filled < 0) {
+                    future.complete(completion.failure(fillFailureCode(filled)));
+                    return true;
+                }
+                if (!batch.isFull()) {
+                    return false;
+                }
+                buffer.getMetrics().recordIssued(count);
+                future.complete(completion.success(batch));
+                return true;
+            }
+        };
+        if (buffer.isInitOk() && request.tryComplete()) {
+            return future;
+        }
+        submitPendingRequest(buffer, request);
+        return future;
+    }
+
+    /**
+     * 条带化取号：优先从当前线程独占的一段id中发放，用完之后通过批量取号一次申请chunkSize个id。
+     * 批量取号负责切换Segment、触发nextSegment的准备以及等待
+     * @param buffer
+     * @param chunkSize
+     * @return
+     */
+    private long nextIdStriped(SegmentBuffer buffer, int chunkSize) {
+        final StripedChunk chunk = buffer.getStripedChunk().get();
+        final long id = chunk.next();
+        if (id >= 0) {
+            return id;
+        }
+        final long[] ids = chunk.reset(chunkSize);
+        final IdBatch batch = IdBatch.ofArray(ids);
+        final int filled = buffer.isLockFree() ? fillBatchFromSegmentBufferLockFree(buffer, batch, true)
+                : fillBatchFromSegmentBuffer(buffer, batch, true);
+        if (filled < 0) {
+            /**
+             * 丢弃没有填充完整的一段id
+             */
+            chunk.reset(0);
+            return fillFailureCode(filled);
+        }
+        return chunk.next();
+    }
+
+    private long tryNextIdFromSegmentBuffer(SegmentBuffer buffer) {
+        return buffer.isLockFree() ? nextIdFromSegmentBufferLockFree(buffer, false) : nextIdFromSegmentBuffer(buffer, false);
+    }
+
+    /**
+     * 挂起异步取号请求。
+     * Buffer尚未初始化时在后台线程中初始化，避免调用方线程访问db。同一个业务tag同时只有一个初始化任务在排队，
+     * 请求先放入挂起队列，初始化任务完成之后统一处理
+     * @param buffer
+     * @param request
+     */
+    private void submitPendingRequest(final SegmentBuffer buffer, final PendingRequest request) {
+        if (!buffer.isInitOk()) {
+            buffer.getPendingRequests().add(request);
+            scheduleExpiry(buffer, request.getDeadline());
+            /**
+             * 初始化时有调用方在等待，优先于所有的预取任务
+             */
+            refillExecutor().execute("init:" + buffer.getKey(), 0, new Runnable() {
+                @Override
+                public void run() {
+                    initBufferIfNecessary(buffer.getKey(), buffer);
+                    drainPendingRequests(buffer);
+                }
+            });
+            return;
+        }
+        if (!request.tryComplete()) {
+            enqueuePendingRequest(buffer, request);
+        }
+    }
+
+    private void enqueuePendingRequest(SegmentBuffer buffer, PendingRequest request) {
+        buffer.getPendingRequests().add(request);
+        scheduleExpiry(buffer, request.getDeadline());
+        /**
+         * 入队之前准备nextSegment的线程可能已经结束并处理完了挂起的请求，这个时候需要当前线程自己处理。
+         * 如果这里看到threadRunning为true，那么准备线程一定在入队之后才结束，结束时会处理到当前请求
+         */
+        if (!buffer.isThreadRunning()) {
+            drainPendingRequests(buffer);
+        }
+    }
+
+    /**
+     * 重新尝试完成挂起的异步取号请求，仍然需要等待的请求重新入队。
+     * 尝试取号时如果Segment耗尽会触发nextSegment的准备，准备线程结束时会再次调用当前方法
+     * @param buffer
+     */
+    private void drainPendingRequests(SegmentBuffer buffer) {
+        final Queue<PendingRequest> queue = buffer.getPendingRequestsIfPresent();
+        if (queue == null) {
+            return;
+        }
+        while (true) {
+            List<PendingRequest> blocked = null;
+            PendingRequest request;
+            while ((request = queue.poll()) != null) {
+                try {
+                    if (!request.tryComplete()) {
+                        if (blocked == null) {
+                            blocked = new ArrayList<>();
+                        }
+                        blocked.add(request);
+                    }
+                } catch (Exception e) {
+                    logger.warn(buffer.getKey() + " complete pending request exception", e);
+                }
+            }
+            if (blocked == null) {
+                return;
+            }
+            queue.addAll(blocked);
+            /**
+             * 超时检查可能在这些请求被取出期间执行而没有看到它们，重新安排一次
+             */
+            scheduleExpiry(buffer, earliestDeadline(blocked));
+            if (buffer.isThreadRunning()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 当前Segment耗尽之后阻塞取号，以及挂起的异步请求最长等待到什么时候：开启降级时为maxBlockMillis，否则为业务tag的blockTimeoutMillis
+     * @param buffer
+     * @return System.nanoTime，0表示不限制
+     */
+    private long blockDeadline(SegmentBuffer buffer) {
+        final long timeoutMillis = degradeConfig.isEnabled() ? degradeConfig.getMaxBlockMillis() : tagConfig(buffer).getBlockTimeoutMillis();
+        if (timeoutMillis <= 0) {
+            return 0;
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        return deadline != 0 ? deadline : 1;
+    }
+
+    private static long earliestDeadline(Collection<PendingRequest> requests) {
+        long earliest = 0;
+        for (PendingRequest request : requests) {
+            final long deadline = request.getDeadline();
+            if (deadline != 0 && (earliest == 0 || deadline - earliest < 0)) {
+                earliest = deadline;
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * 在deadline安排一次挂起请求的超时检查，同一个SegmentBuffer同一时间只有一个检查任务
+     * @param buffer
+     * @param deadline System.nanoTime，0表示不需要检查
+     */
+    private void scheduleExpiry(final SegmentBuffer buffer, long deadline) {
+        final ScheduledExecutorService scheduler = timer;
+        if (deadline == 0 || scheduler == null || !buffer.compareAndSetExpiryScheduled(false, true)) {
+            return;
+        }
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expirePendingRequests(buffer);
+                }
+            }, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            buffer.setExpiryScheduled(false);
+        }
+    }
+
+    /**
+     * 以 EXCEPTION_ID_DB_UNAVAILABLE 完成已经超时的挂起请求，还没有超时的请求重新入队并安排下一次检查。
+     * 与drainPendingRequests一样先取出所有请求，入队之后如果准备线程已经结束需要自己处理
+     * @param buffer
+     */
+    private void expirePendingRequests(SegmentBuffer buffer) {
+        buffer.setExpiryScheduled(false);
+        final Queue<PendingRequest> queue = buffer.getPendingRequestsIfPresent();
+        if (queue == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        List<PendingRequest> waiting = null;
+        int expired = 0;
+        PendingRequest request;
+        while ((request = queue.poll()) != null) {
+            final long deadline = request.getDeadline();
+            if (deadline != 0 && now - deadline >= 0) {
+                request.fail(EXCEPTION_ID_DB_UNAVAILABLE);
+                expired++;
+            } else {
+                if (waiting == null) {
+                    waiting = new ArrayList<>();
+                }
+                waiting.add(request);
+            }
+        }
+        if (expired > 0) {
+            logger.warn("{} pending requests of {} expired", expired, buffer.getKey());
+        }
+        if (waiting == null) {
+            return;
+        }
+        queue.addAll(waiting);
+        scheduleExpiry(buffer, earliestDeadline(waiting));
+        if (!buffer.isThreadRunning()) {
+            drainPendingRequests(buffer);
+        }
+    }
+
+    /**
+     * 判断Buffer是否初始化完成，没有初始化则从db中装载当前Segment
+     * @param key
+     * @param buffer
+     */
+    private void initBufferIfNecessary(String key, SegmentBuffer buffer) {
+        if (!buffer.isInitOk()) {
+            //buffer 没有初始化,加同步锁，保证只有一个线程对SegmentBuffer进行初始化
+            synchronized (buffer) {
+                if (!buffer.isInitOk()) {
+                    try {
+                        initBuffer(key, buffer);
+                    } catch (Exception e) {
+                        logger.warn("init buffer {} exception", buffer.getCurrent(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 从db装载当前Segment，调用方需要持有buffer的锁
+     * @param key
+     * @param buffer
+     */
+    private void initBuffer(String key, SegmentBuffer buffer) {
+        if (buffer.isLockFree()) {
+            /**
+             * 无锁模式下不能原地修改可能被其他线程持有的Segment，装载一个新的Segment然后发布
+             */
+            Segment current = new Segment(buffer);
+            updateSegmentFromDB(key, current);
+            buffer.setCurrent(current);
+        } else {
+            Segment current = buffer.getCurrent();
+            updateSegmentFromDB(key, current);
+        }
+        logger.info(" init buffer ,update leafkey {} {} from db", key, buffer.getCurrent());
+        /**
+         * 因为 initOk这个属性存在多线程访问的问题，因此需要 使用volatile修饰
+         */
+        buffer.setInitOk(true);
+    }
+
+    /**
+     * 从缓存中获取业务tag的SegmentBuffer，开启按需装载时缓存中没有的业务tag从db装载
+     * @param key
+     * @return 业务tag不存在时返回null
+     * @throws CompletionException 按需装载时访问db失败
+     */
+    private SegmentBuffer getOrLoadBuffer(String key) {
+        SegmentBuffer buffer = cache.get(key);
+        if (buffer != null || !lazyLoadConfig.isEnabled()) {
+            return buffer;
+        }
+        return loadTag(key, false).join();
+    }
+
+    /**
+     * 按需装载业务tag，同一个业务tag同一时间只有一个装载，其他调用方等待同一个结果
+     * @param key
+     * @param async 为true时在refill线程池中装载，否则在当前线程中装载
+     * @return 业务tag不存在时结果为null，访问db失败时异常结束
+     */
+    private CompletableFuture<SegmentBuffer> loadTag(final String key, boolean async) {
+        final Long expireAt = missingTags.get(key);
+        if (expireAt != null) {
+            if (expireAt > System.currentTimeMillis()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            missingTags.remove(key, expireAt);
+        }
+        final CompletableFuture<SegmentBuffer> future = new CompletableFuture<>();
+        final CompletableFuture<SegmentBuffer> loading = loadingTags.putIfAbsent(key, future);
+        if (loading != null) {
+            return loading;
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(doLoadTag(key));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    loadingTags.remove(key, future);
+                }
+            }
+        };
+        if (!async) {
+            task.run();
+        } else if (!refillExecutor().execute(null, 0, task)) {
+            loadingTags.remove(key, future);
+            future.completeExceptionally(new RejectedExecutionException("refill executor is shutdown"));
+        }
+        return future;
+    }
+
+    private SegmentBuffer doLoadTag(String key) {
+        SegmentBuffer existing = cache.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        SegmentBuffer buffer = newSegmentBuffer(key);
+        try {
+            synchronized (buffer) {
+                initBuffer(key, buffer);
+            }
+        } catch (TagNotExistsException e) {
+            if (missingTags.size() < lazyLoadConfig.getNegativeCacheSize()) {
+                missingTags.put(key, System.currentTimeMillis() + lazyLoadConfig.getNegativeTtlMillis());
+            }
+            logger.info("lazy load tag {} not exists in db", key);
+            return null;
+        }
+        existing = cache.putIfAbsent(key, buffer);
+        if (existing != null) {
+            return existing;
+        }
+        logger.info("lazy load tag {}", key);
+        return buffer;
+    }
+
+    /**
+     * db中不存在业务tag时装载Segment抛出的异常
+     */
+    private static class TagNotExistsException extends RuntimeException {
+        private TagNotExistsException(String key) {
+            super("tag " + key + " not exists in db");
+        }
+    }
+
+    /**
+     * 熔断器打开时装载Segment抛出的异常，不访问db，也不需要堆栈
+     */
+    private static class CircuitOpenException extends RuntimeException {
+        private CircuitOpenException(String key) {
+            super("circuit breaker open, skip loading " + key, null, false, false);
+        }
+    }
+
+    /**
+     * 从数据库中读取指定 业务的 Segment
+     * @param key
+     * @param curSegment
+     */
+    private void updateSegmentFromDB(String key, Segment curSegment) {
+
+        StopWatch stopWatch = new Slf4JStopWatch();
+        final long start = System.nanoTime();
+        SegmentBuffer buffer = curSegment.getBuffer();
+        final CircuitBreaker breaker = circuitBreaker;
+        final long call = breaker != null ? breaker.tryAcquire() : 0;
+        if (call < 0) {
+            throw new CircuitOpenException(key);
+        }
+        final LeafAlloc request;
+        LeafAlloc leafAlloc;
+        try {
+            /**
+             * 在try内生成装载请求，保证从熔断器申请的访问一定会结束，否则会被checkSlowCalls当作卡住的访问
+             */
+            request = prepareRefill(key, buffer);
+            if (refillScheduler != null) {
+                /**
+                 * 交给refillScheduler与其他tag的装载请求合并成一次数据库往返
+                 */
+                leafAlloc = refillScheduler.refill(request);
+            } else if (request.getStep() > 0) {
+                leafAlloc = idAllocDao.updateMaxIdByCustomStepAndGetLeafAlloc(request);
+            } else {
+                leafAlloc = idAllocDao.updateMaxIdAndGetLeafAlloc(key);
+            }
+            if (leafAlloc == null) {
+                throw new TagNotExistsException(key);
+            }
+        } catch (RuntimeException e) {
+            buffer.getMetrics().recordRefillFailure();
+            if (breaker != null) {
+                /**
+                 * 业务tag不存在说明db可以正常访问
+                 */
+                if (e instanceof TagNotExistsException) {
+                    breaker.onSuccess(call);
+                } else {
+                    breaker.onFailure(call);
+                }
+            }
+            throw e;
+        }
+        if (breaker != null) {
+            breaker.onSuccess(call);
+        }
+        final long latencyNanos = System.nanoTime() - start;
+        buffer.setRefillLatency(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        buffer.getMetrics().recordRefill(latencyNanos);
+        applyRefill(curSegment, request, leafAlloc);
+        if (journal != null) {
+            journal.appendLease(new LeasedRange(key, curSegment.getValue(), curSegment.getMax(), buffer.getStep(), buffer.getMinStep()));
+        }
+        stopWatch.stop("updateSegmentFromDB", key + " " + curSegment);
+        leaseReserveIfNecessary(buffer);
+    }
+
+    /**
+     * 关键业务tag的应急号段不存在或者已经耗尽、并且熔断器关闭时，在后台申请新的应急号段
+     * @param buffer
+     */
+    private void leaseReserveIfNecessary(final SegmentBuffer buffer) {
+        final CircuitBreaker breaker = circuitBreaker;
+        if (breaker == null || !breaker.isClosed() || degradeConfig.getReserveTags() == null || !degradeConfig.getReserveTags().contains(buffer.getKey())) {
+            return;
+        }
+        final Segment reserve = buffer.getReserve();
+        if (reserve != null && reserve.getIdle() > 0) {
+            return;
+        }
+        refillExecutor().execute("reserve:" + buffer.getKey(), RefillExecutor.UNKNOWN_URGENCY, new Runnable() {
+            @Override
+            public void run() {
+                leaseReserve(buffer, breaker);
+            }
+        });
+    }
+
+    /**
+     * 从db申请应急号段。应急号段单独申请，不影响SegmentBuffer的step，同样写入本地号段日志
+     * @param buffer
+     * @param breaker
+     */
+    private void leaseReserve(SegmentBuffer buffer, CircuitBreaker breaker) {
+        /**
+         * 与初始化Buffer互斥，同一个业务tag同一时间只有一个线程申请应急号段
+         */
+        synchronized (buffer) {
+            final Segment existing = buffer.getReserve();
+            if (buffer.isRemoved() || existing != null && existing.getIdle() > 0) {
+                return;
+            }
+            final long call = breaker.tryAcquire();
+            if (call < 0) {
+                return;
+            }
+            LeafAlloc request = new LeafAlloc();
+            request.setKey(buffer.getKey());
+            request.setStep(degradeConfig.getReserveStep() > 0 ? degradeConfig.getReserveStep() : buffer.getMinStep());
+            LeafAlloc leafAlloc;
+            try {
+                leafAlloc = idAllocDao.updateMaxIdByCustomStepAndGetLeafAlloc(request);
+            } catch (RuntimeException e) {
+                breaker.onFailure(call);
+                logger.warn(buffer.getKey() + " lease reserve segment exception", e);
+                return;
+            }
+            breaker.onSuccess(call);
+            if (leafAlloc == null) {
+                return;
+            }
+            Segment reserve = new Segment(buffer);
+            reserve.setValue(leafAlloc.getMaxId() - request.getStep());
+            reserve.setMax(leafAlloc.getMaxId());
+            reserve.setStep(request.getStep());
+            if (journal != null) {
+                journal.appendLease(new LeasedRange(buffer.getKey(), reserve.getValue(), reserve.getMax(), reserve.getStep(), buffer.getMinStep()));
+            }
+            buffer.setReserve(reserve);
+            logger.info("lease reserve segment {} {}", buffer.getKey(), reserve);
+        }
+    }
+
+    /**
+     * 根据SegmentBuffer的状态生成装载请求，不访问数据库。
+     * 请求的step大于0表示按照该step更新max_id，否则按照数据库中配置的step更新
+     * @param key
+     * @param buffer
+     * @return
+     */
+    private LeafAlloc prepareRefill(String key, SegmentBuffer buffer) {
+        LeafAlloc request = new LeafAlloc();
+        request.setKey(key);
+        /**
+         * Buffer尚未初始化
+         */
+        if (!buffer.isInitOk()) {
+            /**
+             * 首先将 指定的业务tag的 maxId 自增step， 比如maxId=90,step=10，则update之后maxId=100
+             * 然后读取指定业务tag的 记录数据
+             */
+            return request;
+        } else if (buffer.getUpdateTimestamp() == 0) {
+            /**
+             * 什么情况下会出现 initOk为true，但是 updateTimeStamp==0呢？
+             *考虑这种情况： 线程A 取号， 首先是SegmentBuffer没有 init，因此get的时候 会执行updateSegmentFromDB 方法，从而执行了上面的
+             * 第一个if。这个第一个if会初始化当前的Segment， updateSegmentFromDB执行完了之后 会设置SegmentBuffer的initOk为true。
+             * 然后线程A 不断通过 getIdFromSegmentBuffer 方法从Segment中取出id。 在getIdFromSegmentBuffer方法中会判断 当前Segment中剩余的可用id
+             * 达到阈值的时候 会启动一个线程 通过updateSegmentFromDb方法准备 下一个Segment， 也就是说这个时候 就满足 SegmentBuffer的initOk为true，但是updateTimestamp=0
+             * 然后这个时候 也会从数据库中读取数据到Buffer中，然后Buffer初始化另外一个Segment。
+             *
+             * ==================
+             * 考虑一种情况： （1）线程A取号，当达到阈值的时候启动线程B准备下一个Segment， 如果在线程B准备完成之前线程A已经消耗完了 当前Segment中的所有id 那么这个时候线程A如何处理？
+             *
+             *
+             */
+            return request;
+        }
+        /**
+         * 问题 SegmentBuffer的 initOk属性 只会在get方法中 被调用，而且 从代码上看 get方法中 会获取到Buffer锁对象 然后判断
+         * isInitOk为false的情况下才会执行 updateSegmentFromDB， 也就意味着 理论上updateSegmentFromDB方法内 SegmentBuffer对象的
+         * isInitOk为false（错误，只有在get内调用当前方法的时候才为false）。 然后当UpdateSegmentFromDB方法执行完之后才会将 SegmentBuffer的initOk属性设置为true。
+         * 所以什么情况下 会走到这里？
+         * 当前方法 还会被 getIdFromSegmentBuffer 方法调用。这个时候可能走到这里。
+         *
+         * 走到这里 就说明 SegmentBuffer中的两个Segment 都已经初始化过一次了
+         */
+        long duration = System.currentTimeMillis() - buffer.getUpdateTimestamp();
+        TagConfig config = tagConfig(buffer);
+        /**
+         * 一个Segment维持的时间和step的上限由业务tag配置，默认15分钟和100,0000
+         */
+        int nextStep = stepPolicy.nextStep(buffer, config, duration);
+        nextStep = Math.max(buffer.getMinStep(), Math.min(nextStep, config.getMaxStep()));
+        logger.info("leafKey[{}], step[{}], duration[{}mins], consumeRate[{}/s], refillLatency[{}ms], nextStep[{}]", key, buffer.getStep(), String.format("%.2f",((double)duration / (1000 * 60))),
+                String.format("%.1f", buffer.getConsumeRate() * 1000), buffer.getRefillLatency(), nextStep);
+        request.setStep(nextStep);
+        return request;
+    }
+
+    /**
+     * 用数据库返回的记录更新SegmentBuffer和Segment，与prepareRefill中的三种情况一一对应
+     * @param curSegment
+     * @param request prepareRefill生成的装载请求
+     * @param leafAlloc 数据库更新之后的记录
+     */
+    private void applyRefill(Segment curSegment, LeafAlloc request, LeafAlloc leafAlloc) {
+        SegmentBuffer buffer = curSegment.getBuffer();
+        if (!buffer.isInitOk()) {
+            /**
+             * 问题，为什么从数据库读取 放置到Buffer之后 为什么没有更新Buffer的 updateTimestamp字段
+             */
+            buffer.setStep(leafAlloc.getStep());
+            buffer.setMinStep(leafAlloc.getStep());
+        } else if (buffer.getUpdateTimestamp() == 0) {
+            /**
+             * 为什么上面 不设置 updateTimeStamp？
+             */
+            buffer.setUpdateTimestamp(System.currentTimeMillis());
+            buffer.setStep(leafAlloc.getStep());
+            buffer.setMinStep(leafAlloc.getStep());
+        } else {
+            buffer.setUpdateTimestamp(System.currentTimeMillis());
+            buffer.setStep(request.getStep());
+            buffer.setMinStep(leafAlloc.getStep());
+        }
+
+        /**
+         * 设置segment中 可用的开始值 ，比如maxid=100, step=10, 那么表示之前的maxId=90，
+         * 问题： 在上面的第一个if buffer.isInitOk为false的情况下 会读取数据库设置buffer，为什么下面没有 设置Buffer的updateTimeStamp字段？
+         *
+         */
+        long value = leafAlloc.getMaxId() - buffer.getStep();
+        curSegment.setValue(value);
+        curSegment.setMax(leafAlloc.getMaxId());
+        curSegment.setStep(buffer.getStep());
+    }
+
+    public Result getIdFromSegmentBuffer(SegmentBuffer segmentBuffer) {
+        return ImmutableResult.of(nextIdFromSegmentBuffer(segmentBuffer));
+    }
+
+    /**
+     * 从SegmentBuffer中取号，直接返回id，不创建Result对象
+     * @param segmentBuffer
+     * @return
+     */
+    public long nextIdFromSegmentBuffer(SegmentBuffer segmentBuffer) {
+        return nextIdFromSegmentBuffer(segmentBuffer, true);
+    }
+
+    /**
+     * @param segmentBuffer
+     * @param block 当前Segment耗尽且nextSegment正在装载时是否等待，不等待时返回 ID_WOULD_BLOCK
+     * @return
+     */
+    private long nextIdFromSegmentBuffer(SegmentBuffer segmentBuffer, boolean block) {
+        /**
+         * 当前Segment耗尽之后最长等待到什么时候，第一次耗尽时计算
+         */
+        long deadline = 0;
+        while (true) {
+
+            /**
+             * 当前线程从SegmentBuffer中的segment中取号的时候 需要 阻止其他线程 修改SegmentBuffer当前使用的segment的下标号，放置切换Segment，
+             * 因此需要加读锁
+             */
+            segmentBuffer.rLock().lock();
+            try{
+                final Segment curSegment = segmentBuffer.getCurrent();
+
+                /**
+                 * 校验当前被使用的Segment 内剩余取号
+                 *
+                 * threadRunning主要用来保证只有一个线程 执行对 nextSegment的准备工作。
+                 */
+                if (segmentBuffer.getReadyCount() < segmentBuffer.getPrefetchDepth() && ringPolicy.shouldPrefetch(segmentBuffer, curSegment, curSegment.getIdle()) && segmentBuffer.compareAndSetThreadRunning(false, true)) {
+                    loadNextSegment(segmentBuffer);
+                }
+                //------------------------------------获取当前可用id
+                final long value = curSegment.getAndIncrement();
+                if (value < curSegment.getMax()) {
+                    /**
+                     * 取号成功返回之前需要校验 剩余可用id是否达到阈值。
+                     *
+                     * 实际上不单单是取号成功返回之前需要校验，应该在每次取号之前都需要校验，不管当前取号是否成功。
+                     * 其次校验的时候需要针对当前SegmentBuffer 使用的Segment进行校验， 也就是说校验的过程中 需要保证 其他线程不能修改SegmentBuffer中使用的Segment下标。
+                     * 因此这个校验过程需要加锁，可以放在当前的 SegmentBuffer的读锁内完成。 这就为什么 上面的校验代码在前面的原因。
+                     *
+                     */
+                    return value;
+                }
+
+            }finally {
+                segmentBuffer.rLock().unlock();
+            }
+
+            /**
+             * 线程运行到这里 则意味着  当前segment 中已经没有可用的value了。 可能 同一时间有多个线程 阻塞在取号这里
+             */
+            if (!initOk) {
+                /**
+                 * 已经关闭，准备任务会被线程池拒绝，继续等待只会空转
+                 */
+                return EXCEPTION_ID_IDCACHE_INIT_FALSE;
+            }
+            if (segmentBuffer.isRemoved()) {
+                /**
+                 * 已经被移除，不会再装载nextSegment，由调用方重新查找业务tag
+                 */
+                return EXCEPTION_ID_KEY_NOT_EXISTS;
+            }
+            if (block && deadline == 0) {
+                deadline = blockDeadline(segmentBuffer);
+            }
+            final CircuitBreaker breaker = circuitBreaker;
+            if (breaker != null && !segmentBuffer.isNextReady()) {
+                final long degraded = nextIdDegraded(segmentBuffer, breaker, deadline);
+                if (degraded != ID_WOULD_BLOCK) {
+                    return degraded;
+                }
+            }
+            if (!block) {
+                if (segmentBuffer.isThreadRunning()) {
+                    return ID_WOULD_BLOCK;
+                }
+            } else if (!waitAndSleep(segmentBuffer, deadline)) {
+                return EXCEPTION_ID_DB_UNAVAILABLE;
+            }
+
+            /**
+             * 线程 从waitAndSleep方法中返回有三种情况
+             * （1）threadRunning=false，意味着 线程B准备nextSegment工作结束
+             *     A:如果线程B准备nextSegment成功， 则SegmentBuffer的nextReady为true，
+             *     B：如果线程B准备nextSegment失败， 则SegmentBuffer的nextReady为false
+             * （2） 等待超过了业务tag配置的最长等待时间，这个时候线程B仍在执行 nextSegment设置工作。
+             *
+             * 因此我们需要判断SegmentBuffer的nextSegment是否准备就绪。
+             *
+             * 但是在判断之前 我们考虑这种情况， 线程 A,C,D 可能会同时判断，而且理论上 如果 SegmentBuffer的nextReady为true的话 需要同步
+             * 切换Segment，切换之后再设置 nextReady为false，因此这个操作需要写加锁
+             */
+
+            if (!segmentBuffer.isNextReady()) {
+                /**
+                 * 1，因为线程B的异常退出导致 nextSegment没有准备好，
+                 * 2.又或者线程B已经将NextSegment准备好了，但是因为线程C发现的比较早，执行了Segment的切换工作。
+                 * 这个时候只需要 执行正常的取号流程就可以了
+                 */
+                continue;
+            }
+            /**
+             * SegmentBuffer已经准备好下一个Segment了，且尚未有其他线程 切换Segment. 当前线程尝试切换Segment，首先需要获取写锁
+             */
+            segmentBuffer.wLock().lock();
+            try{
+
+                /**
+                 * 再次判断 SegmentBuffer是否准备就绪，防止其他线程已经 切换了Segment
+                 *
+                 * 问题：可能会有这种情况， 有100个线程 阻塞在取号的地方， 线程B 正确设置了nextSegment， 然后线程C执行了切换Segment的工作，
+                 * 切换之后线程C和其他线程 从新的segment中取号（但是线程A还未从新的segment中取号，线程A尚未唤醒）。然后线程D发现新的segment剩余id不多了，然后又让线程E 准备next_N_segment，线程E准备好了，但是这个时候nextSegment中
+                 * 尚有 剩余的segment。 这个时候线程A唤醒了， 线程A本来是想从nextSegment中取号。 但是 线程A发现SegmentBuffer的nextReady属性为true，就擅自切换到了next_N_Segment。
+                 * 这个时候就会导致nextSegment中部分号码没有使用。
+                 *
+                 * 也就是说 切换segment的条件是 1，nextSegment准备就绪 2，当前Segment中没有可用的id。
+                 *
+                 */
+
+                final Segment newCurSegment = segmentBuffer.getCurrent();
+
+                final long segNewValue = newCurSegment.getAndIncrement();
+                if (segNewValue < newCurSegment.getMax()) {
+                    /**
+                     * 意味着当前尚 没有必要切换，或者已经被其他线程切换了Segment
+                     */
+                    return segNewValue;
+                }
+                if (segmentBuffer.isNextReady()) {
+                    switchToNextSegment(segmentBuffer);
+                }
+
+            }finally{
+                segmentBuffer.wLock().unlock();
+
+            }
+
+        }//while
+
+    }
+
+    /**
+     * 提交一个准备nextSegment的任务，调用方需要先通过 threadRunning的CAS 保证只有一个线程执行准备工作。
+     * 任务会连续准备Segment，直到已经准备好的Segment个数达到SegmentBuffer的预取深度
+     * @param segmentBuffer
+     */
+    private void loadNextSegment(final SegmentBuffer segmentBuffer) {
+        submitRefill(segmentBuffer, new Runnable() {
+            @Override
+            public void run() {
+                boolean failed = false;
+                try {
+                    while (segmentBuffer.getReadyCount() < segmentBuffer.getPrefetchDepth() && segmentBuffer.hasFreeSlot()) {
+                        /**
+                         * 要装载的位置由currentPos和readyCount共同决定，需要在读锁内读取，防止读取的过程中发生Segment切换
+                         */
+                        final Segment nextSegment;
+                        segmentBuffer.rLock().lock();
+                        try {
+                            nextSegment = segmentBuffer.getSegments()[segmentBuffer.loadPos()];
+                        } finally {
+                            segmentBuffer.rLock().unlock();
+                        }
+                        try {
+                            updateSegmentFromDB(segmentBuffer.getKey(), nextSegment);
+                            logger.info("update segment {} from db{}", segmentBuffer.getKey(), nextSegment);
+                        } catch (Exception e) {
+                            logger.warn(segmentBuffer.getKey() + " updateSegmentFromDb exception", e);
+                            failed = true;
+                            break;
+                        }
+                        /**
+                         * 修改SegmentBuffer的属性 需要加锁. 注意这里只更新 下一个segment是否准备就绪，并没有切换正在使用的Segment
+                         * 因为线程A取号，线程A如果发现当前Segment中没有可用 id了则线程A负责切换Segment； 线程B只负责 准备下一个Segment中的数据，
+                         * 不负责切换Segment。
+                         * 需要注意的是 线程A  如果当前Segment没有可用id，且发现下一个Segment 已经准备好了，那么线程A切换Segment，这个操作是需要对SegmentBuffer加写锁，
+                         * 那么问题就是： 先加锁然后判断 下一个segment是否可用呢  还是先判断下一个Segment是否可用然后对SegmentBuffer加锁呢？
+                         */
+                        segmentBuffer.wLock().lock();
+                        segmentBuffer.incrementReadyCount();
+                        segmentBuffer.wLock().unlock();
+                        /**
+                         * 准备好一个Segment就唤醒等待的线程，不需要等到所有的Segment都准备完成
+                         */
+                        segmentBuffer.signalRefillDone();
+                        drainPendingRequests(segmentBuffer);
+                    }
+                } finally {
+                    finishRefill(segmentBuffer, failed);
+                }
+            }
+        });
+    }
+
+    /**
+     * 准备任务结束：恢复threadRunning，唤醒等待的取号线程并处理挂起的异步请求。
+     * 装载失败时先退避refillBackoffMillis，退避期间threadRunning保持为true，不会有新的装载提交
+     * @param segmentBuffer
+     * @param failed 是否因为装载失败而结束
+     */
+    private void finishRefill(final SegmentBuffer segmentBuffer, boolean failed) {
+        final long backoffMillis = tagConfig(segmentBuffer).getRefillBackoffMillis();
+        final ScheduledExecutorService scheduler = timer;
+        if (failed && backoffMillis > 0 && scheduler != null && initOk) {
+            try {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        finishRefill(segmentBuffer, false);
+                    }
+                }, backoffMillis, TimeUnit.MILLISECONDS);
+                return;
+            } catch (RejectedExecutionException e) {
+                logger.debug("timer is shutdown, finish refill of {} without backoff", segmentBuffer.getKey());
+            }
+        }
+        segmentBuffer.setThreadRunning(false);
+        segmentBuffer.signalRefillDone();
+        drainPendingRequests(segmentBuffer);
+    }
+
+    /**
+     * 提交准备Segment的任务，紧急程度为当前Segment按照最近的消耗速度还能维持的毫秒数。
+     * 调用方已经通过threadRunning的CAS保证同一个业务tag只有一个准备任务，提交失败（线程池已经关闭或者熔断器打开）时需要恢复threadRunning
+     * @param segmentBuffer
+     * @param task
+     */
+    private void submitRefill(SegmentBuffer segmentBuffer, Runnable task) {
+        final CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null && !breaker.isCallPermitted()) {
+            /**
+             * 熔断器打开期间不提交注定失败的任务，取号线程直接降级
+             */
+            segmentBuffer.setThreadRunning(false);
+            segmentBuffer.signalRefillDone();
+            return;
+        }
+        long urgency = RefillExecutor.UNKNOWN_URGENCY;
+        final double consumeRate = segmentBuffer.getConsumeRate();
+        final Segment current = segmentBuffer.getCurrent();
+        if (consumeRate > 0 && current != null) {
+            urgency = (long) (Math.max(0, current.getIdle()) / consumeRate);
+        }
+        RefillExecutor executor = refillExecutor();
+        while (!executor.execute("refill:" + segmentBuffer.getKey(), urgency, task)) {
+            /**
+             * configureRefillExecutor先发布新的线程池再关闭旧的线程池，被旧的线程池拒绝时在新的线程池上重试；
+             * 没有新的线程池说明已经关闭，取号线程在循环中检查initOk之后返回
+             */
+            final RefillExecutor latest = service;
+            if (latest == executor) {
+                logger.warn("submit refill of {} rejected", segmentBuffer.getKey());
+                segmentBuffer.setThreadRunning(false);
+                segmentBuffer.signalRefillDone();
+                return;
+            }
+            executor = latest;
+        }
+    }
+
+    /**
+     * 加锁模式下切换到下一个Segment，调用方需要持有写锁
+     * @param segmentBuffer
+     */
+    private void switchToNextSegment(SegmentBuffer segmentBuffer) {
+        final Segment exhausted = segmentBuffer.getCurrent();
+        segmentBuffer.switchPos();
+        segmentBuffer.decrementReadyCount();
+        onSegmentSwitched(segmentBuffer, exhausted);
+    }
+
+    /**
+     * 切换Segment之后根据刚刚耗尽的Segment计算消耗速度，并重新计算预取深度
+     * @param segmentBuffer
+     * @param exhausted
+     */
+    private void onSegmentSwitched(SegmentBuffer segmentBuffer, Segment exhausted) {
+        final long now = System.currentTimeMillis();
+        final long last = segmentBuffer.getSwitchTimestamp();
+        if (last > 0) {
+            segmentBuffer.setConsumeRate((double) exhausted.getStep() / Math.max(1, now - last));
+        }
+        segmentBuffer.setSwitchTimestamp(now);
+        final int depth = ringPolicy.prefetchDepth(segmentBuffer);
+        segmentBuffer.setPrefetchDepth(Math.max(1, Math.min(depth, segmentBuffer.getRingSize() - 1)));
+    }
+
+    /**
+     * 无锁模式取号。
+     *
+     * 当前Segment通过AtomicReference发布，取号的快速路径只有一次volatile读和一次原子加；
+     * 当前Segment耗尽之后通过CAS将currentRef替换为已准备就绪的nextSegment。因为无锁模式下每次装载都使用新的Segment对象，
+     * 旧Segment的value只会继续增长，所以持有旧引用的线程只会取号失败然后重试，既不会拿到重复的id，Segment内也不会出现空洞。
+     * @param segmentBuffer
+     * @return
+     */
+    public Result getIdFromSegmentBufferLockFree(final SegmentBuffer segmentBuffer) {
+        return ImmutableResult.of(nextIdFromSegmentBufferLockFree(segmentBuffer));
+    }
+
+    /**
+     * 无锁模式取号，直接返回id，不创建Result对象
+     * @param segmentBuffer
+     * @return
+     */
+    public long nextIdFromSegmentBufferLockFree(final SegmentBuffer segmentBuffer) {
+        return nextIdFromSegmentBufferLockFree(segmentBuffer, true);
+    }
+
+    private long nextIdFromSegmentBufferLockFree(final SegmentBuffer segmentBuffer, boolean block) {
+        long deadline = 0;
+        while (true) {
+            final Segment curSegment = segmentBuffer.getCurrent();
+            final long value = curSegment.getAndIncrement();
+            final long max = curSegment.getMax();
+            if (value < max) {
+                if (segmentBuffer.getReadyCount() < segmentBuffer.getPrefetchDepth() && ringPolicy.shouldPrefetch(segmentBuffer, curSegment, max - value) && segmentBuffer.compareAndSetThreadRunning(false, true)) {
+                    loadNextSegmentLockFree(segmentBuffer);
+                }
+                return value;
+            }
+            if (!initOk) {
+                /**
+                 * 已经关闭，准备任务会被线程池拒绝，继续等待只会空转
+                 */
+                return EXCEPTION_ID_IDCACHE_INIT_FALSE;
+            }
+            if (segmentBuffer.isRemoved()) {
+                /**
+                 * 已经被移除，不会再装载nextSegment，由调用方重新查找业务tag
                  */
+                return EXCEPTION_ID_KEY_NOT_EXISTS;
+            }
+            if (block && deadline == 0) {
+                deadline = blockDeadline(segmentBuffer);
+            }
+            final CircuitBreaker breaker = circuitBreaker;
+            if (breaker != null && !segmentBuffer.isNextReady()) {
+                final long degraded = nextIdDegraded(segmentBuffer, breaker, deadline);
+                if (degraded != ID_WOULD_BLOCK) {
+                    return degraded;
+                }
+            }
+            if (!switchOrWaitLockFree(segmentBuffer, curSegment, block, deadline)) {
+                return block ? EXCEPTION_ID_DB_UNAVAILABLE : ID_WOULD_BLOCK;
+            }
+        }
+    }
 
-                final Segment newCurSegment = segmentBuffer.getCurrent();
+    /**
+     * 无锁模式下批量取号，逻辑与 getBatchFromSegmentBuffer 相同，只是Segment的发布和切换通过CAS完成
+     * @param segmentBuffer
+     * @param count
+     * @return
+     */
+    private BatchResult getBatchFromSegmentBufferLockFree(final SegmentBuffer segmentBuffer, final int count) {
+        final long[] ids = new long[count];
+        final int filled = fillBatchFromSegmentBufferLockFree(segmentBuffer, IdBatch.ofArray(ids), true);
+        if (filled < 0) {
+            return new BatchResult(new long[]{fillFailureCode(filled)}, Status.EXCEPTION);
+        }
+        return new BatchResult(ids, Status.SUCCESS);
+    }
 
-                final long segNewValue = newCurSegment.getValue().getAndIncrement();
-                if (segNewValue < newCurSegment.getMax()) {
+    /**
+     * 继续填充batch，可以多次调用直到填满
+     * @return 填充之后batch中已经填充的个数，block为false时可能小于batch的个数；降级失败时返回 FILL_FAILED，已经关闭时返回 FILL_CLOSED，
+     * SegmentBuffer已经被移除时返回 FILL_REMOVED
+     */
+    private int fillBatchFromSegmentBufferLockFree(final SegmentBuffer segmentBuffer, final IdBatch batch, boolean block) {
+        long deadline = 0;
+        while (true) {
+            final Segment curSegment = segmentBuffer.getCurrent();
+            final int remaining = batch.getRemaining();
+            final long start = curSegment.getAndAdd(remaining);
+            final long max = curSegment.getMax();
+            if (start < max) {
+                batch.add(start, (int) Math.min(remaining, max - start));
+            }
+            if (segmentBuffer.getReadyCount() < segmentBuffer.getPrefetchDepth() && ringPolicy.shouldPrefetch(segmentBuffer, curSegment, curSegment.getIdle()) && segmentBuffer.compareAndSetThreadRunning(false, true)) {
+                loadNextSegmentLockFree(segmentBuffer);
+            }
+            if (batch.isFull()) {
+                return batch.getFilled();
+            }
+            if (!initOk) {
+                return FILL_CLOSED;
+            }
+            if (segmentBuffer.isRemoved()) {
+                return FILL_REMOVED;
+            }
+            if (block && deadline == 0) {
+                deadline = blockDeadline(segmentBuffer);
+            }
+            final CircuitBreaker breaker = circuitBreaker;
+            if (breaker != null && !segmentBuffer.isNextReady()) {
+                final int degraded = fillBatchDegraded(segmentBuffer, breaker, batch, deadline);
+                if (degraded == FILL_FAILED || batch.isFull()) {
+                    return degraded;
+                }
+            }
+            if (!switchOrWaitLockFree(segmentBuffer, curSegment, block, deadline)) {
+                return block ? FILL_FAILED : batch.getFilled();
+            }
+        }
+    }
+
+    /**
+     * 无锁模式下当前Segment耗尽之后的处理：nextSegment已经准备就绪则通过CAS切换，否则触发nextSegment的准备并等待。
+     *
+     * CAS成功的线程负责将新的当前Segment移出readySegments。移出之前其他线程可能已经把新的Segment也耗尽了，
+     * 这个时候它看到的队首仍然是当前Segment，需要等待移出之后再切换，因此不会跳过任何Segment
+     * @param segmentBuffer
+     * @param exhausted 已经耗尽的Segment
+     * @param block nextSegment正在装载时是否等待
+     * @param deadline 等待nextSegment最长到什么时候（System.nanoTime），0表示不限制
+     * @return 是否可以继续取号：block为false且需要等待时，或者等待超过deadline、线程被中断时返回false
+     */
+    private boolean switchOrWaitLockFree(final SegmentBuffer segmentBuffer, final Segment exhausted, boolean block, long deadline) {
+        final Segment next = segmentBuffer.getReadySegments().peek();
+        if (next != null) {
+            if (next != exhausted && segmentBuffer.compareAndSetCurrent(exhausted, next)) {
+                if (segmentBuffer.getReadySegments().remove(next)) {
+                    segmentBuffer.decrementReadyCount();
+                }
+                onSegmentSwitched(segmentBuffer, exhausted);
+            }
+            return true;
+        }
+        if (segmentBuffer.compareAndSetThreadRunning(false, true)) {
+            loadNextSegmentLockFree(segmentBuffer);
+        }
+        if (!block) {
+            return false;
+        }
+        return waitAndSleep(segmentBuffer, deadline);
+    }
+
+    /**
+     * 无锁模式下准备nextSegment：装载新的Segment对象，装载完成之后放入readySegments，
+     * 直到已经准备好的Segment个数达到预取深度
+     * @param segmentBuffer
+     */
+    private void loadNextSegmentLockFree(final SegmentBuffer segmentBuffer) {
+        submitRefill(segmentBuffer, new Runnable() {
+            @Override
+            public void run() {
+                boolean failed = false;
+                try {
                     /**
-                     * 意味着当前尚 没有必要切换，或者已经被其他线程切换了Segment
+                     * 判断readyCount与CAS threadRunning 不是原子的，在这之间可能已经有线程准备好了nextSegment，因此在循环条件中重新判断
                      */
-                    return new Result(segNewValue, Status.SUCCESS);
-                }
-                if (segmentBuffer.isNextReady()) {
-                    segmentBuffer.switchPos();
-                    segmentBuffer.setNextReady(false);
+                    while (segmentBuffer.getReadyCount() < segmentBuffer.getPrefetchDepth() && segmentBuffer.hasFreeSlot()) {
+                        final Segment nextSegment = new Segment(segmentBuffer);
+                        updateSegmentFromDB(segmentBuffer.getKey(), nextSegment);
+                        segmentBuffer.getReadySegments().offer(nextSegment);
+                        segmentBuffer.incrementReadyCount();
+                        logger.info("update segment {} from db{}", segmentBuffer.getKey(), nextSegment);
+                        segmentBuffer.signalRefillDone();
+                        drainPendingRequests(segmentBuffer);
+                    }
+                } catch (Exception e) {
+                    logger.warn(segmentBuffer.getKey() + " updateSegmentFromDb exception", e);
+                    failed = true;
+                } finally {
+                    finishRefill(segmentBuffer, failed);
                 }
+            }
+        });
+    }
 
-            }finally{
-                segmentBuffer.wLock().unlock();
+    /**
+     * 批量取号：通过一次getAndAdd从当前Segment中申请一段连续的id，当前Segment剩余的id不足时
+     * 先取走剩余部分，然后切换到下一个Segment继续申请。
+     *
+     * 与 getIdFromSegmentBuffer 一样，读锁内只申请id，切换Segment需要加写锁；
+     * 申请完成后再校验阈值，保证一次取走大量id的批量请求能够及时触发nextSegment的准备。
+     * @param segmentBuffer
+     * @param count
+     * @return
+     */
+    private BatchResult getBatchFromSegmentBuffer(final SegmentBuffer segmentBuffer, final int count) {
+        final long[] ids = new long[count];
+        final int filled = fillBatchFromSegmentBuffer(segmentBuffer, IdBatch.ofArray(ids), true);
+        if (filled < 0) {
+            return new BatchResult(new long[]{fillFailureCode(filled)}, Status.EXCEPTION);
+        }
+        return new BatchResult(ids, Status.SUCCESS);
+    }
 
+    /**
+     * 继续填充batch，可以多次调用直到填满
+     * @return 填充之后batch中已经填充的个数，block为false时可能小于batch的个数；降级失败时返回 FILL_FAILED，已经关闭时返回 FILL_CLOSED，
+     * SegmentBuffer已经被移除时返回 FILL_REMOVED
+     */
+    private int fillBatchFromSegmentBuffer(final SegmentBuffer segmentBuffer, final IdBatch batch, boolean block) {
+        long deadline = 0;
+        while (true) {
+            segmentBuffer.rLock().lock();
+            try {
+                final Segment curSegment = segmentBuffer.getCurrent();
+                final int remaining = batch.getRemaining();
+                /**
+                 * 一次原子操作申请remaining个id，value可能因此超过max，与getAndIncrement超过max的情况相同，
+                 * 超过max的部分不会被分配
+                 */
+                final long start = curSegment.getAndAdd(remaining);
+                final long max = curSegment.getMax();
+                if (start < max) {
+                    batch.add(start, (int) Math.min(remaining, max - start));
+                }
+                if (segmentBuffer.getReadyCount() < segmentBuffer.getPrefetchDepth() && ringPolicy.shouldPrefetch(segmentBuffer, curSegment, curSegment.getIdle()) && segmentBuffer.compareAndSetThreadRunning(false, true)) {
+                    loadNextSegment(segmentBuffer);
+                }
+                if (batch.isFull()) {
+                    return batch.getFilled();
+                }
+            } finally {
+                segmentBuffer.rLock().unlock();
             }
 
-        }//while
-
+            /**
+             * 当前Segment已经耗尽，剩余的id需要从下一个Segment中申请
+             */
+            if (!initOk) {
+                return FILL_CLOSED;
+            }
+            if (segmentBuffer.isRemoved()) {
+                return FILL_REMOVED;
+            }
+            if (block && deadline == 0) {
+                deadline = blockDeadline(segmentBuffer);
+            }
+            final CircuitBreaker breaker = circuitBreaker;
+            if (breaker != null && !segmentBuffer.isNextReady()) {
+                final int degraded = fillBatchDegraded(segmentBuffer, breaker, batch, deadline);
+                if (degraded == FILL_FAILED || batch.isFull()) {
+                    return degraded;
+                }
+            }
+            if (!block) {
+                if (segmentBuffer.isThreadRunning()) {
+                    return batch.getFilled();
+                }
+            } else if (!waitAndSleep(segmentBuffer, deadline)) {
+                return FILL_FAILED;
+            }
+            if (!segmentBuffer.isNextReady()) {
+                continue;
+            }
+            segmentBuffer.wLock().lock();
+            try {
+                /**
+                 * 切换segment的条件是 1，nextSegment准备就绪 2，当前Segment中没有可用的id。
+                 * 写锁内当前Segment不会被其他线程修改，因此可以直接通过idle判断
+                 */
+                if (segmentBuffer.getCurrent().getIdle() <= 0 && segmentBuffer.isNextReady()) {
+                    switchToNextSegment(segmentBuffer);
+                }
+            } finally {
+                segmentBuffer.wLock().unlock();
+            }
+        }
     }
 
 
     /**
-     * 源码中 getIdFromSegmentBuffer的实现
+     * 源码中 getIdFromSegmentBuffer的实现，只适用于双buffer
      * @param buffer
      * @return
      */
@@ -359,8 +1717,8 @@ public class SegmentIDGenImpl implements IDGen {
             buffer.rLock().lock();
             try {
                 final Segment segment = buffer.getCurrent();
-                if (!buffer.isNextReady() && (segment.getIdle() < 0.9 * segment.getStep()) && buffer.getThreadRunning().compareAndSet(false, true)) {
-                    service.execute(new Runnable() {
+                if (!buffer.isNextReady() && (segment.getIdle() < 0.9 * segment.getStep()) && buffer.compareAndSetThreadRunning(false, true)) {
+                    refillExecutor().execute(new Runnable() {
                         @Override
                         public void run() {
                             Segment next = buffer.getSegments()[buffer.nextPos()];
@@ -375,23 +1733,23 @@ public class SegmentIDGenImpl implements IDGen {
                                 if (updateOk) {
                                     buffer.wLock().lock();
                                     buffer.setNextReady(true);
-                                    buffer.getThreadRunning().set(false);
+                                    buffer.setThreadRunning(false);
                                     buffer.wLock().unlock();
                                 } else {
-                                    buffer.getThreadRunning().set(false);
+                                    buffer.setThreadRunning(false);
                                 }
                             }
                         }
                     });
                 }
-                long value = segment.getValue().getAndIncrement();
+                long value = segment.getAndIncrement();
                 if (value < segment.getMax()) {
                     return new Result(value, Status.SUCCESS);
                 }
             } finally {
                 buffer.rLock().unlock();
             }
-            waitAndSleep(buffer);
+            waitAndSleep_originalSource(buffer);
             /**
              *
              *
@@ -421,7 +1779,7 @@ public class SegmentIDGenImpl implements IDGen {
             try {
                 //---------------------- codeA------
                 final Segment segment = buffer.getCurrent();
-                long value = segment.getValue().getAndIncrement();
+                long value = segment.getAndIncrement();
                 if (value < segment.getMax()) {
                     return new Result(value, Status.SUCCESS);
                 }
@@ -433,124 +1791,510 @@ public class SegmentIDGenImpl implements IDGen {
                     logger.error("Both two segments in {} are not ready!", buffer);
                     return new Result(EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL, Status.EXCEPTION);
                 }
-            } finally {
-                buffer.wLock().unlock();
+            } finally {
+                buffer.wLock().unlock();
+            }
+        }
+    }
+
+
+    /**
+     * 当前Segment耗尽时等待准备nextSegment的线程结束。
+     *
+     * 取号线程在SegmentBuffer的监视器上等待，准备线程结束时（不管成功还是失败）会唤醒所有等待的线程，
+     * 因此nextSegment准备好之后取号线程可以立即继续取号，不需要自旋消耗cpu，也不会有固定的sleep延迟。
+     *
+     * 等待的条件是 threadRunning 而不是 nextReady：如果准备线程失败退出，就没有线程在准备nextSegment了，
+     * 这个时候取号线程需要尽快返回，重新提交一个准备任务。
+     * 单次最长等待时间由业务tag的 maxWaitMillis 配置，超时之后返回由调用方重新检查SegmentBuffer的状态；
+     * 多次等待的总时间不超过deadline，db一直不可用时取号线程不会无限等待
+     * @param segmentBuffer
+     * @param deadline 最长等待到什么时候（System.nanoTime），0表示不限制
+     * @return 超过deadline或者线程被中断时返回false，由调用方返回 EXCEPTION_ID_DB_UNAVAILABLE
+     */
+    private boolean waitAndSleep(SegmentBuffer segmentBuffer, long deadline) {
+        segmentBuffer.getMetrics().recordWait();
+        try {
+            if (segmentBuffer.awaitRefill(tagConfig(segmentBuffer).getMaxWaitMillis())) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            /**
+             * 恢复中断标记，由调用方的线程处理中断；继续等待的话awaitRefill会立即抛出异常，取号线程只会空转
+             */
+            Thread.currentThread().interrupt();
+            logger.warn("Thread {} interrupted while waiting segment {} refill", Thread.currentThread().getName(), segmentBuffer.getKey());
+            return false;
+        }
+        logger.debug("wait segment {} refill timeout", segmentBuffer.getKey());
+        final CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null) {
+            /**
+             * db卡住时装载不会返回，由等待超时的取号线程发现
+             */
+            breaker.checkSlowCalls();
+        }
+        return !isDeadlineExceeded(deadline);
+    }
+
+    /**
+     * 降级模式下当前Segment耗尽、并且没有准备就绪的Segment时的处理。
+     * 熔断器打开时不再等待：从应急号段中取号，没有应急号段或者已经耗尽时快速失败，同时触发装载，熔断器到期时作为探测；
+     * 熔断器关闭时继续等待，超过deadline之后快速失败
+     * @param segmentBuffer
+     * @param breaker
+     * @param deadline 最长等待到什么时候（System.nanoTime），0表示不限制
+     * @return 应急号段中的id、EXCEPTION_ID_DB_UNAVAILABLE，或者 ID_WOULD_BLOCK 表示继续等待
+     */
+    private long nextIdDegraded(SegmentBuffer segmentBuffer, CircuitBreaker breaker, long deadline) {
+        if (!breaker.isClosed()) {
+            triggerRefill(segmentBuffer);
+            final Segment reserve = segmentBuffer.getReserve();
+            if (reserve != null) {
+                final long value = reserve.getAndIncrement();
+                if (value < reserve.getMax()) {
+                    return value;
+                }
+            }
+            return EXCEPTION_ID_DB_UNAVAILABLE;
+        }
+        return isDeadlineExceeded(deadline) ? EXCEPTION_ID_DB_UNAVAILABLE : ID_WOULD_BLOCK;
+    }
+
+    /**
+     * 批量取号的降级处理，与nextIdDegraded相同。应急号段中剩余的id不足时已经申请到的id被丢弃
+     * @return 熔断器打开时返回batch的个数或者 FILL_FAILED；熔断器关闭时超过deadline返回 FILL_FAILED，否则返回已经填充的个数表示继续等待
+     */
+    private int fillBatchDegraded(SegmentBuffer segmentBuffer, CircuitBreaker breaker, IdBatch batch, long deadline) {
+        if (!breaker.isClosed()) {
+            triggerRefill(segmentBuffer);
+            final Segment reserve = segmentBuffer.getReserve();
+            if (reserve != null) {
+                final int remaining = batch.getRemaining();
+                final long start = reserve.getAndAdd(remaining);
+                final long max = reserve.getMax();
+                if (start < max) {
+                    batch.add(start, (int) Math.min(remaining, max - start));
+                }
+            }
+            return batch.isFull() ? batch.getFilled() : FILL_FAILED;
+        }
+        return isDeadlineExceeded(deadline) ? FILL_FAILED : batch.getFilled();
+    }
+
+    /**
+     * 熔断器打开期间取号线程不再等待，由它触发装载，熔断器到期之后装载任务作为探测访问db
+     * @param segmentBuffer
+     */
+    private void triggerRefill(SegmentBuffer segmentBuffer) {
+        if (segmentBuffer.isInitOk() && segmentBuffer.compareAndSetThreadRunning(false, true)) {
+            if (segmentBuffer.isLockFree()) {
+                loadNextSegmentLockFree(segmentBuffer);
+            } else {
+                loadNextSegment(segmentBuffer);
+            }
+        }
+    }
+
+    /**
+     * 填充函数失败时的返回值对应的异常码
+     * @param filled FILL_FAILED、FILL_CLOSED 或者 FILL_REMOVED
+     * @return
+     */
+    private static long fillFailureCode(int filled) {
+        return filled == FILL_CLOSED ? EXCEPTION_ID_IDCACHE_INIT_FALSE : filled == FILL_REMOVED ? EXCEPTION_ID_KEY_NOT_EXISTS : EXCEPTION_ID_DB_UNAVAILABLE;
+    }
+
+    private static boolean isDeadlineExceeded(long deadline) {
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * 源码中 waitAndSleep的实现，自旋10000次之后sleep 10ms，getIdFromSegmentBuffer_originalSource使用
+     * @param segmentBuffer
+     */
+    private void waitAndSleep_originalSource(SegmentBuffer segmentBuffer) {
+        int roll = 0;
+        while (segmentBuffer.isThreadRunning()) {
+            roll += 1;
+            /**
+             * 线程A五号不成功的时候 就会阻塞 等待下一个 Segment准备就绪， 问题 为什么线程A 不使用Object.wait（线程C、d可能也会同时阻塞在取号的地方），然后线程B准备下一个Segment就绪
+             * 之后直接调用Object.notifyAll方法同时唤醒所有阻塞等待的线程呢？  而是使用了下面的方法进行阻塞？
+             *
+             * 首先潘安 如果roll大于10000才会进行sleep，那么以为者当roll<10000的时候并不阻塞，而是忙循环，也就是自旋，从而避免了切换cpu。
+             *
+             * 第二个问题就是 下面的sleep 方法中对 InterruptedException异常处理是否恰当。
+             *
+             * 第三个问题： while中的条件是 判断 threadRunning 而不是判断 SegmentBuffer的nextReady属性 这是为什么？ 考虑线程B 如果准备nextSegment失败了，
+             * 也就是线程B 没有将 SegmentBuffer的nextReady属性设置为true，然后就退出了。 那么这个时候就没有任何线程在准备 nextSegment了。此时线程A要 提交另一个 准备nextSegment的任务
+             * 因此线程A 是否运行 取决于 threadRunning，也就是取决于是否有线程正在准备nextSegment， 如果没有（threadRunning=false）那么可能有两种情况（1）准备线程已经准备好了nextSegment
+             * （2）准备线程没有 正确设置nextSegment 导致退出了 这个时候需要线程A 及时开启另一个准备线程。
+             *
+             *
+             * 第四个问题：即便 threadRunning为true，也就是满足while条件，但是如果当前线程sleep了一段时间 然后又获的cpu，这个时候会break。 但是这个时候线程B 还未完成 nextSegment的设置工作。
+             *
+             *
+             */
+            if (roll > 10000) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(10);
+                    break;
+
+                } catch (InterruptedException e) {
+                    logger.warn("Thread{} interrupted", Thread.currentThread().getName());
+                    break;
+                }
+
+            }//end if
+        }
+    }
+
+    @Override
+    public boolean init() {
+        logger.info("init ...");
+        synchronized (this) {
+            if (service == null || service.isShutdown()) {
+                service = new RefillExecutor(refillThreads, refillVirtualThreads);
+            }
+        }
+        if (degradeConfig.isEnabled()) {
+            circuitBreaker = new CircuitBreaker(degradeConfig);
+        }
+        timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r, "Thread-segment-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        if (!lazyLoadConfig.isEnabled()) {
+            updateCacheFromDB();
+        }
+        if (journal != null) {
+            if (lazyLoadConfig.isEnabled()) {
+                /**
+                 * 按需装载时缓存为空，为日志中的业务tag创建SegmentBuffer，避免浪费恢复的号段
+                 */
+                Set<String> tags = new HashSet<>();
+                for (LeasedRange range : journal.getRecoveredRanges()) {
+                    tags.add(range.getKey());
+                }
+                addTags(tags);
+            }
+            restoreFromJournal(journal.getRecoveredRanges());
+        }
+        if (warmUpConfig.isEnabled()) {
+            Collection<String> tags = warmUpConfig.getTags() != null ? warmUpConfig.getTags() : cache.keySet();
+            warmUp(tags, warmUpConfig.getParallelism(), warmUpConfig.getTimeoutMillis());
+        }
+        initOk = true;
+        scheduleCacheUpdate();
+        return initOk;
+    }
+
+    /**
+     * 并行地从db装载业务tag的第一个Segment，最多等待timeoutMillis毫秒。
+     * 超时之后没有完成的业务tag在后台继续装载，可以通过isTagReady查询是否已经预热完成
+     * @param tags
+     * @param parallelism 同时装载的业务tag个数
+     * @param timeoutMillis
+     * @return 每个业务tag在返回时是否已经预热完成，不存在的业务tag为false
+     */
+    public Map<String, Boolean> warmUp(Collection<String> tags, int parallelism, long timeoutMillis) {
+        StopWatch sw = new Slf4JStopWatch();
+        final List<String> keys = new ArrayList<>(tags);
+        final CountDownLatch latch = new CountDownLatch(keys.size());
+        ExecutorService warmUpService = Executors.newFixedThreadPool(Math.max(1, parallelism), (r) -> {
+            Thread t = new Thread(r);
+            t.setName("warm-up-idCache-thread");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for (final String key : keys) {
+                warmUpService.execute(() -> {
+                    try {
+                        SegmentBuffer buffer = getOrLoadBuffer(key);
+                        if (buffer != null) {
+                            initBufferIfNecessary(key, buffer);
+                        }
+                    } catch (CompletionException e) {
+                        logger.warn("warm up lazy load tag {} exception", key, e.getCause());
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            if (!latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.warn("warm up timeout after {}ms, {} of {} tags not ready", timeoutMillis, latch.getCount(), keys.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("warm up interrupted", e);
+        } finally {
+            /**
+             * 不中断正在执行的装载任务，超时的业务tag在后台继续预热
+             */
+            warmUpService.shutdown();
+            sw.stop("warmUp");
+        }
+        Map<String, Boolean> readiness = new HashMap<>(keys.size() * 2);
+        for (String key : keys) {
+            readiness.put(key, isTagReady(key));
+        }
+        return readiness;
+    }
+
+    /**
+     * 业务tag的第一个Segment是否已经装载完成，负载均衡可以据此判断是否可以把流量路由到当前节点
+     * @param key
+     * @return
+     */
+    public boolean isTagReady(String key) {
+        SegmentBuffer buffer = cache.get(key);
+        return buffer != null && buffer.isInitOk();
+    }
+
+    /**
+     * 缓存中所有业务tag的预热状态
+     * @return
+     */
+    public Map<String, Boolean> getTagReadiness() {
+        Map<String, Boolean> readiness = new HashMap<>(cache.size() * 2);
+        for (Map.Entry<String, SegmentBuffer> entry : cache.entrySet()) {
+            readiness.put(entry.getKey(), entry.getValue().isInitOk());
+        }
+        return readiness;
+    }
+
+    /**
+     * 用上一个进程正常关闭时没有发放的号段初始化SegmentBuffer，不需要访问db。
+     * 第一个号段作为当前Segment，后面的号段在Segment环还有空位时作为已经准备好的Segment。
+     * updateTimestamp保持为0，下一次从db装载时使用数据库中配置的step
+     * @param ranges
+     */
+    private void restoreFromJournal(List<LeasedRange> ranges) {
+        Map<String, List<LeasedRange>> byKey = new HashMap<>();
+        for (LeasedRange range : ranges) {
+            byKey.computeIfAbsent(range.getKey(), k -> new ArrayList<>()).add(range);
+        }
+        int restored = 0;
+        for (Map.Entry<String, List<LeasedRange>> entry : byKey.entrySet()) {
+            SegmentBuffer buffer = cache.get(entry.getKey());
+            if (buffer == null) {
+                continue;
+            }
+            List<LeasedRange> tagRanges = entry.getValue();
+            tagRanges.sort((r1, r2) -> Long.compare(r1.getValue(), r2.getValue()));
+            synchronized (buffer) {
+                if (buffer.isInitOk()) {
+                    continue;
+                }
+                LeasedRange first = tagRanges.get(0);
+                buffer.setStep(first.getStep());
+                buffer.setMinStep(first.getMinStep());
+                if (buffer.isLockFree()) {
+                    Segment current = new Segment(buffer);
+                    fillSegment(current, first);
+                    buffer.setCurrent(current);
+                } else {
+                    fillSegment(buffer.getCurrent(), first);
+                }
+                for (int i = 1; i < tagRanges.size() && buffer.hasFreeSlot(); i++) {
+                    if (buffer.isLockFree()) {
+                        Segment next = new Segment(buffer);
+                        fillSegment(next, tagRanges.get(i));
+                        buffer.getReadySegments().offer(next);
+                    } else {
+                        fillSegment(buffer.getSegments()[buffer.loadPos()], tagRanges.get(i));
+                    }
+                    buffer.incrementReadyCount();
+                }
+                buffer.setInitOk(true);
+                restored++;
             }
         }
+        logger.info("restore {} tags from journal", restored);
     }
 
+    private static void fillSegment(Segment segment, LeasedRange range) {
+        segment.setValue(range.getValue());
+        segment.setMax(range.getMax());
+        segment.setStep(range.getStep());
+    }
 
-    private void waitAndSleep(SegmentBuffer segmentBuffer) {
-        int roll = 0;
-        while (segmentBuffer.getThreadRunning().get()) {
-            roll += 1;
-            /**
-             * 线程A五号不成功的时候 就会阻塞 等待下一个 Segment准备就绪， 问题 为什么线程A 不使用Object.wait（线程C、d可能也会同时阻塞在取号的地方），然后线程B准备下一个Segment就绪
-             * 之后直接调用Object.notifyAll方法同时唤醒所有阻塞等待的线程呢？  而是使用了下面的方法进行阻塞？
-             *
-             * 首先潘安 如果roll大于10000才会进行sleep，那么以为者当roll<10000的时候并不阻塞，而是忙循环，也就是自旋，从而避免了切换cpu。
-             *
-             * 第二个问题就是 下面的sleep 方法中对 InterruptedException异常处理是否恰当。
-             *
-             * 第三个问题： while中的条件是 判断 threadRunning 而不是判断 SegmentBuffer的nextReady属性 这是为什么？ 考虑线程B 如果准备nextSegment失败了，
-             * 也就是线程B 没有将 SegmentBuffer的nextReady属性设置为true，然后就退出了。 那么这个时候就没有任何线程在准备 nextSegment了。此时线程A要 提交另一个 准备nextSegment的任务
-             * 因此线程A 是否运行 取决于 threadRunning，也就是取决于是否有线程正在准备nextSegment， 如果没有（threadRunning=false）那么可能有两种情况（1）准备线程已经准备好了nextSegment
-             * （2）准备线程没有 正确设置nextSegment 导致退出了 这个时候需要线程A 及时开启另一个准备线程。
-             *
-             *
-             * 第四个问题：即便 threadRunning为true，也就是满足while条件，但是如果当前线程sleep了一段时间 然后又获的cpu，这个时候会break。 但是这个时候线程B 还未完成 nextSegment的设置工作。
-             *
-             *
-             */
-            if (roll > 10000) {
-                try {
-                    TimeUnit.MILLISECONDS.sleep(10);
-                    break;
-
-                } catch (InterruptedException e) {
-                    logger.warn("Thread{} interrupted", Thread.currentThread().getName());
-                    break;
-                }
+    /**
+     * 停止取号。开启了本地号段日志时，把所有Segment中没有发放的号段写入日志，下次启动时继续使用。
+     *
+     * 写入日志之前通过CAS把Segment的value推进到max，之后并发的取号请求只会看到耗尽的Segment，
+     * 因此写入日志的号段一定没有被发放过。关闭之后取号返回 EXCEPTION_ID_IDCACHE_INIT_FALSE
+     */
+    public synchronized void close() {
+        initOk = false;
+        if (cacheUpdateService != null) {
+            cacheUpdateService.shutdownNow();
+        }
+        disableRefillBatching();
+        if (service != null) {
+            service.shutdown();
+        }
+        /**
+         * 挂起的异步取号请求不会再等到装载，initOk已经为false，重新尝试时以 EXCEPTION_ID_IDCACHE_INIT_FALSE 完成
+         */
+        for (SegmentBuffer buffer : cache.values()) {
+            drainPendingRequests(buffer);
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        if (journal == null) {
+            return;
+        }
+        List<LeasedRange> ranges = new ArrayList<>();
+        for (SegmentBuffer buffer : cache.values()) {
+            if (!buffer.isInitOk()) {
+                continue;
+            }
+            fenceAll(buffer, ranges);
+        }
+        try {
+            journal.release(ranges);
+        } catch (IOException e) {
+            logger.warn("release segments to journal exception", e);
+        }
+    }
 
-            }//end if
+    /**
+     * 推进当前Segment、已经准备好的Segment以及应急号段
+     */
+    private static void fenceAll(SegmentBuffer buffer, List<LeasedRange> ranges) {
+        fence(buffer, buffer.getCurrent(), ranges);
+        final Segment reserve = buffer.getReserve();
+        if (reserve != null) {
+            fence(buffer, reserve, ranges);
+        }
+        if (buffer.isLockFree()) {
+            for (Segment segment : buffer.getReadySegments()) {
+                fence(buffer, segment, ranges);
+            }
+        } else {
+            final Segment[] segments = buffer.getSegments();
+            final int currentPos = buffer.getCurrentPos();
+            for (int i = 1; i <= buffer.getReadyCount() && i < segments.length; i++) {
+                fence(buffer, segments[(currentPos + i) % segments.length], ranges);
+            }
         }
     }
 
-    @Override
-    public boolean init() {
-        logger.info("init ...");
-        updateCacheFromDB();
-        initOk = true;
-        updateCacheFromDBAtEveryMinute();
-        return initOk;
+    /**
+     * 把Segment的value推进到max，推进之前的 [value, max) 就是没有发放的号段
+     */
+    private static void fence(SegmentBuffer buffer, Segment segment, List<LeasedRange> ranges) {
+        final long max = segment.getMax();
+        long value;
+        do {
+            value = segment.getValue();
+            if (value >= max) {
+                return;
+            }
+        } while (!segment.compareAndSetValue(value, max));
+        ranges.add(new LeasedRange(buffer.getKey(), value, max, segment.getStep(), buffer.getMinStep()));
     }
 
-    private void updateCacheFromDBAtEveryMinute() {
+    private void scheduleCacheUpdate() {
         ScheduledExecutorService service= Executors.newSingleThreadScheduledExecutor((r)->{
             Thread t = new Thread(r);
             t.setName("check-idCache-thread");
             t.setDaemon(true);
             return t;
         });
+        cacheUpdateService = service;
+        if (lazyLoadConfig.isEnabled()) {
+            /**
+             * 按需装载时不同步业务tag，只移除空闲的业务tag
+             */
+            if (lazyLoadConfig.getIdleTtlMillis() > 0) {
+                final long interval = lazyLoadConfig.getEvictIntervalMillis();
+                service.scheduleWithFixedDelay(() -> {
+                    evictIdleTags();
+                }, interval, interval, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        final long interval = syncConfig.getIntervalMillis();
         service.scheduleWithFixedDelay(() -> {
-            updateCacheFromDB();
-        }, 60, 60, TimeUnit.SECONDS);
+            syncTagsFromDB();
+        }, interval, interval, TimeUnit.MILLISECONDS);
     }
 
-    private void updateCacheFromDB() {
-
-        logger.info("update cache from DB");
+    /**
+     * 定时同步业务tag，只在check-idCache-thread中执行
+     */
+    private void syncTagsFromDB() {
+        if (!syncConfig.isIncremental() || lastSyncMillis < 0 || ++syncRounds >= syncConfig.getFullSyncEvery()) {
+            syncRounds = 0;
+            updateCacheFromDB();
+            return;
+        }
         StopWatch sw = new Slf4JStopWatch();
         try {
-
-            List<String> allTags = idAllocDao.getAllTags();
-            if (allTags == null || allTags.isEmpty()) {
+            final long start = System.currentTimeMillis();
+            List<LeafAlloc> changed = idAllocDao.getLeafAllocsUpdatedSince(lastSyncMillis - syncConfig.getOverlapMillis());
+            if (changed == null) {
+                logger.info("idAllocDao does not support incremental sync, fall back to full sync");
+                updateCacheFromDB();
                 return;
             }
+            List<String> tags = new ArrayList<>(changed.size());
+            for (LeafAlloc leafAlloc : changed) {
+                tags.add(leafAlloc.getKey());
+            }
+            final int added = addTags(tags);
             /**
-             * 当前缓存中已经存在的 业务tag
-             */
-            List<String> cacheTags = new ArrayList<>(cache.keySet());
-            /**
-             * 数据库中所有的业务tag
-             */
-            Set<String> insertTagSet = new HashSet<>(allTags);
-            Set<String> removeTagsSet = new HashSet<>(cacheTags);
-            /**
-             * 对于存在于数据库中但是不存在与 当前缓存中的业务tag 创建Segment
+             * 增量读取看不到被删除的业务tag，个数不一致时全量同步
              */
-            for (int i = 0; i < cacheTags.size(); i++) {
-                String tmp = cacheTags.get(i);
-                if (insertTagSet.contains(tmp)) {
-                    insertTagSet.remove(tmp);
-                }
+            final int count = idAllocDao.countTags();
+            if (count >= 0 && count != cache.size()) {
+                logger.info("tag count in db {} differs from cache {}, full sync", count, cache.size());
+                updateCacheFromDB();
+                return;
             }
+            lastSyncMillis = start;
+            logger.info("incremental sync {} changed tags, {} added", changed.size(), added);
+        } catch (Exception e) {
+            logger.warn("incremental sync tags from db exception ,", e);
+        } finally {
+            sw.stop("syncTagsFromDB");
+        }
+    }
+
+    /**
+     * 全量同步业务tag
+     */
+    private void updateCacheFromDB() {
+
+        logger.info("update cache from DB");
+        StopWatch sw = new Slf4JStopWatch();
+        try {
+            final long start = System.currentTimeMillis();
             /**
-             * 为业务创建SegmentBuffer
+             * 在读取数据库之前记录当前缓存中已经存在的业务tag，只删除其中不存在于数据库的，
+             * 读取数据库之后通过onTagsChanged新增的业务tag不会被误删
              */
-            for (String tag : insertTagSet) {
-                SegmentBuffer segmentBuffer = new SegmentBuffer();
-                segmentBuffer.setKey(tag);
-                Segment currentSegement = segmentBuffer.getCurrent();
-                currentSegement.setValue(new AtomicLong(0));
-                currentSegement.setMax(0);
-                currentSegement.setStep(0);
-                cache.put(tag, segmentBuffer);
+            Set<String> cacheTags = new HashSet<>(cache.keySet());
+            List<String> allTags = idAllocDao.getAllTags();
+            if (allTags == null || allTags.isEmpty()) {
+                return;
             }
+            addTags(allTags);
 
             /**
              * 只存在于cache 不存在数据库中的业务tag 是失效的
              *
              */
-            for (int i = 0; i < allTags.size(); i++) {
-                String tmp = allTags.get(i);
-                if (removeTagsSet.contains(tmp)) {
-                    removeTagsSet.remove(tmp);
-                }
-            }
-            for (String tag : removeTagsSet) {
-                cache.remove(tag);
+            cacheTags.removeAll(new HashSet<>(allTags));
+            for (String tag : cacheTags) {
+                removeTag(tag);
             }
+            lastSyncMillis = start;
         } catch (Exception e) {
             logger.warn("update cache from db exception ,", e);
         } finally {
@@ -558,6 +2302,163 @@ public class SegmentIDGenImpl implements IDGen {
         }
     }
 
+    /**
+     * 为缓存中不存在的业务tag创建SegmentBuffer
+     * @param tags
+     * @return 新建的SegmentBuffer个数
+     */
+    private int addTags(Collection<String> tags) {
+        int added = 0;
+        for (String tag : tags) {
+            if (tag == null || cache.containsKey(tag)) {
+                continue;
+            }
+            if (cache.putIfAbsent(tag, newSegmentBuffer(tag)) == null) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * 从缓存中删除业务tag，通知绑定了这个SegmentBuffer的句柄重新查找
+     * @param tag
+     */
+    private void removeTag(String tag) {
+        SegmentBuffer buffer = cache.remove(tag);
+        if (buffer != null) {
+            buffer.setRemoved(true);
+        }
+    }
+
+    private SegmentBuffer newSegmentBuffer(String tag) {
+        TagConfig tagConfig = tagConfigs.get(tag);
+        SegmentBuffer segmentBuffer = new SegmentBuffer(lockFree, (tagConfig != null ? tagConfig : defaultTagConfig).getRingSize());
+        segmentBuffer.setKey(tag);
+        segmentBuffer.setConfig(tagConfig);
+        segmentBuffer.setMetrics(metrics.tagMetrics(tag));
+        Segment currentSegement = segmentBuffer.getCurrent();
+        currentSegement.setValue(0);
+        currentSegement.setMax(0);
+        currentSegement.setStep(0);
+        return segmentBuffer;
+    }
+
+    /**
+     * 按需装载模式下移除空闲的业务tag，只在check-idCache-thread中执行。
+     * 判断空闲不需要在取号时记录访问时间：当前Segment和value在idleTtlMillis内都没有变化就是空闲的
+     */
+    private void evictIdleTags() {
+        final long now = System.currentTimeMillis();
+        final long idleTtl = lazyLoadConfig.getIdleTtlMillis();
+        int evicted = 0;
+        try {
+            for (SegmentBuffer buffer : cache.values()) {
+                final Segment current = buffer.getCurrent();
+                final long value = current.getValue();
+                if (current != buffer.getIdleSegment() || value != buffer.getIdleValue()) {
+                    buffer.setIdleSegment(current);
+                    buffer.setIdleValue(value);
+                    buffer.setIdleSince(now);
+                    continue;
+                }
+                if (now - buffer.getIdleSince() >= idleTtl && (buffer.getPendingRequestsIfPresent() == null || buffer.getPendingRequestsIfPresent().isEmpty()) && evict(buffer)) {
+                    evicted++;
+                }
+            }
+            for (Map.Entry<String, Long> entry : missingTags.entrySet()) {
+                if (entry.getValue() <= now) {
+                    missingTags.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("evict idle tags exception", e);
+        }
+        if (evicted > 0) {
+            logger.info("evict {} idle tags, {} tags cached", evicted, cache.size());
+        }
+    }
+
+    /**
+     * 从缓存中移除业务tag，把没有发放的号段推进到耗尽，再尝试归还给db。
+     * 占用threadRunning之后不会再有新的装载，并且不再释放；仍然持有这个SegmentBuffer的取号线程只会拿到耗尽的Segment，
+     * 看到removed之后重新查找业务tag。唤醒等待装载的取号线程并立即处理挂起的异步请求，它们不需要等到超时
+     * @param buffer
+     * @return 是否移除
+     */
+    private boolean evict(final SegmentBuffer buffer) {
+        if (!buffer.compareAndSetThreadRunning(false, true)) {
+            return false;
+        }
+        final boolean[] removed = new boolean[1];
+        cache.computeIfPresent(buffer.getKey(), (k, v) -> {
+            if (v != buffer) {
+                return v;
+            }
+            removed[0] = true;
+            return null;
+        });
+        if (!removed[0]) {
+            buffer.setThreadRunning(false);
+            return false;
+        }
+        buffer.setRemoved(true);
+        List<LeasedRange> ranges = new ArrayList<>();
+        synchronized (buffer) {
+            if (buffer.isInitOk()) {
+                fenceAll(buffer, ranges);
+            }
+        }
+        buffer.signalRefillDone();
+        drainPendingRequests(buffer);
+        rollbackMaxId(buffer.getKey(), ranges);
+        return true;
+    }
+
+    /**
+     * 把没有发放的号段归还给db。只有最后申请的号段可以归还，并且db中的max_id仍然是这个号段的max时才会归还，
+     * 与它首尾相接的其他号段一起归还
+     */
+    private void rollbackMaxId(String key, List<LeasedRange> ranges) {
+        if (ranges.isEmpty()) {
+            return;
+        }
+        ranges.sort((r1, r2) -> Long.compare(r2.getMax(), r1.getMax()));
+        final long maxId = ranges.get(0).getMax();
+        long newMaxId = ranges.get(0).getValue();
+        for (int i = 1; i < ranges.size() && ranges.get(i).getMax() == newMaxId; i++) {
+            newMaxId = ranges.get(i).getValue();
+        }
+        try {
+            if (idAllocDao.rollbackMaxId(key, maxId, newMaxId)) {
+                logger.info("return range [{}, {}) of tag {} to db", newMaxId, maxId, key);
+            }
+        } catch (Exception e) {
+            logger.warn("return range [{}, {}) of tag {} to db exception", newMaxId, maxId, key, e);
+        }
+    }
+
+    /**
+     * 通知业务tag发生了变化，立即生效，不需要等待下一次同步。
+     * 由配置中心、消息队列或者管理接口在修改leaf_alloc之后调用；通知丢失时由定时同步兜底
+     * @param added 新增的业务tag，调用之前需要已经插入leaf_alloc
+     * @param removed 删除的业务tag
+     */
+    public void onTagsChanged(Collection<String> added, Collection<String> removed) {
+        if (added != null) {
+            for (String tag : added) {
+                missingTags.remove(tag);
+            }
+            addTags(added);
+        }
+        if (removed != null) {
+            for (String tag : removed) {
+                removeTag(tag);
+            }
+        }
+        logger.info("tags changed, added {}, removed {}", added, removed);
+    }
+
 
     public List<LeafAlloc> getAllLeafAllocs(){
         return idAllocDao.getAllLeafAllocs();
@@ -570,4 +2471,218 @@ public class SegmentIDGenImpl implements IDGen {
         return idAllocDao;
     }
 
+    public void setIdAllocDao(IDAllocDao idAllocDao) {
+        this.idAllocDao = idAllocDao;
+    }
+
+    private TagConfig tagConfig(SegmentBuffer segmentBuffer) {
+        TagConfig config = segmentBuffer.getConfig();
+        return config != null ? config : defaultTagConfig;
+    }
+
+    public TagConfig getDefaultTagConfig() {
+        return defaultTagConfig;
+    }
+
+    public void setDefaultTagConfig(TagConfig defaultTagConfig) {
+        this.defaultTagConfig = defaultTagConfig;
+    }
+
+    /**
+     * 设置业务tag单独的配置，已经存在的SegmentBuffer立即生效
+     * @param key
+     * @param config
+     */
+    public void setTagConfig(String key, TagConfig config) {
+        tagConfigs.put(key, config);
+        SegmentBuffer buffer = cache.get(key);
+        if (buffer != null) {
+            buffer.setConfig(config);
+        }
+    }
+
+    public SegmentRingPolicy getRingPolicy() {
+        return ringPolicy;
+    }
+
+    public void setRingPolicy(SegmentRingPolicy ringPolicy) {
+        this.ringPolicy = ringPolicy;
+    }
+
+    /**
+     * @return 准备Segment的线程池，还没有创建时为null
+     */
+    public RefillExecutor getRefillExecutor() {
+        return service;
+    }
+
+    /**
+     * 重新配置准备Segment的线程池。线程池还没有创建时只记录配置，init时按照该配置创建；
+     * 配置没有变化时继续使用原来的线程池，否则创建新的线程池，还在排队的任务连同去重key和紧急程度转移过去
+     * @param threads 工作线程数，应当与db连接池的大小匹配
+     * @param virtualThreads 是否使用虚拟线程，需要JDK 21及以上
+     */
+    public synchronized void configureRefillExecutor(int threads, boolean virtualThreads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        final boolean changed = threads != refillThreads || virtualThreads != refillVirtualThreads;
+        refillThreads = threads;
+        refillVirtualThreads = virtualThreads;
+        final RefillExecutor old = service;
+        if (!changed || old == null || old.isShutdown()) {
+            return;
+        }
+        RefillExecutor executor = new RefillExecutor(threads, virtualThreads);
+        service = executor;
+        old.transferTo(executor);
+    }
+
+    /**
+     * 准备Segment的线程池，init之前添加的业务tag第一次装载时才创建
+     * @return
+     */
+    private RefillExecutor refillExecutor() {
+        RefillExecutor executor = service;
+        if (executor == null) {
+            synchronized (this) {
+                if (service == null) {
+                    service = new RefillExecutor(refillThreads, refillVirtualThreads);
+                }
+                executor = service;
+            }
+        }
+        return executor;
+    }
+
+    public StepPolicy getStepPolicy() {
+        return stepPolicy;
+    }
+
+    public void setStepPolicy(StepPolicy stepPolicy) {
+        this.stepPolicy = stepPolicy;
+    }
+
+    public SegmentRefillScheduler getRefillScheduler() {
+        return refillScheduler;
+    }
+
+    /**
+     * 开启db装载请求合并，需要在setIdAllocDao之后调用。
+     * 开启之后db的并发由concurrency限制，准备Segment的线程只是等待合并的结果，
+     * 可以通过configureRefillExecutor调大线程数或者使用虚拟线程，让更多的请求参与合并
+     * @param windowMillis 合并窗口，0表示只合并积压的请求
+     * @param maxBatchSize 一批最多包含的tag个数
+     * @param concurrency 同时进行的批量装载个数
+     */
+    public synchronized void enableRefillBatching(long windowMillis, int maxBatchSize, int concurrency) {
+        disableRefillBatching();
+        refillScheduler = new SegmentRefillScheduler(idAllocDao, windowMillis, maxBatchSize, concurrency);
+    }
+
+    public synchronized void disableRefillBatching() {
+        SegmentRefillScheduler scheduler = refillScheduler;
+        refillScheduler = null;
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    public LazyLoadConfig getLazyLoadConfig() {
+        return lazyLoadConfig;
+    }
+
+    public void setLazyLoadConfig(LazyLoadConfig lazyLoadConfig) {
+        this.lazyLoadConfig = lazyLoadConfig;
+    }
+
+    public DegradeConfig getDegradeConfig() {
+        return degradeConfig;
+    }
+
+    public void setDegradeConfig(DegradeConfig degradeConfig) {
+        this.degradeConfig = degradeConfig;
+    }
+
+    /**
+     * @return 没有开启降级时返回null
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public TagSyncConfig getSyncConfig() {
+        return syncConfig;
+    }
+
+    public void setSyncConfig(TagSyncConfig syncConfig) {
+        this.syncConfig = syncConfig;
+    }
+
+    public WarmUpConfig getWarmUpConfig() {
+        return warmUpConfig;
+    }
+
+    public void setWarmUpConfig(WarmUpConfig warmUpConfig) {
+        this.warmUpConfig = warmUpConfig;
+    }
+
+    public SegmentMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 设置监控实现，已经存在的SegmentBuffer立即切换到新的实现
+     * @param metrics
+     */
+    public void setMetrics(SegmentMetrics metrics) {
+        this.metrics = metrics;
+        for (Map.Entry<String, SegmentBuffer> entry : cache.entrySet()) {
+            entry.getValue().setMetrics(metrics.tagMetrics(entry.getKey()));
+        }
+    }
+
+    /**
+     * 所有业务tag的监控指标快照
+     * @return
+     */
+    public List<TagMetricsSnapshot> getMetricsSnapshot() {
+        List<TagMetricsSnapshot> snapshots = new ArrayList<>(cache.size());
+        for (SegmentBuffer buffer : cache.values()) {
+            TagMetricsSnapshot snapshot = new TagMetricsSnapshot();
+            snapshot.setKey(buffer.getKey());
+            if (buffer.isInitOk()) {
+                Segment current = buffer.getCurrent();
+                snapshot.setIdle(Math.max(0, current.getIdle()));
+            }
+            snapshot.setNextReady(buffer.isNextReady());
+            snapshot.setReadyCount(buffer.getReadyCount());
+            snapshot.setStep(buffer.getStep());
+            snapshot.setSmoothedIdsPerSecond(buffer.getSmoothedConsumeRate() * 1000);
+            buffer.getMetrics().fill(snapshot);
+            snapshots.add(snapshot);
+        }
+        return snapshots;
+    }
+
+    public SegmentJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * 设置本地号段日志，需要在init之前调用
+     * @param journal
+     */
+    public void setJournal(SegmentJournal journal) {
+        this.journal = journal;
+    }
+
+    public boolean isLockFree() {
+        return lockFree;
+    }
+
+    public void setLockFree(boolean lockFree) {
+        this.lockFree = lockFree;
+    }
+
 }
@@ -0,0 +1,191 @@
+package com.sachin.idgen.leaf.core.segment;
+
+import com.sachin.idgen.leaf.core.segment.dao.IDAllocDao;
+import com.sachin.idgen.leaf.core.segment.model.LeafAlloc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 合并多个业务tag的db装载请求，通过IDAllocDao的批量方法在一次数据库往返中完成。
+ *
+ * 调用方提交装载请求之后阻塞等待结果；dispatcher线程取到第一个请求之后最多再等待windowMillis，
+ * 把这段时间内到达的其他tag的请求合并成一批。windowMillis为0时不额外等待，只合并dispatcher忙碌期间积压的请求，
+ * 因此低负载时不增加延迟，启动预热或者高峰期大量tag同时装载时自动合并。
+ *
+ * 同一个tag在同一批中只会出现一次，重复的请求留到下一批
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class SegmentRefillScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentRefillScheduler.class);
+
+    private static final AtomicInteger threadInitNumber = new AtomicInteger(0);
+
+    private final IDAllocDao idAllocDao;
+    private final BlockingQueue<RefillRequest> queue = new LinkedBlockingQueue<>();
+    /**
+     * 等待合并的最长时间，单位毫秒
+     */
+    private final long windowMillis;
+    /**
+     * 一批最多包含的tag个数，避免生成过长的sql
+     */
+    private final int maxBatchSize;
+    private final Thread[] dispatchers;
+    private volatile boolean running = true;
+
+    private static class RefillRequest {
+        private final LeafAlloc leafAlloc;
+        private final CompletableFuture<LeafAlloc> future = new CompletableFuture<>();
+
+        private RefillRequest(LeafAlloc leafAlloc) {
+            this.leafAlloc = leafAlloc;
+        }
+    }
+
+    /**
+     * @param idAllocDao
+     * @param windowMillis 合并窗口
+     * @param maxBatchSize 一批最多包含的tag个数
+     * @param concurrency dispatcher线程数，也就是同时进行的批量装载个数
+     */
+    public SegmentRefillScheduler(IDAllocDao idAllocDao, long windowMillis, int maxBatchSize, int concurrency) {
+        if (maxBatchSize < 1 || concurrency < 1) {
+            throw new IllegalArgumentException("maxBatchSize and concurrency must be positive");
+        }
+        this.idAllocDao = idAllocDao;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.dispatchers = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch();
+                }
+            }, "Thread-Segment-Refill-" + threadInitNumber.incrementAndGet());
+            t.setDaemon(true);
+            dispatchers[i] = t;
+            t.start();
+        }
+    }
+
+    /**
+     * 提交一个装载请求并等待结果
+     * @param leafAlloc step大于0时按照该step更新max_id，否则按照数据库中配置的step更新
+     * @return 更新之后的记录，leaf_alloc中没有这个tag时返回null，与IDAllocDao的单个更新方法一致
+     */
+    public LeafAlloc refill(LeafAlloc leafAlloc) {
+        if (!running) {
+            throw new IllegalStateException("SegmentRefillScheduler is shutdown");
+        }
+        RefillRequest request = new RefillRequest(leafAlloc);
+        queue.offer(request);
+        if (!running) {
+            /**
+             * 与shutdown并发时dispatcher可能已经退出，清理一次队列防止调用方一直等待
+             */
+            failPendingRequests();
+        }
+        try {
+            return request.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting refill of " + leafAlloc.getKey(), e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("refill " + leafAlloc.getKey() + " failed", e.getCause());
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        for (Thread t : dispatchers) {
+            t.interrupt();
+        }
+        failPendingRequests();
+    }
+
+    private void failPendingRequests() {
+        RefillRequest request;
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(new IllegalStateException("SegmentRefillScheduler is shutdown"));
+        }
+    }
+
+    private void dispatch() {
+        while (running) {
+            final Map<String, RefillRequest> batch = new HashMap<>();
+            final List<RefillRequest> deferred = new ArrayList<>();
+            try {
+                RefillRequest first = queue.take();
+                batch.put(first.leafAlloc.getKey(), first);
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    RefillRequest next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (batch.containsKey(next.leafAlloc.getKey())) {
+                        deferred.add(next);
+                    } else {
+                        batch.put(next.leafAlloc.getKey(), next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    for (RefillRequest request : batch.values()) {
+                        request.future.completeExceptionally(new IllegalStateException("SegmentRefillScheduler is shutdown"));
+                    }
+                    return;
+                }
+            } finally {
+                queue.addAll(deferred);
+            }
+            if (!batch.isEmpty()) {
+                execute(batch);
+            }
+        }
+    }
+
+    private void execute(Map<String, RefillRequest> batch) {
+        List<LeafAlloc> leafAllocs = new ArrayList<>(batch.size());
+        for (RefillRequest request : batch.values()) {
+            leafAllocs.add(request.leafAlloc);
+        }
+        try {
+            List<LeafAlloc> result = idAllocDao.updateMaxIdAndGetLeafAllocs(leafAllocs);
+            for (LeafAlloc leafAlloc : result) {
+                RefillRequest request = batch.remove(leafAlloc.getKey());
+                if (request != null) {
+                    request.future.complete(leafAlloc);
+                }
+            }
+            /**
+             * 没有返回的tag在leaf_alloc中不存在，以null完成，由调用方按照业务tag不存在处理，不能当作db故障
+             */
+            for (RefillRequest request : batch.values()) {
+                request.future.complete(null);
+            }
+            logger.debug("refill {} tags in one batch", leafAllocs.size());
+        } catch (Exception e) {
+            logger.warn("batch refill of {} tags exception", leafAllocs.size(), e);
+            for (RefillRequest request : batch.values()) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+}
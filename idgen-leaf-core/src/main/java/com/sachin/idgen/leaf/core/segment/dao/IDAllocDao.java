@@ -2,6 +2,7 @@ package com.sachin.idgen.leaf.core.segment.dao;
 
 import com.sachin.idgen.leaf.core.segment.model.LeafAlloc;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -18,5 +19,50 @@ public interface IDAllocDao {
 
     List<String> getAllTags();
 
+    /**
+     * 批量更新多个业务tag的max_id并读取更新之后的记录，实现类应当在一次事务/一次数据库往返中完成。
+     * leafAlloc的step大于0时按照该step更新，否则按照数据库中配置的step更新。
+     * 默认实现逐个调用单个tag的方法，只用于兼容没有实现批量操作的IDAllocDao
+     * @param leafAllocs
+     * @return 更新之后的记录，不保证与参数的顺序一致，不存在的tag不会出现在结果中
+     */
+    default List<LeafAlloc> updateMaxIdAndGetLeafAllocs(List<LeafAlloc> leafAllocs) {
+        List<LeafAlloc> result = new ArrayList<>(leafAllocs.size());
+        for (LeafAlloc leafAlloc : leafAllocs) {
+            LeafAlloc updated = leafAlloc.getStep() > 0 ? updateMaxIdByCustomStepAndGetLeafAlloc(leafAlloc) : updateMaxIdAndGetLeafAlloc(leafAlloc.getKey());
+            if (updated != null) {
+                result.add(updated);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 读取update_time不早于sinceMillis的记录，用于增量同步业务tag，只需要key和updateTime
+     * @param sinceMillis
+     * @return 不支持增量读取时返回null
+     */
+    default List<LeafAlloc> getLeafAllocsUpdatedSince(long sinceMillis) {
+        return null;
+    }
+
+    /**
+     * 业务tag的个数，增量同步通过它发现被删除的业务tag
+     * @return 不支持时返回-1
+     */
+    default int countTags() {
+        return -1;
+    }
+
+    /**
+     * 归还没有发放的号段：只有max_id仍然等于expectedMaxId，也就是之后没有其他节点申请过号段时，才把max_id改为newMaxId
+     * @param tag
+     * @param expectedMaxId
+     * @param newMaxId
+     * @return 是否归还成功，不支持时返回false
+     */
+    default boolean rollbackMaxId(String tag, long expectedMaxId, long newMaxId) {
+        return false;
+    }
 
 }
@@ -1,8 +1,10 @@
 package com.sachin.idgen.leaf.core.segment.dao;
 
 import com.sachin.idgen.leaf.core.segment.model.LeafAlloc;
+import com.sachin.idgen.leaf.core.segment.model.LeafAllocUpdate;
 import org.apache.ibatis.annotations.*;
 
+import java.sql.Timestamp;
 import java.util.List;
 
 /**
@@ -14,7 +16,7 @@ public interface IDAllocMapper {
 
     @Select("select big_tag ,max_id ,step, update_time from leaf_alloc")
     @Results(value = {
-            @Result(column = "biz_tag", property = "key"),
+            @Result(column = "big_tag", property = "key"),
             @Result(column = "max_id", property = "maxId"),
             @Result(column = "step", property = "step"),
             @Result(column = "update_time", property = "updateTime")
@@ -39,6 +41,56 @@ public interface IDAllocMapper {
     @Select("select big_tag from leaf_alloc")
     List<String> getAllTags();
 
+    @Select({"<script>",
+            "select big_tag, max_id, step from leaf_alloc where big_tag in",
+            "<foreach item='tag' collection='list' open='(' separator=',' close=')'>#{tag}</foreach>",
+            "</script>"})
+    @Results(value = {
+            @Result(column = "big_tag", property = "key"),
+            @Result(column = "max_id", property = "maxId"),
+            @Result(column = "step", property = "step")
+    })
+    List<LeafAlloc> getLeafAllocs(List<String> tags);
+
+    @Select("select big_tag, update_time from leaf_alloc where update_time >= #{since}")
+    @Results(value = {
+            @Result(column = "big_tag", property = "key"),
+            @Result(column = "update_time", property = "updateTime")
+    })
+    List<LeafAlloc> getLeafAllocsUpdatedSince(@Param("since") Timestamp since);
+
+    @Select("select count(*) from leaf_alloc")
+    int countTags();
+
+    @Update("update leaf_alloc set max_id = #{newMaxId} where big_tag = #{key} and max_id = #{expectedMaxId}")
+    int rollbackMaxId(@Param("key") String key, @Param("expectedMaxId") long expectedMaxId, @Param("newMaxId") long newMaxId);
+
+    /**
+     * MySQL单语句装载：LAST_INSERT_ID(expr)把更新之后的max_id放入OK包，通过getGeneratedKeys读取，不需要再select。
+     * 只有数据库中的step与参数中的step相同时才会更新，step已经被修改时影响行数为0
+     */
+    @Update("update leaf_alloc set max_id = LAST_INSERT_ID(max_id + #{delta}) where big_tag = #{key} and step = #{step}")
+    @Options(useGeneratedKeys = true, keyProperty = "maxId")
+    int updateMaxIdLastInsertId(LeafAllocUpdate update);
+
+    @Select("update leaf_alloc set max_id = max_id + step where big_tag = #{tag} returning big_tag, max_id, step")
+    @Options(flushCache = true, useCache = false)
+    @Results(value = {
+            @Result(column = "big_tag", property = "key"),
+            @Result(column = "max_id", property = "maxId"),
+            @Result(column = "step", property = "step")
+    })
+    LeafAlloc updateMaxIdReturning(@Param("tag") String tag);
+
+    @Select("update leaf_alloc set max_id = max_id + #{step} where big_tag = #{key} returning big_tag, max_id, step")
+    @Options(flushCache = true, useCache = false)
+    @Results(value = {
+            @Result(column = "big_tag", property = "key"),
+            @Result(column = "max_id", property = "maxId"),
+            @Result(column = "step", property = "step")
+    })
+    LeafAlloc updateMaxIdByCustomStepReturning(LeafAlloc leafAlloc);
+
 
 
 }
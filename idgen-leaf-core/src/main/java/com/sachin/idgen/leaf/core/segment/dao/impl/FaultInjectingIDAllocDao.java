@@ -0,0 +1,137 @@
+package com.sachin.idgen.leaf.core.segment.dao.impl;
+
+import com.sachin.idgen.leaf.core.segment.dao.IDAllocDao;
+import com.sachin.idgen.leaf.core.segment.model.LeafAlloc;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 为IDAllocDao注入耗时和失败，用于压测以及SegmentIDGenImpl装载流程的故障测试。
+ *
+ * 每次访问被包装的IDAllocDao之前等待 latencyMicros 加上 [0, jitterMicros) 之间的随机耗时，
+ * 然后按照 failureRate 的概率抛出异常，抛出异常时不会访问被包装的IDAllocDao。
+ * 所有参数都可以在运行时修改
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class FaultInjectingIDAllocDao implements IDAllocDao {
+
+    private final IDAllocDao delegate;
+
+    private volatile long latencyMicros;
+    private volatile long jitterMicros;
+    /**
+     * 失败的概率，取值范围 [0, 1]
+     */
+    private volatile double failureRate;
+
+    public FaultInjectingIDAllocDao(IDAllocDao delegate) {
+        this(delegate, 0, 0);
+    }
+
+    public FaultInjectingIDAllocDao(IDAllocDao delegate, long latencyMicros, double failureRate) {
+        this.delegate = delegate;
+        this.latencyMicros = latencyMicros;
+        setFailureRate(failureRate);
+    }
+
+    @Override
+    public List<LeafAlloc> getAllLeafAllocs() {
+        inject("getAllLeafAllocs");
+        return delegate.getAllLeafAllocs();
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdAndGetLeafAlloc(String tag) {
+        inject("updateMaxIdAndGetLeafAlloc " + tag);
+        return delegate.updateMaxIdAndGetLeafAlloc(tag);
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+        inject("updateMaxIdByCustomStepAndGetLeafAlloc " + leafAlloc.getKey());
+        return delegate.updateMaxIdByCustomStepAndGetLeafAlloc(leafAlloc);
+    }
+
+    @Override
+    public List<String> getAllTags() {
+        inject("getAllTags");
+        return delegate.getAllTags();
+    }
+
+    /**
+     * 批量更新只注入一次，与一次db往返对应
+     */
+    @Override
+    public List<LeafAlloc> updateMaxIdAndGetLeafAllocs(List<LeafAlloc> leafAllocs) {
+        inject("updateMaxIdAndGetLeafAllocs " + leafAllocs.size() + " tags");
+        return delegate.updateMaxIdAndGetLeafAllocs(leafAllocs);
+    }
+
+    @Override
+    public List<LeafAlloc> getLeafAllocsUpdatedSince(long sinceMillis) {
+        inject("getLeafAllocsUpdatedSince");
+        return delegate.getLeafAllocsUpdatedSince(sinceMillis);
+    }
+
+    @Override
+    public int countTags() {
+        inject("countTags");
+        return delegate.countTags();
+    }
+
+    @Override
+    public boolean rollbackMaxId(String tag, long expectedMaxId, long newMaxId) {
+        inject("rollbackMaxId " + tag);
+        return delegate.rollbackMaxId(tag, expectedMaxId, newMaxId);
+    }
+
+    private void inject(String operation) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMicros;
+        if (jitterMicros > 0) {
+            delay += random.nextLong(jitterMicros);
+        }
+        if (delay > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(delay));
+        }
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            throw new IllegalStateException("injected failure: " + operation);
+        }
+    }
+
+    public IDAllocDao getDelegate() {
+        return delegate;
+    }
+
+    public long getLatencyMicros() {
+        return latencyMicros;
+    }
+
+    public void setLatencyMicros(long latencyMicros) {
+        this.latencyMicros = latencyMicros;
+    }
+
+    public long getJitterMicros() {
+        return jitterMicros;
+    }
+
+    public void setJitterMicros(long jitterMicros) {
+        this.jitterMicros = jitterMicros;
+    }
+
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    public void setFailureRate(double failureRate) {
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("failureRate must in [0, 1]");
+        }
+        this.failureRate = failureRate;
+    }
+}
@@ -3,33 +3,114 @@ package com.sachin.idgen.leaf.core.segment.dao.impl;
 import com.sachin.idgen.leaf.core.segment.dao.IDAllocDao;
 import com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper;
 import com.sachin.idgen.leaf.core.segment.model.LeafAlloc;
-import jdk.nashorn.internal.runtime.regexp.joni.Config;
+import com.sachin.idgen.leaf.core.segment.model.LeafAllocUpdate;
 import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
 import org.apache.ibatis.transaction.TransactionFactory;
 import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * 装载号段时根据数据库类型选择单语句更新，只需要一次数据库往返：
+ * MySQL使用 update ... set max_id = LAST_INSERT_ID(max_id + step)，新的max_id随OK包返回；
+ * PostgreSQL使用 update ... returning。
+ * 单语句更新在自动提交模式下执行，不需要再select和commit，leaf_alloc的行锁只在这一条语句执行期间持有。
+ *
+ * MySQL只能返回max_id，step来自之前读到的值，更新时带上 step = #{step} 条件，
+ * 数据库中的step被修改或者还没有读到step时使用原来的 update + select + commit 读取最新的step。
+ * 识别不出数据库类型时都使用原来的方式。
+ * 预编译语句的复用由连接池完成，例如druid的poolPreparedStatements或者MySQL驱动的cachePrepStmts
+ *
  * @Author Sachin
  * @Date 2022/3/27
  **/
 public class IDAllocDaoImpl implements IDAllocDao {
 
+    private static final Logger logger = LoggerFactory.getLogger(IDAllocDaoImpl.class);
+
+    /**
+     * 数据库类型，决定装载号段时使用的sql
+     */
+    public enum Dialect {
+        MYSQL,
+        POSTGRESQL,
+        /**
+         * update + select + commit
+         */
+        GENERIC;
+
+        public static Dialect of(String databaseProductName) {
+            if (databaseProductName == null) {
+                return GENERIC;
+            }
+            final String name = databaseProductName.toLowerCase(Locale.ROOT);
+            if (name.contains("mysql") || name.contains("mariadb")) {
+                return MYSQL;
+            }
+            if (name.contains("postgresql")) {
+                return POSTGRESQL;
+            }
+            return GENERIC;
+        }
+    }
+
     private SqlSessionFactory sqlSessionFactory;
 
+    private final Dialect dialect;
+
+    /**
+     * MySQL单语句更新使用的step，从数据库读取之后缓存
+     */
+    private final Map<String, Integer> steps = new ConcurrentHashMap<>();
+
 
     public IDAllocDaoImpl(DataSource dataSource) {
+        this(dataSource, detect(dataSource));
+    }
+
+    /**
+     * @param dataSource
+     * @param dialect 指定数据库类型，GENERIC表示不使用单语句更新
+     */
+    public IDAllocDaoImpl(DataSource dataSource, Dialect dialect) {
         TransactionFactory transactionFactory = new JdbcTransactionFactory();
         Environment environment = new Environment("development", transactionFactory, dataSource);
         Configuration configuration = new Configuration(environment);
         configuration.addMapper(IDAllocMapper.class);
         sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+        this.dialect = dialect;
+        logger.info("IDAllocDaoImpl use dialect {}", dialect);
+    }
+
+    private static Dialect detect(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            return Dialect.of(connection.getMetaData().getDatabaseProductName());
+        } catch (SQLException e) {
+            logger.warn("detect database dialect exception, use {}", Dialect.GENERIC, e);
+            return Dialect.GENERIC;
+        }
+    }
+
+    public Dialect getDialect() {
+        return dialect;
     }
 
 
@@ -46,12 +127,27 @@ public class IDAllocDaoImpl implements IDAllocDao {
 
     @Override
     public LeafAlloc updateMaxIdAndGetLeafAlloc(String tag) {
+        switch (dialect) {
+            case MYSQL:
+                Integer step = steps.get(tag);
+                if (step != null) {
+                    LeafAlloc result = updateMaxIdLastInsertId(tag, step, step);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+                break;
+            case POSTGRESQL:
+                return selectOneAutoCommit("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.updateMaxIdReturning", tag);
+            default:
+                break;
+        }
         SqlSession sqlSession = sqlSessionFactory.openSession(false);
         try {
             sqlSession.update("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.updateMaxId", tag);
             LeafAlloc result = sqlSession.selectOne("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.getLeafAlloc", tag);
             sqlSession.commit();
-
+            cacheStep(result);
             return result;
         }finally{
             sqlSession.close();
@@ -61,11 +157,27 @@ public class IDAllocDaoImpl implements IDAllocDao {
 
     @Override
     public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+        switch (dialect) {
+            case MYSQL:
+                Integer step = steps.get(leafAlloc.getKey());
+                if (step != null) {
+                    LeafAlloc result = updateMaxIdLastInsertId(leafAlloc.getKey(), leafAlloc.getStep(), step);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+                break;
+            case POSTGRESQL:
+                return selectOneAutoCommit("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.updateMaxIdByCustomStepReturning", leafAlloc);
+            default:
+                break;
+        }
         SqlSession sqlSession = sqlSessionFactory.openSession(false);
         try{
             sqlSession.update("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.updateMaxIdByCustomStep", leafAlloc);
             LeafAlloc result = sqlSession.selectOne("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.getLeafAlloc", leafAlloc.getKey());
             sqlSession.commit();
+            cacheStep(result);
             return result;
         }finally {
             sqlSession.close();
@@ -73,6 +185,49 @@ public class IDAllocDaoImpl implements IDAllocDao {
         }
     }
 
+    /**
+     * MySQL单语句更新
+     * @param tag
+     * @param delta max_id的增量
+     * @param step 缓存的数据库中的step
+     * @return 数据库中的step已经被修改或者tag不存在时返回null
+     */
+    private LeafAlloc updateMaxIdLastInsertId(String tag, long delta, int step) {
+        LeafAllocUpdate update = new LeafAllocUpdate();
+        update.setKey(tag);
+        update.setDelta(delta);
+        update.setStep(step);
+        SqlSession sqlSession = sqlSessionFactory.openSession(true);
+        try {
+            if (sqlSession.update("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.updateMaxIdLastInsertId", update) != 1 || update.getMaxId() <= 0) {
+                steps.remove(tag);
+                return null;
+            }
+        } finally {
+            sqlSession.close();
+        }
+        LeafAlloc result = new LeafAlloc();
+        result.setKey(tag);
+        result.setMaxId(update.getMaxId());
+        result.setStep(step);
+        return result;
+    }
+
+    private LeafAlloc selectOneAutoCommit(String statement, Object parameter) {
+        SqlSession sqlSession = sqlSessionFactory.openSession(true);
+        try {
+            return sqlSession.selectOne(statement, parameter);
+        } finally {
+            sqlSession.close();
+        }
+    }
+
+    private void cacheStep(LeafAlloc leafAlloc) {
+        if (dialect == Dialect.MYSQL && leafAlloc != null && leafAlloc.getKey() != null) {
+            steps.put(leafAlloc.getKey(), leafAlloc.getStep());
+        }
+    }
+
     @Override
     public List<String> getAllTags() {
         SqlSession sqlSession = sqlSessionFactory.openSession(false);
@@ -82,4 +237,79 @@ public class IDAllocDaoImpl implements IDAllocDao {
             sqlSession.close();
         }
     }
+
+    @Override
+    public List<LeafAlloc> getLeafAllocsUpdatedSince(long sinceMillis) {
+        SqlSession sqlSession = sqlSessionFactory.openSession(false);
+        try {
+            return sqlSession.selectList("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.getLeafAllocsUpdatedSince", new Timestamp(sinceMillis));
+        } finally {
+            sqlSession.close();
+        }
+    }
+
+    @Override
+    public int countTags() {
+        SqlSession sqlSession = sqlSessionFactory.openSession(false);
+        try {
+            Integer count = sqlSession.selectOne("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.countTags");
+            return count != null ? count : -1;
+        } finally {
+            sqlSession.close();
+        }
+    }
+
+    @Override
+    public boolean rollbackMaxId(String tag, long expectedMaxId, long newMaxId) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("key", tag);
+        params.put("expectedMaxId", expectedMaxId);
+        params.put("newMaxId", newMaxId);
+        SqlSession sqlSession = sqlSessionFactory.openSession(true);
+        try {
+            return sqlSession.update("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.rollbackMaxId", params) == 1;
+        } finally {
+            sqlSession.close();
+        }
+    }
+
+    @Override
+    public List<LeafAlloc> updateMaxIdAndGetLeafAllocs(List<LeafAlloc> leafAllocs) {
+        if (leafAllocs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        /**
+         * 按照tag排序之后再更新，保证并发的批量更新以相同的顺序对行加锁，避免死锁
+         */
+        List<LeafAlloc> sorted = new ArrayList<>(leafAllocs);
+        Collections.sort(sorted, new Comparator<LeafAlloc>() {
+            @Override
+            public int compare(LeafAlloc o1, LeafAlloc o2) {
+                return o1.getKey().compareTo(o2.getKey());
+            }
+        });
+        List<String> tags = new ArrayList<>(sorted.size());
+        /**
+         * BATCH执行器把所有的update通过一次JDBC batch发送，select之前会自动flush
+         */
+        SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH, false);
+        try {
+            for (LeafAlloc leafAlloc : sorted) {
+                if (leafAlloc.getStep() > 0) {
+                    sqlSession.update("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.updateMaxIdByCustomStep", leafAlloc);
+                } else {
+                    sqlSession.update("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.updateMaxId", leafAlloc.getKey());
+                }
+                tags.add(leafAlloc.getKey());
+            }
+            List<LeafAlloc> result = sqlSession.selectList("com.sachin.idgen.leaf.core.segment.dao.IDAllocMapper.getLeafAllocs", tags);
+            sqlSession.commit();
+            for (LeafAlloc leafAlloc : result) {
+                cacheStep(leafAlloc);
+            }
+            return result;
+        } finally {
+            sqlSession.close();
+        }
+    }
 }
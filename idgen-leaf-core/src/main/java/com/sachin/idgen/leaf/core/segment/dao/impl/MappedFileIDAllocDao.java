@@ -0,0 +1,287 @@
+package com.sachin.idgen.leaf.core.segment.dao.impl;
+
+import com.sachin.idgen.leaf.core.segment.dao.IDAllocDao;
+import com.sachin.idgen.leaf.core.segment.model.LeafAlloc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射文件的IDAllocDao，用于没有MySQL的边缘节点，以及需要持久化的集成测试。
+ *
+ * 文件由固定大小的文件头和固定大小的槽组成，每个业务tag占一个槽，相当于leaf_alloc表中的一行：
+ * key长度(4) + key(96) + max_id(8) + step(4) + update_time(8) + crc(4)，共128字节。
+ * 每次更新max_id之后立即刷盘，返回的max_id一定已经持久化，进程重启之后不会重复发放；
+ * 批量更新只刷盘一次。槽的crc校验失败时拒绝打开，避免使用损坏的max_id。
+ * 文件通过文件锁保证只被一个进程打开
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class MappedFileIDAllocDao implements IDAllocDao, Closeable {
+
+    private static final int MAGIC = 0x4C414C43;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 128;
+    private static final int MAX_KEY_LENGTH = 96;
+
+    private static final int OFFSET_KEY = 4;
+    private static final int OFFSET_MAX_ID = OFFSET_KEY + MAX_KEY_LENGTH;
+    private static final int OFFSET_STEP = OFFSET_MAX_ID + 8;
+    private static final int OFFSET_UPDATE_TIME = OFFSET_STEP + 4;
+    private static final int OFFSET_CRC = OFFSET_UPDATE_TIME + 8;
+
+    /**
+     * 默认最多的业务tag个数
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final RandomAccessFile file;
+    private final FileLock fileLock;
+    private final MappedByteBuffer mapped;
+    private final int capacity;
+    /**
+     * 业务tag到槽位置的索引
+     */
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    public MappedFileIDAllocDao(File path) throws IOException {
+        this(path, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param path 数据文件，不存在时创建
+     * @param capacity 最多的业务tag个数，只在创建文件时生效
+     * @throws IOException 文件已经被其他进程打开或者已经损坏
+     */
+    public MappedFileIDAllocDao(File path, int capacity) throws IOException {
+        final boolean exists = path.exists() && path.length() > 0;
+        this.file = new RandomAccessFile(path, "rw");
+        try {
+            this.fileLock = file.getChannel().tryLock();
+            if (fileLock == null) {
+                throw new IOException(path + " is locked by another process");
+            }
+            if (exists) {
+                if (file.length() < HEADER_SIZE || file.readInt() != MAGIC || file.readInt() != VERSION) {
+                    throw new IOException(path + " is not a leaf alloc file");
+                }
+                capacity = file.readInt();
+            } else {
+                file.setLength(HEADER_SIZE + (long) capacity * SLOT_SIZE);
+                file.writeInt(MAGIC);
+                file.writeInt(VERSION);
+                file.writeInt(capacity);
+                file.getChannel().force(true);
+            }
+            this.capacity = capacity;
+            this.mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+            for (int i = 0; i < capacity; i++) {
+                final int offset = slotOffset(i);
+                final int keyLength = mapped.getInt(offset);
+                if (keyLength == 0) {
+                    continue;
+                }
+                if (keyLength < 0 || keyLength > MAX_KEY_LENGTH || mapped.getInt(offset + OFFSET_CRC) != crc(offset)) {
+                    throw new IOException(path + " slot " + i + " is corrupted");
+                }
+                slots.put(readKey(offset, keyLength), i);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 插入一个业务tag，已经存在时覆盖
+     * @param tag
+     * @param maxId
+     * @param step
+     */
+    public synchronized void addTag(String tag, long maxId, int step) {
+        final byte[] key = tag.getBytes(StandardCharsets.UTF_8);
+        if (key.length == 0 || key.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("tag length must in [1, " + MAX_KEY_LENGTH + "] bytes");
+        }
+        Integer slot = slots.get(tag);
+        if (slot == null) {
+            slot = freeSlot();
+        }
+        final int offset = slotOffset(slot);
+        mapped.putInt(offset, key.length);
+        for (int i = 0; i < MAX_KEY_LENGTH; i++) {
+            mapped.put(offset + OFFSET_KEY + i, i < key.length ? key[i] : 0);
+        }
+        mapped.putInt(offset + OFFSET_STEP, step);
+        write(offset, maxId);
+        mapped.force();
+        slots.put(tag, slot);
+    }
+
+    /**
+     * 删除一个业务tag
+     * @param tag
+     */
+    public synchronized void removeTag(String tag) {
+        Integer slot = slots.remove(tag);
+        if (slot != null) {
+            mapped.putInt(slotOffset(slot), 0);
+            mapped.force();
+        }
+    }
+
+    @Override
+    public synchronized List<LeafAlloc> getAllLeafAllocs() {
+        List<LeafAlloc> result = new ArrayList<>(slots.size());
+        for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+            result.add(read(entry.getKey(), slotOffset(entry.getValue())));
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized LeafAlloc updateMaxIdAndGetLeafAlloc(String tag) {
+        LeafAlloc result = update(tag, 0);
+        mapped.force();
+        return result;
+    }
+
+    @Override
+    public synchronized LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+        LeafAlloc result = update(leafAlloc.getKey(), leafAlloc.getStep());
+        mapped.force();
+        return result;
+    }
+
+    @Override
+    public synchronized List<String> getAllTags() {
+        return new ArrayList<>(slots.keySet());
+    }
+
+    @Override
+    public synchronized List<LeafAlloc> getLeafAllocsUpdatedSince(long sinceMillis) {
+        List<LeafAlloc> result = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+            final int offset = slotOffset(entry.getValue());
+            if (mapped.getLong(offset + OFFSET_UPDATE_TIME) >= sinceMillis) {
+                result.add(read(entry.getKey(), offset));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int countTags() {
+        return slots.size();
+    }
+
+    @Override
+    public synchronized boolean rollbackMaxId(String tag, long expectedMaxId, long newMaxId) {
+        Integer slot = slots.get(tag);
+        if (slot == null) {
+            return false;
+        }
+        final int offset = slotOffset(slot);
+        if (mapped.getLong(offset + OFFSET_MAX_ID) != expectedMaxId) {
+            return false;
+        }
+        write(offset, newMaxId);
+        mapped.force();
+        return true;
+    }
+
+    @Override
+    public synchronized List<LeafAlloc> updateMaxIdAndGetLeafAllocs(List<LeafAlloc> leafAllocs) {
+        List<LeafAlloc> result = new ArrayList<>(leafAllocs.size());
+        for (LeafAlloc leafAlloc : leafAllocs) {
+            LeafAlloc updated = update(leafAlloc.getKey(), leafAlloc.getStep());
+            if (updated != null) {
+                result.add(updated);
+            }
+        }
+        mapped.force();
+        return result;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapped.force();
+        try {
+            fileLock.release();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @param step 大于0时按照该step更新，否则按照文件中配置的step更新
+     */
+    private LeafAlloc update(String tag, int step) {
+        Integer slot = slots.get(tag);
+        if (slot == null) {
+            return null;
+        }
+        final int offset = slotOffset(slot);
+        final long maxId = mapped.getLong(offset + OFFSET_MAX_ID) + (step > 0 ? step : mapped.getInt(offset + OFFSET_STEP));
+        write(offset, maxId);
+        return read(tag, offset);
+    }
+
+    private void write(int offset, long maxId) {
+        mapped.putLong(offset + OFFSET_MAX_ID, maxId);
+        mapped.putLong(offset + OFFSET_UPDATE_TIME, System.currentTimeMillis());
+        mapped.putInt(offset + OFFSET_CRC, crc(offset));
+    }
+
+    private LeafAlloc read(String tag, int offset) {
+        LeafAlloc leafAlloc = new LeafAlloc();
+        leafAlloc.setKey(tag);
+        leafAlloc.setMaxId(mapped.getLong(offset + OFFSET_MAX_ID));
+        leafAlloc.setStep(mapped.getInt(offset + OFFSET_STEP));
+        leafAlloc.setUpdateTime(new Timestamp(mapped.getLong(offset + OFFSET_UPDATE_TIME)).toString());
+        return leafAlloc;
+    }
+
+    private String readKey(int offset, int keyLength) {
+        byte[] key = new byte[keyLength];
+        for (int i = 0; i < keyLength; i++) {
+            key[i] = mapped.get(offset + OFFSET_KEY + i);
+        }
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private int freeSlot() {
+        for (int i = 0; i < capacity; i++) {
+            if (mapped.getInt(slotOffset(i)) == 0) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("leaf alloc file is full, capacity " + capacity);
+    }
+
+    private int crc(int offset) {
+        CRC32 crc32 = new CRC32();
+        for (int i = 0; i < OFFSET_CRC; i++) {
+            crc32.update(mapped.get(offset + i));
+        }
+        return (int) crc32.getValue();
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+}
@@ -0,0 +1,144 @@
+package com.sachin.idgen.leaf.core.segment.dao.impl;
+
+import com.sachin.idgen.leaf.core.segment.dao.IDAllocDao;
+import com.sachin.idgen.leaf.core.segment.model.LeafAlloc;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存版IDAllocDao，用于集成测试、压测以及不需要持久化的场景，进程重启之后max_id从头开始。
+ *
+ * 每个业务tag对应leaf_alloc表中的一行，max_id使用AtomicLong，更新时通过一次原子加完成，不需要加锁。
+ * 需要模拟db耗时或者失败时使用FaultInjectingIDAllocDao包装
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class MemoryIDAllocDao implements IDAllocDao {
+
+    private final Map<String, Row> rows = new ConcurrentHashMap<>();
+
+    private static class Row {
+        private final AtomicLong maxId;
+        private volatile int step;
+        private volatile long updateTime;
+
+        private Row(long maxId, int step) {
+            this.maxId = new AtomicLong(maxId);
+            this.step = step;
+            this.updateTime = System.currentTimeMillis();
+        }
+
+        private long addAndGet(long delta) {
+            final long result = maxId.addAndGet(delta);
+            updateTime = System.currentTimeMillis();
+            return result;
+        }
+    }
+
+    /**
+     * 插入一个业务tag，相当于在leaf_alloc表中插入一行，已经存在时覆盖
+     * @param tag
+     * @param maxId
+     * @param step
+     */
+    public void addTag(String tag, long maxId, int step) {
+        rows.put(tag, new Row(maxId, step));
+    }
+
+    /**
+     * 删除一个业务tag
+     * @param tag
+     */
+    public void removeTag(String tag) {
+        rows.remove(tag);
+    }
+
+    /**
+     * 修改业务tag在数据库中配置的step
+     * @param tag
+     * @param step
+     */
+    public void updateStep(String tag, int step) {
+        Row row = rows.get(tag);
+        if (row != null) {
+            row.step = step;
+            row.updateTime = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public List<LeafAlloc> getAllLeafAllocs() {
+        List<LeafAlloc> result = new ArrayList<>(rows.size());
+        for (Map.Entry<String, Row> entry : rows.entrySet()) {
+            Row row = entry.getValue();
+            result.add(leafAlloc(entry.getKey(), row.maxId.get(), row.step, row.updateTime));
+        }
+        return result;
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdAndGetLeafAlloc(String tag) {
+        Row row = rows.get(tag);
+        if (row == null) {
+            return null;
+        }
+        final int step = row.step;
+        return leafAlloc(tag, row.addAndGet(step), step, row.updateTime);
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+        Row row = rows.get(leafAlloc.getKey());
+        if (row == null) {
+            return null;
+        }
+        return leafAlloc(leafAlloc.getKey(), row.addAndGet(leafAlloc.getStep()), row.step, row.updateTime);
+    }
+
+    @Override
+    public List<String> getAllTags() {
+        return new ArrayList<>(rows.keySet());
+    }
+
+    @Override
+    public List<LeafAlloc> getLeafAllocsUpdatedSince(long sinceMillis) {
+        List<LeafAlloc> result = new ArrayList<>();
+        for (Map.Entry<String, Row> entry : rows.entrySet()) {
+            Row row = entry.getValue();
+            if (row.updateTime >= sinceMillis) {
+                result.add(leafAlloc(entry.getKey(), row.maxId.get(), row.step, row.updateTime));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int countTags() {
+        return rows.size();
+    }
+
+    @Override
+    public boolean rollbackMaxId(String tag, long expectedMaxId, long newMaxId) {
+        Row row = rows.get(tag);
+        if (row == null || !row.maxId.compareAndSet(expectedMaxId, newMaxId)) {
+            return false;
+        }
+        row.updateTime = System.currentTimeMillis();
+        return true;
+    }
+
+    private static LeafAlloc leafAlloc(String tag, long maxId, int step, long updateTime) {
+        LeafAlloc result = new LeafAlloc();
+        result.setKey(tag);
+        result.setMaxId(maxId);
+        result.setStep(step);
+        result.setUpdateTime(new Timestamp(updateTime).toString());
+        return result;
+    }
+}
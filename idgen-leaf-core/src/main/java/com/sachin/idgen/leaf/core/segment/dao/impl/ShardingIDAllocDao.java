@@ -0,0 +1,615 @@
+package com.sachin.idgen.leaf.core.segment.dao.impl;
+
+import com.sachin.idgen.leaf.core.segment.dao.IDAllocDao;
+import com.sachin.idgen.leaf.core.segment.model.LeafAlloc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * 把业务tag分布到多个库的IDAllocDao，每个库是一个分片，分片内部仍然是一张leaf_alloc表，
+ * 避免所有业务tag的号段更新都落在同一个主库上。
+ *
+ * 路由：业务tag优先按照覆盖表指定的分片，否则按照biz_tag在一致性哈希环上的位置选择分片。
+ * 哈希环上的虚拟节点由分片名计算，增加分片时只有少量业务tag需要迁移；迁移业务tag时先把leaf_alloc中的行
+ * 复制到新的分片，并且max_id不小于旧分片，再修改路由。
+ * 全量和增量读取在所有分片上并行执行，只返回路由到该分片的行，任意分片失败时整体失败，避免同步时误删业务tag。
+ *
+ * 故障转移：分片可以配置一个备库，主库连续failoverThreshold次连接级别的失败（连接不上、连接断开、网络异常）之后切换到备库并重试，
+ * 之后该分片的所有访问都使用备库，直到调用failback。sql错误等主库仍然可以响应的失败直接抛出，不计入也不切换。
+ * 切换之前检查备库：每个业务tag的max_id不能小于从主库读到的最大值，落后的业务tag通过CAS把备库的max_id提升到该值，
+ * 无法提升时不切换，避免备库复制落后导致重复发号。访问主库持有分片的读锁，切换持有写锁：正在进行的主库访问结束之后才检查备库，
+ * 检查期间新的访问等待切换完成，因此检查之后主库不会再返回更大的max_id；failoverDrainMillis之内没有结束的主库访问可能仍会提交，这个时候不切换。
+ * 这只能覆盖本节点从主库读到过的max_id，备库仍然应当与主库同步复制。
+ * 切换之后备库上的max_id比主库新，因此不会自动切回
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class ShardingIDAllocDao implements IDAllocDao, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardingIDAllocDao.class);
+
+    /**
+     * 每个分片在哈希环上的默认虚拟节点个数
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    /**
+     * 默认连续多少次连接级别的失败之后切换到备库
+     */
+    public static final int DEFAULT_FAILOVER_THRESHOLD = 3;
+
+    /**
+     * 切换时默认最多等待多少毫秒，让正在进行的主库访问结束
+     */
+    public static final long DEFAULT_FAILOVER_DRAIN_MILLIS = 5000;
+
+    /**
+     * 一个分片，主库和备库都是访问同一份leaf_alloc数据的IDAllocDao
+     */
+    public static class Shard {
+        private final String name;
+        private final IDAllocDao primary;
+        private final IDAllocDao standby;
+        private volatile boolean failedOver = false;
+        /**
+         * 主库连续连接失败的次数，主库任意一次响应之后清零
+         */
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        /**
+         * 从主库读到的每个业务tag的最大max_id，切换到备库之前用于检查备库是否落后
+         */
+        private final Map<String, Long> primaryMaxIds = new ConcurrentHashMap<>();
+        /**
+         * 访问主库持有读锁，切换主备持有写锁
+         */
+        private final ReentrantReadWriteLock failoverLock = new ReentrantReadWriteLock();
+        /**
+         * 最近一次全量读取时分片上没有路由到该分片的行数，也就是迁移业务tag之后残留的行
+         */
+        private volatile int foreignRows = 0;
+
+        public Shard(String name, IDAllocDao primary) {
+            this(name, primary, null);
+        }
+
+        /**
+         * @param name 分片名，用于计算哈希环上的位置，修改分片名会改变路由
+         * @param primary
+         * @param standby 备库，为null时不做故障转移
+         */
+        public Shard(String name, IDAllocDao primary, IDAllocDao standby) {
+            this.name = name;
+            this.primary = primary;
+            this.standby = standby;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public IDAllocDao getPrimary() {
+            return primary;
+        }
+
+        public IDAllocDao getStandby() {
+            return standby;
+        }
+
+        public boolean isFailedOver() {
+            return failedOver;
+        }
+
+        private void observe(Object result) {
+            if (result instanceof LeafAlloc) {
+                observe((LeafAlloc) result);
+            } else if (result instanceof List) {
+                for (Object element : (List<?>) result) {
+                    if (element instanceof LeafAlloc) {
+                        observe((LeafAlloc) element);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 增量读取的结果中没有max_id，忽略
+         */
+        private void observe(LeafAlloc leafAlloc) {
+            if (leafAlloc.getMaxId() > 0) {
+                primaryMaxIds.merge(leafAlloc.getKey(), leafAlloc.getMaxId(), Math::max);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + (failedOver ? "(standby)" : "");
+        }
+    }
+
+    private final Map<String, Shard> shards = new LinkedHashMap<>();
+    private final TreeMap<Long, Shard> ring = new TreeMap<>();
+    /**
+     * 覆盖表：业务tag到分片名
+     */
+    private final Map<String, String> overrides = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private volatile int failoverThreshold = DEFAULT_FAILOVER_THRESHOLD;
+    private volatile long failoverDrainMillis = DEFAULT_FAILOVER_DRAIN_MILLIS;
+
+    public ShardingIDAllocDao(List<Shard> shards) {
+        this(shards, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ShardingIDAllocDao(List<Shard> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("shards must not be empty");
+        }
+        for (Shard shard : shards) {
+            if (this.shards.put(shard.getName(), shard) != null) {
+                throw new IllegalArgumentException("duplicate shard name " + shard.getName());
+            }
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(shard.getName() + "#" + i), shard);
+            }
+        }
+        final AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(shards.size(), (r) -> {
+            Thread t = new Thread(r);
+            t.setName("leaf-sharding-dao-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 业务tag所在的分片
+     * @param tag
+     * @return
+     */
+    public Shard route(String tag) {
+        final String override = overrides.get(tag);
+        if (override != null) {
+            Shard shard = shards.get(override);
+            if (shard != null) {
+                return shard;
+            }
+        }
+        Map.Entry<Long, Shard> entry = ring.ceilingEntry(hash(tag));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * 指定业务tag所在的分片，优先于一致性哈希
+     * @param tag
+     * @param shardName
+     */
+    public void setOverride(String tag, String shardName) {
+        if (!shards.containsKey(shardName)) {
+            throw new IllegalArgumentException("unknown shard " + shardName);
+        }
+        overrides.put(tag, shardName);
+    }
+
+    public void removeOverride(String tag) {
+        overrides.remove(tag);
+    }
+
+    public Map<String, String> getOverrides() {
+        return Collections.unmodifiableMap(overrides);
+    }
+
+    /**
+     * 手动把分片切换到备库，同样先检查备库的max_id
+     * @param shardName
+     */
+    public void failover(String shardName) {
+        Shard shard = shard(shardName);
+        if (shard.standby == null) {
+            throw new IllegalStateException("shard " + shardName + " has no standby");
+        }
+        final Lock lock = lockForFailover(shard);
+        if (lock == null) {
+            throw new IllegalStateException("primary calls of shard " + shardName + " are still in flight");
+        }
+        try {
+            if (!shard.failedOver && !fence(shard)) {
+                throw new IllegalStateException("standby of shard " + shardName + " is behind primary");
+            }
+            shard.failedOver = true;
+        } finally {
+            lock.unlock();
+        }
+        logger.warn("shard {} failed over to standby manually", shardName);
+    }
+
+    /**
+     * 把分片切回主库，调用方需要保证主库的max_id已经不小于备库
+     * @param shardName
+     */
+    public void failback(String shardName) {
+        Shard shard = shard(shardName);
+        shard.failoverLock.writeLock().lock();
+        try {
+            shard.consecutiveFailures.set(0);
+            shard.failedOver = false;
+        } finally {
+            shard.failoverLock.writeLock().unlock();
+        }
+        logger.warn("shard {} failed back to primary", shardName);
+    }
+
+    public int getFailoverThreshold() {
+        return failoverThreshold;
+    }
+
+    /**
+     * @param failoverThreshold 连续多少次连接级别的失败之后切换到备库
+     */
+    public void setFailoverThreshold(int failoverThreshold) {
+        if (failoverThreshold < 1) {
+            throw new IllegalArgumentException("failoverThreshold must be positive");
+        }
+        this.failoverThreshold = failoverThreshold;
+    }
+
+    public long getFailoverDrainMillis() {
+        return failoverDrainMillis;
+    }
+
+    /**
+     * @param failoverDrainMillis 切换时最多等待多少毫秒，让正在进行的主库访问结束
+     */
+    public void setFailoverDrainMillis(long failoverDrainMillis) {
+        this.failoverDrainMillis = failoverDrainMillis;
+    }
+
+    public List<Shard> getShards() {
+        return new ArrayList<>(shards.values());
+    }
+
+    @Override
+    public List<LeafAlloc> getAllLeafAllocs() {
+        List<LeafAlloc> result = new ArrayList<>();
+        for (Map.Entry<Shard, List<LeafAlloc>> entry : fanOut(IDAllocDao::getAllLeafAllocs).entrySet()) {
+            int foreignRows = 0;
+            for (LeafAlloc leafAlloc : entry.getValue()) {
+                if (owns(entry.getKey(), leafAlloc.getKey())) {
+                    result.add(leafAlloc);
+                } else {
+                    foreignRows++;
+                }
+            }
+            entry.getKey().foreignRows = foreignRows;
+        }
+        return result;
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdAndGetLeafAlloc(final String tag) {
+        return call(route(tag), dao -> dao.updateMaxIdAndGetLeafAlloc(tag));
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(final LeafAlloc leafAlloc) {
+        return call(route(leafAlloc.getKey()), dao -> dao.updateMaxIdByCustomStepAndGetLeafAlloc(leafAlloc));
+    }
+
+    @Override
+    public List<String> getAllTags() {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<Shard, List<String>> entry : fanOut(IDAllocDao::getAllTags).entrySet()) {
+            int foreignRows = 0;
+            for (String tag : entry.getValue()) {
+                if (owns(entry.getKey(), tag)) {
+                    result.add(tag);
+                } else {
+                    foreignRows++;
+                }
+            }
+            entry.getKey().foreignRows = foreignRows;
+        }
+        return result;
+    }
+
+    /**
+     * 按照分片分组，每个分片一次批量更新，多个分片并行执行
+     */
+    @Override
+    public List<LeafAlloc> updateMaxIdAndGetLeafAllocs(List<LeafAlloc> leafAllocs) {
+        final Map<Shard, List<LeafAlloc>> groups = new LinkedHashMap<>();
+        for (LeafAlloc leafAlloc : leafAllocs) {
+            groups.computeIfAbsent(route(leafAlloc.getKey()), k -> new ArrayList<>()).add(leafAlloc);
+        }
+        if (groups.size() == 1) {
+            Map.Entry<Shard, List<LeafAlloc>> entry = groups.entrySet().iterator().next();
+            return call(entry.getKey(), dao -> dao.updateMaxIdAndGetLeafAllocs(entry.getValue()));
+        }
+        final Map<Shard, Future<List<LeafAlloc>>> futures = new LinkedHashMap<>();
+        for (Map.Entry<Shard, List<LeafAlloc>> entry : groups.entrySet()) {
+            futures.put(entry.getKey(), executor.submit(() -> call(entry.getKey(), dao -> dao.updateMaxIdAndGetLeafAllocs(entry.getValue()))));
+        }
+        List<LeafAlloc> result = new ArrayList<>(leafAllocs.size());
+        for (List<LeafAlloc> updated : join(futures).values()) {
+            result.addAll(updated);
+        }
+        return result;
+    }
+
+    /**
+     * 任意分片不支持增量读取时返回null
+     */
+    @Override
+    public List<LeafAlloc> getLeafAllocsUpdatedSince(final long sinceMillis) {
+        List<LeafAlloc> result = new ArrayList<>();
+        for (Map.Entry<Shard, List<LeafAlloc>> entry : fanOut(dao -> dao.getLeafAllocsUpdatedSince(sinceMillis)).entrySet()) {
+            if (entry.getValue() == null) {
+                return null;
+            }
+            for (LeafAlloc leafAlloc : entry.getValue()) {
+                if (owns(entry.getKey(), leafAlloc.getKey())) {
+                    result.add(leafAlloc);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 各个分片的行数之和，减去最近一次全量读取时发现的没有路由到所在分片的行，与getAllTags一致。
+     * 迁移业务tag之后旧分片上残留的行不能计入，否则个数始终与缓存不一致，增量同步每次都会退化为全量同步；
+     * 残留的行或者路由在全量读取之后发生变化时个数不一致，触发一次全量同步之后重新统计
+     */
+    @Override
+    public int countTags() {
+        int count = 0;
+        for (Map.Entry<Shard, Integer> entry : fanOut(IDAllocDao::countTags).entrySet()) {
+            if (entry.getValue() < 0) {
+                return -1;
+            }
+            count += entry.getValue() - entry.getKey().foreignRows;
+        }
+        return count;
+    }
+
+    @Override
+    public boolean rollbackMaxId(final String tag, final long expectedMaxId, final long newMaxId) {
+        return call(route(tag), dao -> dao.rollbackMaxId(tag, expectedMaxId, newMaxId));
+    }
+
+    /**
+     * 只关闭并行读取使用的线程池，不关闭各个分片的IDAllocDao
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * 在分片当前使用的库上执行，主库连续连接失败达到failoverThreshold并且备库检查通过时切换到备库重试
+     */
+    private <T> T call(Shard shard, Function<IDAllocDao, T> operation) {
+        if (!shard.failedOver) {
+            RuntimeException failure = null;
+            shard.failoverLock.readLock().lock();
+            try {
+                if (!shard.failedOver) {
+                    final T result = operation.apply(shard.primary);
+                    /**
+                     * 在读锁内记录，切换时的检查一定能看到
+                     */
+                    shard.consecutiveFailures.set(0);
+                    shard.observe(result);
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                shard.failoverLock.readLock().unlock();
+            }
+            if (failure != null) {
+                onPrimaryFailure(shard, failure);
+            }
+        }
+        return operation.apply(shard.standby);
+    }
+
+    /**
+     * 主库访问失败，返回说明已经切换到备库，否则抛出原来的异常
+     */
+    private void onPrimaryFailure(Shard shard, RuntimeException e) {
+        if (shard.standby == null) {
+            throw e;
+        }
+        if (!isConnectionFailure(e)) {
+            shard.consecutiveFailures.set(0);
+            throw e;
+        }
+        final int failures = shard.consecutiveFailures.incrementAndGet();
+        if (failures < failoverThreshold) {
+            logger.warn("shard {} primary connection failure {}/{}", shard.name, failures, failoverThreshold, e);
+            throw e;
+        }
+        if (!tryFailover(shard, e)) {
+            throw e;
+        }
+    }
+
+    private boolean tryFailover(Shard shard, RuntimeException cause) {
+        final Lock lock = lockForFailover(shard);
+        if (lock == null) {
+            logger.error("shard {} primary unavailable but primary calls are still in flight, do not fail over", shard.name, cause);
+            return false;
+        }
+        try {
+            if (shard.failedOver) {
+                return true;
+            }
+            if (!fence(shard)) {
+                logger.error("shard {} primary unavailable but standby is behind, do not fail over", shard.name, cause);
+                return false;
+            }
+            shard.failedOver = true;
+        } finally {
+            lock.unlock();
+        }
+        logger.error("shard {} primary failed {} times in a row, fail over to standby", shard.name, failoverThreshold, cause);
+        return true;
+    }
+
+    /**
+     * 获取分片的写锁，等待正在进行的主库访问结束，新的主库访问在释放之前等待
+     * @return 已经获取的写锁，failoverDrainMillis之内没有获取到时返回null
+     */
+    private Lock lockForFailover(Shard shard) {
+        final Lock lock = shard.failoverLock.writeLock();
+        try {
+            return lock.tryLock(failoverDrainMillis, TimeUnit.MILLISECONDS) ? lock : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 检查备库上每个业务tag的max_id不小于从主库读到的最大值，落后时通过CAS提升备库的max_id。
+     * 备库上不存在的业务tag无法从备库发号，不需要检查
+     * @return 是否可以切换到备库
+     */
+    private static boolean fence(Shard shard) {
+        if (shard.primaryMaxIds.isEmpty()) {
+            return true;
+        }
+        try {
+            final Map<String, Long> standbyMaxIds = new HashMap<>();
+            for (LeafAlloc leafAlloc : shard.standby.getAllLeafAllocs()) {
+                standbyMaxIds.put(leafAlloc.getKey(), leafAlloc.getMaxId());
+            }
+            for (Map.Entry<String, Long> entry : shard.primaryMaxIds.entrySet()) {
+                final Long standbyMaxId = standbyMaxIds.get(entry.getKey());
+                if (standbyMaxId == null || standbyMaxId >= entry.getValue()) {
+                    continue;
+                }
+                if (!shard.standby.rollbackMaxId(entry.getKey(), standbyMaxId, entry.getValue())) {
+                    logger.error("max_id of {} on shard {} standby is {}, behind {} on primary and can not be raised",
+                            entry.getKey(), shard.name, standbyMaxId, entry.getValue());
+                    return false;
+                }
+                logger.warn("raise max_id of {} on shard {} standby from {} to {}", entry.getKey(), shard.name, standbyMaxId, entry.getValue());
+            }
+            return true;
+        } catch (RuntimeException e) {
+            logger.error("check standby of shard {} exception", shard.name, e);
+            return false;
+        }
+    }
+
+    /**
+     * 是否是连接级别的失败：异常链中有连接类的SQLException（SQLState 08开头）或者网络异常
+     */
+    private static boolean isConnectionFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof SQLTransientConnectionException || t instanceof SQLNonTransientConnectionException) {
+                return true;
+            }
+            if (t instanceof SQLException && ((SQLException) t).getSQLState() != null && ((SQLException) t).getSQLState().startsWith("08")) {
+                return true;
+            }
+            if (t instanceof IOException && t.getClass().getName().startsWith("java.net.")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在所有分片上并行执行，任意分片失败时抛出异常
+     */
+    private <T> Map<Shard, T> fanOut(final Function<IDAllocDao, T> operation) {
+        final Map<Shard, Future<T>> futures = new LinkedHashMap<>();
+        for (final Shard shard : shards.values()) {
+            futures.put(shard, executor.submit(() -> call(shard, operation)));
+        }
+        return join(futures);
+    }
+
+    private static <T> Map<Shard, T> join(Map<Shard, Future<T>> futures) {
+        final Map<Shard, T> result = new LinkedHashMap<>();
+        for (Map.Entry<Shard, Future<T>> entry : futures.entrySet()) {
+            try {
+                result.put(entry.getKey(), entry.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while accessing shard " + entry.getKey(), e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException("access shard " + entry.getKey() + " exception", cause);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 分片上的行是否路由到该分片，迁移业务tag之后旧分片上残留的行会被忽略
+     */
+    private boolean owns(Shard shard, String tag) {
+        if (route(tag) == shard) {
+            return true;
+        }
+        logger.debug("tag {} in shard {} is routed to another shard, ignore it", tag, shard);
+        return false;
+    }
+
+    private Shard shard(String shardName) {
+        Shard shard = shards.get(shardName);
+        if (shard == null) {
+            throw new IllegalArgumentException("unknown shard " + shardName);
+        }
+        return shard;
+    }
+
+    /**
+     * 取MD5的前8个字节
+     */
+    private static long hash(String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xFF);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.sachin.idgen.leaf.core.segment.journal;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 业务tag从db申请到的一段id，[value, max) 是其中还没有发放的部分
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LeasedRange {
+
+    private String key;
+    private long value;
+    private long max;
+    /**
+     * 申请这段id时SegmentBuffer的step和minStep，恢复时用于还原SegmentBuffer
+     */
+    private int step;
+    private int minStep;
+}
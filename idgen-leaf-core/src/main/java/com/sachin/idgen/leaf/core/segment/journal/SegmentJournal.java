@@ -0,0 +1,305 @@
+package com.sachin.idgen.leaf.core.segment.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 本地的号段日志，用于进程重启之后继续使用上一个进程没有发放完的id，不需要访问db，也不浪费号段。
+ *
+ * 日志是一个内存映射的追加写文件，文件头记录epoch，每条记录都带有写入时的epoch和crc：
+ * LEASE记录从db申请到的号段，只用于排查问题，后台线程批量刷盘；
+ * RELEASE记录进程正常关闭时还没有发放的 [value, max)，关闭时立即刷盘。
+ *
+ * 安全协议：
+ * （1）同一个目录只能被一个进程打开，通过文件锁保证；
+ * （2）打开时只有与文件头epoch相同的RELEASE记录可以恢复，读取之后立即用epoch+1的空日志原子地替换旧日志并刷盘，
+ *     替换完成之后才把恢复的号段交给调用方。因此进程在替换之后崩溃，下一个进程看不到这些RELEASE记录，不会重复发放；
+ *     在替换之前崩溃，恢复的号段还没有发放过，下一个进程可以再次恢复；
+ * （3）进程崩溃时没有RELEASE记录，不知道发放到了哪里，号段直接丢弃，与原来的行为一致。
+ * crc校验失败或者magic不匹配的记录视为写了一半，忽略它以及之后的所有记录。
+ *
+ * 只保证同一台机器上、使用同一个db的进程之间不会重复发放
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class SegmentJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentJournal.class);
+
+    private static final String JOURNAL_FILE = "segments.journal";
+    private static final String LOCK_FILE = "segments.lock";
+
+    private static final int FILE_MAGIC = 0x4C454146;
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final int RECORD_MAGIC = 0x5345474D;
+
+    private static final byte TYPE_LEASE = 1;
+    private static final byte TYPE_RELEASE = 2;
+
+    /**
+     * 默认的日志文件大小，写满之后用当前epoch的空日志替换
+     */
+    public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+    private final File dir;
+    private final int capacity;
+    private final FileChannel lockChannel;
+    private final FileLock fileLock;
+    private final long epoch;
+    private final List<LeasedRange> recovered;
+    private final ScheduledExecutorService flusher;
+
+    private MappedByteBuffer mapped;
+    private boolean dirty;
+    private boolean closed;
+
+    public SegmentJournal(File dir) throws IOException {
+        this(dir, DEFAULT_CAPACITY, 100);
+    }
+
+    /**
+     * @param dir 日志目录
+     * @param capacity 日志文件大小
+     * @param flushIntervalMillis LEASE记录批量刷盘的间隔
+     * @throws IOException 目录不可用或者已经被其他进程打开
+     */
+    public SegmentJournal(File dir, int capacity, long flushIntervalMillis) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("can not create journal dir " + dir);
+        }
+        this.dir = dir;
+        this.capacity = capacity;
+        this.lockChannel = FileChannel.open(new File(dir, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("journal dir " + dir + " is locked by another process");
+        }
+        this.fileLock = lock;
+
+        File file = new File(dir, JOURNAL_FILE);
+        long lastEpoch = 0;
+        List<LeasedRange> released = new ArrayList<>();
+        if (file.exists()) {
+            lastEpoch = read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), released);
+        }
+        this.epoch = lastEpoch + 1;
+        /**
+         * 新的epoch写入磁盘之后才能使用恢复的号段
+         */
+        reset();
+        this.recovered = Collections.unmodifiableList(released);
+        logger.info("open segment journal {}, epoch {}, {} ranges recovered", file, epoch, recovered.size());
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r);
+            t.setName("segment-journal-flush-thread");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(() -> flush(), flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 打开日志时恢复的号段，也就是上一个进程正常关闭时没有发放的id
+     * @return
+     */
+    public List<LeasedRange> getRecoveredRanges() {
+        return recovered;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * 记录从db申请到的号段
+     * @param range
+     */
+    public synchronized void appendLease(LeasedRange range) {
+        if (closed) {
+            return;
+        }
+        try {
+            append(TYPE_LEASE, range);
+            dirty = true;
+        } catch (IOException e) {
+            logger.warn("append lease {} exception", range, e);
+        }
+    }
+
+    /**
+     * 记录正常关闭时还没有发放的号段并立即刷盘，之后关闭日志
+     * @param ranges 调用方需要保证这些号段已经不会再被发放
+     * @throws IOException
+     */
+    public synchronized void release(List<LeasedRange> ranges) throws IOException {
+        if (closed) {
+            throw new IOException("journal is closed");
+        }
+        for (LeasedRange range : ranges) {
+            append(TYPE_RELEASE, range);
+        }
+        mapped.force();
+        dirty = false;
+        logger.info("release {} ranges to journal, epoch {}", ranges.size(), epoch);
+        close();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flusher.shutdown();
+        if (dirty) {
+            mapped.force();
+            dirty = false;
+        }
+        try {
+            fileLock.release();
+        } finally {
+            lockChannel.close();
+        }
+    }
+
+    private synchronized void flush() {
+        if (!closed && dirty) {
+            mapped.force();
+            dirty = false;
+        }
+    }
+
+    private void append(byte type, LeasedRange range) throws IOException {
+        final byte[] record = encode(type, range);
+        if (mapped.remaining() < record.length) {
+            /**
+             * 日志写满，LEASE记录不用于恢复，直接用当前epoch的空日志替换
+             */
+            reset();
+            if (mapped.remaining() < record.length) {
+                throw new IOException("journal capacity " + capacity + " too small");
+            }
+        }
+        mapped.put(record);
+    }
+
+    /**
+     * 用只有文件头的日志原子地替换当前日志并刷盘
+     * @throws IOException
+     */
+    private void reset() throws IOException {
+        File tmp = new File(dir, JOURNAL_FILE + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.setLength(capacity);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(FILE_MAGIC).putInt(FILE_VERSION).putLong(epoch).flip();
+            raf.getChannel().write(header, 0);
+            raf.getChannel().force(true);
+        }
+        File file = new File(dir, JOURNAL_FILE);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDir();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        mapped.position(HEADER_SIZE);
+    }
+
+    /**
+     * 刷新目录，保证rename已经落盘。部分平台不支持打开目录，忽略
+     */
+    private void forceDir() {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("force journal dir {} not supported", dir, e);
+        }
+    }
+
+    /**
+     * 读取日志，返回文件头中的epoch，与文件头epoch相同的RELEASE记录放入released
+     */
+    private static long read(ByteBuffer buf, List<LeasedRange> released) {
+        if (buf.remaining() < HEADER_SIZE || buf.getInt() != FILE_MAGIC || buf.getInt() != FILE_VERSION) {
+            logger.warn("segment journal header is corrupted, ignore it");
+            return 0;
+        }
+        final long fileEpoch = buf.getLong();
+        try {
+            while (buf.remaining() > 4) {
+                final int start = buf.position();
+                if (buf.getInt() != RECORD_MAGIC) {
+                    break;
+                }
+                final byte type = buf.get();
+                final long recordEpoch = buf.getLong();
+                final short keyLength = buf.getShort();
+                if (keyLength < 0 || keyLength > buf.remaining()) {
+                    break;
+                }
+                final byte[] key = new byte[keyLength];
+                buf.get(key);
+                final LeasedRange range = new LeasedRange(new String(key, StandardCharsets.UTF_8), buf.getLong(), buf.getLong(), buf.getInt(), buf.getInt());
+                final int end = buf.position();
+                final int crc = buf.getInt();
+                if (crc != crc(buf, start, end)) {
+                    logger.warn("segment journal record at {} is corrupted, ignore the rest", start);
+                    break;
+                }
+                if (type == TYPE_RELEASE && recordEpoch == fileEpoch && range.getValue() < range.getMax()) {
+                    released.add(range);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            logger.warn("segment journal is truncated, ignore the rest");
+        }
+        return fileEpoch;
+    }
+
+    private byte[] encode(byte type, LeasedRange range) {
+        final byte[] key = range.getKey().getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buf = ByteBuffer.allocate(4 + 1 + 8 + 2 + key.length + 8 + 8 + 4 + 4 + 4);
+        buf.putInt(RECORD_MAGIC).put(type).putLong(epoch).putShort((short) key.length).put(key)
+                .putLong(range.getValue()).putLong(range.getMax()).putInt(range.getStep()).putInt(range.getMinStep());
+        buf.putInt(crc(buf, 0, buf.position()));
+        return buf.array();
+    }
+
+    private static int crc(ByteBuffer buf, int start, int end) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(buf.array(), buf.arrayOffset() + start, end - start);
+        return (int) crc32.getValue();
+    }
+}
@@ -0,0 +1,73 @@
+package com.sachin.idgen.leaf.core.segment.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内的监控实现。计数使用LongAdder，高并发取号时各线程更新不同的cell，不会在同一个变量上竞争；
+ * db装载耗时记录在LatencyHistogram中
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class InMemorySegmentMetrics implements SegmentMetrics {
+
+    private final Map<String, InMemoryTagMetrics> tags = new ConcurrentHashMap<>();
+
+    @Override
+    public TagMetrics tagMetrics(String key) {
+        return tags.computeIfAbsent(key, k -> new InMemoryTagMetrics());
+    }
+
+    public static class InMemoryTagMetrics implements TagMetrics {
+
+        private final LongAdder issued = new LongAdder();
+        private final LongAdder waits = new LongAdder();
+        private final LongAdder refillFailures = new LongAdder();
+        private final LatencyHistogram refillLatency = new LatencyHistogram();
+
+        /**
+         * 上一次快照时的累计发放个数和时间，用于计算发放速度
+         */
+        private long lastIssued;
+        private long lastSnapshotNanos = System.nanoTime();
+
+        @Override
+        public void recordIssued(long count) {
+            issued.add(count);
+        }
+
+        @Override
+        public void recordWait() {
+            waits.increment();
+        }
+
+        @Override
+        public void recordRefill(long latencyNanos) {
+            refillLatency.record(latencyNanos);
+        }
+
+        @Override
+        public void recordRefillFailure() {
+            refillFailures.increment();
+        }
+
+        @Override
+        public synchronized void fill(TagMetricsSnapshot snapshot) {
+            final long now = System.nanoTime();
+            final long total = issued.sum();
+            final long elapsed = now - lastSnapshotNanos;
+            snapshot.setIdsIssued(total);
+            snapshot.setIdsPerSecond(elapsed > 0 ? (total - lastIssued) * 1e9 / elapsed : 0);
+            lastIssued = total;
+            lastSnapshotNanos = now;
+            snapshot.setWaits(waits.sum());
+            snapshot.setRefills(refillLatency.getCount());
+            snapshot.setRefillFailures(refillFailures.sum());
+            snapshot.setRefillLatencyP50Micros(refillLatency.percentile(0.5));
+            snapshot.setRefillLatencyP99Micros(refillLatency.percentile(0.99));
+            snapshot.setRefillLatencyMaxMicros(refillLatency.getMax());
+        }
+    }
+}
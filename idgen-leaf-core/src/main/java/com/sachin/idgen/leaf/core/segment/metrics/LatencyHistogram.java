@@ -0,0 +1,100 @@
+package com.sachin.idgen.leaf.core.segment.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数线性分桶的无锁耗时直方图，单位微秒。
+ *
+ * 每个 [2^k, 2^(k+1)) 区间再线性地分成 2^subBucketBits 个桶，小于 2^subBucketBits 微秒的样本每个值一个桶，
+ * 分位数的相对误差不超过 1/2^subBucketBits。默认subBucketBits为0，也就是按2的幂分桶，误差不超过一倍，
+ * 每个直方图只有64个桶，用于观察每个业务tag的db装载耗时分布足够；压测等需要精确分位数的场景使用更大的subBucketBits
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class LatencyHistogram {
+
+    private final int subBucketBits;
+    private final int subBuckets;
+    private final AtomicLongArray buckets;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(0);
+    }
+
+    /**
+     * @param subBucketBits 每个2的幂区间分成 2^subBucketBits 个桶，取值范围 [0, 10]
+     */
+    public LatencyHistogram(int subBucketBits) {
+        if (subBucketBits < 0 || subBucketBits > 10) {
+            throw new IllegalArgumentException("subBucketBits must in [0, 10]");
+        }
+        this.subBucketBits = subBucketBits;
+        this.subBuckets = 1 << subBucketBits;
+        /**
+         * 微秒数为非负的long，最高位不超过第62位
+         */
+        this.buckets = new AtomicLongArray(subBuckets * (64 - subBucketBits));
+    }
+
+    public void record(long latencyNanos) {
+        final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        buckets.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        long prev;
+        while ((prev = max.get()) < micros && !max.compareAndSet(prev, micros)) {
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile 取值范围 (0, 1]
+     * @return 分位数所在桶的上界，没有样本时返回0
+     */
+    public long percentile(double percentile) {
+        final long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private int index(long micros) {
+        if (micros < subBuckets) {
+            return (int) micros;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(micros) - subBucketBits;
+        return subBuckets * (shift + 1) + (int) (micros >>> shift) - subBuckets;
+    }
+
+    /**
+     * 桶的上界，也就是下一个桶的下界；每个值一个桶时为该值本身。超出long范围时返回Long.MAX_VALUE
+     */
+    private long upperBound(int index) {
+        if (index < subBuckets) {
+            return index;
+        }
+        final int shift = index / subBuckets - 1;
+        final long upper = (long) (index % subBuckets + subBuckets + 1) << shift;
+        return upper > 0 ? upper : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,39 @@
+package com.sachin.idgen.leaf.core.segment.metrics;
+
+/**
+ * 默认的监控实现，不记录任何指标
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class NoopSegmentMetrics implements SegmentMetrics {
+
+    public static final NoopSegmentMetrics INSTANCE = new NoopSegmentMetrics();
+
+    public static final TagMetrics NOOP_TAG_METRICS = new TagMetrics() {
+        @Override
+        public void recordIssued(long count) {
+        }
+
+        @Override
+        public void recordWait() {
+        }
+
+        @Override
+        public void recordRefill(long latencyNanos) {
+        }
+
+        @Override
+        public void recordRefillFailure() {
+        }
+
+        @Override
+        public void fill(TagMetricsSnapshot snapshot) {
+        }
+    };
+
+    @Override
+    public TagMetrics tagMetrics(String key) {
+        return NOOP_TAG_METRICS;
+    }
+}
@@ -0,0 +1,18 @@
+package com.sachin.idgen.leaf.core.segment.metrics;
+
+/**
+ * 号段模式的监控指标，每个业务tag对应一个TagMetrics，创建SegmentBuffer时获取并保存在SegmentBuffer中，
+ * 取号时不需要再按业务tag查找
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public interface SegmentMetrics {
+
+    /**
+     * 获取业务tag对应的监控指标，同一个业务tag多次调用应当返回同一个对象
+     * @param key
+     * @return
+     */
+    TagMetrics tagMetrics(String key);
+}
@@ -0,0 +1,40 @@
+package com.sachin.idgen.leaf.core.segment.metrics;
+
+/**
+ * 业务tag级别的监控指标。
+ *
+ * recordIssued在取号路径上调用，实现类不能加锁，也不能分配对象；其他方法只在Segment耗尽或者访问db时调用
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public interface TagMetrics {
+
+    /**
+     * 成功发放了count个id
+     * @param count
+     */
+    void recordIssued(long count);
+
+    /**
+     * 取号线程因为当前Segment耗尽而等待nextSegment
+     */
+    void recordWait();
+
+    /**
+     * 从db装载Segment成功
+     * @param latencyNanos 访问db的耗时
+     */
+    void recordRefill(long latencyNanos);
+
+    /**
+     * 从db装载Segment失败
+     */
+    void recordRefillFailure();
+
+    /**
+     * 把累计的指标写入快照，SegmentBuffer的状态由调用方填充
+     * @param snapshot
+     */
+    void fill(TagMetricsSnapshot snapshot);
+}
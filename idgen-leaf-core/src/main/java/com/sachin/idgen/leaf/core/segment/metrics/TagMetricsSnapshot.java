@@ -0,0 +1,72 @@
+package com.sachin.idgen.leaf.core.segment.metrics;
+
+import lombok.Data;
+
+/**
+ * 业务tag监控指标的快照
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+public class TagMetricsSnapshot {
+
+    private String key;
+
+    /**
+     * 累计发放的id个数
+     */
+    private long idsIssued;
+
+    /**
+     * 距离上一次快照的平均发放速度，单位 id/秒
+     */
+    private double idsPerSecond;
+
+    /**
+     * StepPolicy平滑之后的消耗速度，单位 id/秒，没有使用EWMA的StepPolicy时为0
+     */
+    private double smoothedIdsPerSecond;
+
+    /**
+     * 当前Segment剩余可用的id个数
+     */
+    private long idle;
+
+    /**
+     * 下一个Segment是否准备就绪
+     */
+    private boolean nextReady;
+
+    /**
+     * 已经准备就绪的后续Segment个数
+     */
+    private int readyCount;
+
+    /**
+     * 当前的step
+     */
+    private int step;
+
+    /**
+     * 累计等待nextSegment的取号次数
+     */
+    private long waits;
+
+    /**
+     * 累计从db装载Segment成功的次数
+     */
+    private long refills;
+
+    /**
+     * 累计从db装载Segment失败的次数
+     */
+    private long refillFailures;
+
+    /**
+     * 装载耗时的分位数，单位微秒，取所在桶的上界
+     */
+    private long refillLatencyP50Micros;
+    private long refillLatencyP99Micros;
+    private long refillLatencyMaxMicros;
+}
@@ -0,0 +1,56 @@
+package com.sachin.idgen.leaf.core.segment.model;
+
+import lombok.Data;
+
+import java.util.Set;
+
+/**
+ * db变慢或者不可用时的降级配置。
+ *
+ * 开启之后从db装载Segment经过熔断器：连续failureThreshold次失败，或者一次装载超过slowCallMillis（包括还没有返回的装载），
+ * 熔断器打开，openMillis之内不再访问db；之后放行一次探测，探测成功则关闭，失败则重新打开。
+ * 熔断器打开期间当前Segment耗尽之后不再等待，reserveTags中的业务tag从应急号段中取号，其他业务tag直接返回 EXCEPTION_ID_DB_UNAVAILABLE；
+ * 熔断器关闭时等待nextSegment最多maxBlockMillis，超时同样返回 EXCEPTION_ID_DB_UNAVAILABLE，不再无限等待，异步取号同样如此。
+ * init之前设置
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+public class DegradeConfig {
+
+    /**
+     * 是否开启降级
+     */
+    private boolean enabled = false;
+
+    /**
+     * 连续失败多少次之后打开熔断器
+     */
+    private int failureThreshold = 5;
+
+    /**
+     * 一次装载超过多少毫秒视为db已经不可用，直接打开熔断器
+     */
+    private long slowCallMillis = 3000;
+
+    /**
+     * 熔断器打开多少毫秒之后放行一次探测
+     */
+    private long openMillis = 5000;
+
+    /**
+     * 熔断器关闭时当前Segment耗尽之后最多等待多少毫秒，小于等于0表示不限制。同时也是挂起的异步取号请求的超时时间
+     */
+    private long maxBlockMillis = 1000;
+
+    /**
+     * 需要应急号段的关键业务tag，为null表示不预留
+     */
+    private Set<String> reserveTags;
+
+    /**
+     * 应急号段的大小，小于等于0表示使用数据库中配置的step
+     */
+    private int reserveStep = 0;
+}
@@ -0,0 +1,113 @@
+package com.sachin.idgen.leaf.core.segment.model;
+
+import java.util.Arrays;
+
+/**
+ * 批量取号时申请到的id的容器，每次从一个Segment中通过getAndAdd申请到的是一段连续的id [start, start + n)。
+ *
+ * ofArray把每个id写入数组，用于批量取号；ofRanges只记录区间，连续的区间合并为一个，用于租用号段，
+ * 不需要为每个id分配内存
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public abstract class IdBatch {
+
+    private final int count;
+    private int filled;
+
+    protected IdBatch(int count) {
+        this.count = count;
+    }
+
+    public static ArrayBatch ofArray(long[] ids) {
+        return new ArrayBatch(ids);
+    }
+
+    public static RangeBatch ofRanges(int count) {
+        return new RangeBatch(count);
+    }
+
+    /**
+     * 追加一段连续的id
+     * @param start
+     * @param n 不超过getRemaining()
+     */
+    public void add(long start, int n) {
+        append(start, n);
+        filled += n;
+    }
+
+    protected abstract void append(long start, int n);
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getFilled() {
+        return filled;
+    }
+
+    public int getRemaining() {
+        return count - filled;
+    }
+
+    public boolean isFull() {
+        return filled == count;
+    }
+
+    public static class ArrayBatch extends IdBatch {
+
+        private final long[] ids;
+
+        private ArrayBatch(long[] ids) {
+            super(ids.length);
+            this.ids = ids;
+        }
+
+        @Override
+        protected void append(long start, int n) {
+            final int from = getFilled();
+            for (int i = 0; i < n; i++) {
+                ids[from + i] = start + i;
+            }
+        }
+
+        public long[] getIds() {
+            return ids;
+        }
+    }
+
+    public static class RangeBatch extends IdBatch {
+
+        /**
+         * 依次排列的start和end，区间个数等于跨越的Segment个数，通常只有一两个
+         */
+        private long[] ranges = new long[4];
+        private int size;
+
+        private RangeBatch(int count) {
+            super(count);
+        }
+
+        @Override
+        protected void append(long start, int n) {
+            if (size > 0 && ranges[size - 1] == start) {
+                ranges[size - 1] = start + n;
+                return;
+            }
+            if (size == ranges.length) {
+                ranges = Arrays.copyOf(ranges, size * 2);
+            }
+            ranges[size++] = start;
+            ranges[size++] = start + n;
+        }
+
+        /**
+         * @return 依次排列的start和end，每个区间为 [start, end)
+         */
+        public long[] getRanges() {
+            return Arrays.copyOf(ranges, size);
+        }
+    }
+}
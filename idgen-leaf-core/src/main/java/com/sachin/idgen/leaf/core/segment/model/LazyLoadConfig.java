@@ -0,0 +1,44 @@
+package com.sachin.idgen.leaf.core.segment.model;
+
+import lombok.Data;
+
+/**
+ * 按需装载业务tag的配置，适用于业务tag很多、每个节点只使用其中一小部分的场景。
+ *
+ * 开启之后init不再读取所有的业务tag，也不再定时同步：
+ * 取号时缓存中没有的业务tag从db装载第一个Segment，同一个业务tag同一时间只有一个线程访问db，
+ * db中不存在的业务tag在negativeTtlMillis内直接返回 EXCEPTION_ID_KEY_NOT_EXISTS；
+ * 超过idleTtlMillis没有取号的业务tag从缓存中移除，没有发放的号段尽量归还给db。
+ * 新增或者删除业务tag之后可以通过onTagsChanged立即生效
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+public class LazyLoadConfig {
+
+    /**
+     * 是否开启按需装载
+     */
+    private boolean enabled = false;
+
+    /**
+     * db中不存在的业务tag的缓存时间，单位毫秒
+     */
+    private long negativeTtlMillis = 30 * 1000L;
+
+    /**
+     * 最多缓存多少个不存在的业务tag
+     */
+    private int negativeCacheSize = 10000;
+
+    /**
+     * 业务tag空闲多久之后从缓存中移除，单位毫秒，小于等于0表示不移除
+     */
+    private long idleTtlMillis = 30 * 60 * 1000L;
+
+    /**
+     * 检查空闲业务tag的间隔，单位毫秒
+     */
+    private long evictIntervalMillis = 60 * 1000L;
+}
@@ -0,0 +1,24 @@
+package com.sachin.idgen.leaf.core.segment.model;
+
+import lombok.Data;
+
+/**
+ * 单语句装载的参数，更新之后的max_id通过getGeneratedKeys回填
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+public class LeafAllocUpdate {
+
+    private String key;
+    /**
+     * max_id的增量
+     */
+    private long delta;
+    /**
+     * 数据库中配置的step，不相同时不更新
+     */
+    private int step;
+    private long maxId;
+}
@@ -0,0 +1,27 @@
+package com.sachin.idgen.leaf.core.segment.model;
+
+/**
+ * 因为Segment耗尽而挂起在SegmentBuffer上的异步取号请求
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public interface PendingRequest {
+
+    /**
+     * 不阻塞地尝试完成请求
+     * @return 请求是否已经完成，false表示需要继续等待Segment装载
+     */
+    boolean tryComplete();
+
+    /**
+     * @return 最长等待到什么时候（System.nanoTime），0表示不限制
+     */
+    long getDeadline();
+
+    /**
+     * 等待超时，以异常码完成请求
+     * @param code
+     */
+    void fail(long code);
+}
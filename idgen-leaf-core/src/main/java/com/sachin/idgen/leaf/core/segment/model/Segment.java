@@ -2,7 +2,7 @@ package com.sachin.idgen.leaf.core.segment.model;
 
 import lombok.Data;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * @Author Sachin
@@ -11,10 +11,13 @@ import java.util.concurrent.atomic.AtomicLong;
 @Data
 public class Segment {
 
+    private static final AtomicLongFieldUpdater<Segment> VALUE_UPDATER = AtomicLongFieldUpdater.newUpdater(Segment.class, "value");
+
     /**
-     * 当前使用的值，也就是取号值
+     * 当前使用的值，也就是取号值。
+     * 原来是AtomicLong，业务tag很多时每个Segment多一个对象，这里通过字段更新器直接对这个字段做原子操作
      */
-    private AtomicLong value = new  AtomicLong(0);
+    private volatile long value;
     /**
      * 最大可用取号值
      */
@@ -26,7 +29,19 @@ public class Segment {
         this.buffer = buffer;
     }
     public long getIdle() {
-        return this.getMax() - getValue().get();
+        return this.getMax() - value;
+    }
+
+    public long getAndIncrement() {
+        return VALUE_UPDATER.getAndIncrement(this);
+    }
+
+    public long getAndAdd(long delta) {
+        return VALUE_UPDATER.getAndAdd(this, delta);
+    }
+
+    public boolean compareAndSetValue(long expect, long update) {
+        return VALUE_UPDATER.compareAndSet(this, expect, update);
     }
 
 
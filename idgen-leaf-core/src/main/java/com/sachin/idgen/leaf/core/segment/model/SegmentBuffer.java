@@ -1,12 +1,21 @@
 package com.sachin.idgen.leaf.core.segment.model;
 
 
+import com.sachin.idgen.leaf.core.segment.metrics.NoopSegmentMetrics;
+import com.sachin.idgen.leaf.core.segment.metrics.TagMetrics;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 
 import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -16,13 +25,45 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 @Data
 public class SegmentBuffer {
 
+    private static final AtomicIntegerFieldUpdater<SegmentBuffer> READY_COUNT_UPDATER = AtomicIntegerFieldUpdater.newUpdater(SegmentBuffer.class, "readyCount");
+    private static final AtomicIntegerFieldUpdater<SegmentBuffer> THREAD_RUNNING_UPDATER = AtomicIntegerFieldUpdater.newUpdater(SegmentBuffer.class, "threadRunning");
+    private static final AtomicIntegerFieldUpdater<SegmentBuffer> EXPIRY_SCHEDULED_UPDATER = AtomicIntegerFieldUpdater.newUpdater(SegmentBuffer.class, "expiryScheduled");
+    private static final AtomicReferenceFieldUpdater<SegmentBuffer, Segment> CURRENT_UPDATER = AtomicReferenceFieldUpdater.newUpdater(SegmentBuffer.class, Segment.class, "current");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<SegmentBuffer, ConcurrentLinkedQueue> PENDING_REQUESTS_UPDATER = AtomicReferenceFieldUpdater.newUpdater(SegmentBuffer.class, ConcurrentLinkedQueue.class, "pendingRequests");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<SegmentBuffer, ThreadLocal> STRIPED_CHUNK_UPDATER = AtomicReferenceFieldUpdater.newUpdater(SegmentBuffer.class, ThreadLocal.class, "stripedChunk");
+
+    /**
+     * 读写锁以及等待装载的监视器的条带数。
+     * 业务tag很多时每个SegmentBuffer一个ReentrantReadWriteLock（连同Sync、ReadLock、WriteLock共4个对象）占用的内存比Segment本身还多，
+     * 这里所有的SegmentBuffer按照创建时分配的条带共享读写锁。同一个条带上不同业务tag的读锁会竞争同一个锁状态，
+     * 写锁只在切换Segment时短暂持有，因此条带数远大于线程数时影响可以忽略
+     */
+    private static final int LOCK_STRIPES = 1024;
+    private static final ReentrantReadWriteLock[] LOCKS = new ReentrantReadWriteLock[LOCK_STRIPES];
+    private static final Object[] REFILL_MONITORS = new Object[LOCK_STRIPES];
+    private static final AtomicInteger NEXT_STRIPE = new AtomicInteger();
+
+    static {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            LOCKS[i] = new ReentrantReadWriteLock();
+            REFILL_MONITORS[i] = new Object();
+        }
+    }
+
+    /**
+     * 默认的Segment个数，也就是双buffer
+     */
+    public static final int DEFAULT_RING_SIZE = 2;
+
     /**
      * 业务tag
      */
     private String key;
 
     /**
-     * 双buffer
+     * Segment环，默认为双buffer。当前Segment之后的readyCount个Segment已经从db装载完成。无锁模式下为null
      */
     private Segment[] segments;
 
@@ -33,64 +74,354 @@ public class SegmentBuffer {
     private volatile int currentPos;
 
     /**
-     * 下一个Segment是否处于可切换状态。 为什么这个属性不放置在Segment中？
+     * 当前Segment之后已经准备就绪的Segment个数，大于0表示下一个Segment处于可切换状态。
+     * 双buffer时只有0和1两个值，也就是原来的nextReady。 为什么这个属性不放置在Segment中？
+     */
+    private volatile int readyCount;
+
+    /**
+     * 需要提前准备好的Segment个数，由SegmentRingPolicy根据消耗速度计算，取值范围为[1, segments.length - 1]
      */
-    private volatile boolean nextReady;
+    private volatile int prefetchDepth = 1;
     /**
      * 是否初始化完成
      */
     private  volatile boolean initOk;
 
     /**
-     * 线程是否在运行中。 问题：为什么不使用volatile boolean
+     * 线程是否在运行中，1表示运行中。 问题：为什么不使用volatile boolean
+     * 需要CAS，原来使用AtomicBoolean，这里通过字段更新器直接CAS这个字段，省去一个对象
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile int threadRunning;
+
+    /**
+     * 读写锁和等待装载的监视器所在的条带
      */
-    private final AtomicBoolean  threadRunning;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final int lockStripe;
 
-    private final ReadWriteLock lock;
+    /**
+     * 是否使用无锁模式取号。无锁模式下不使用segments数组和读写锁，而是通过下面的currentRef和readySegments发布Segment
+     */
+    private final boolean lockFree;
+
+    /**
+     * 无锁模式下当前使用的Segment。
+     * 无锁模式不复用Segment对象，每次从db装载都会创建新的Segment，切换时通过CAS替换引用。因为引用不会被复用，所以不存在ABA问题，
+     * 持有旧引用的线程只会在已经耗尽的Segment上取号失败，不会拿到重复的id
+     */
+    @Setter(AccessLevel.NONE)
+    private volatile Segment current;
+
+    /**
+     * 无锁模式下已经准备就绪的后续Segment，按装载顺序排列。只有准备线程入队，切换Segment的线程出队，
+     * 队列中的个数同样记录在readyCount中。加锁模式下为null
+     */
+    private final ConcurrentLinkedQueue<Segment> readySegments;
+
+    /**
+     * Segment环的大小，无锁模式下限制readySegments中最多的Segment个数
+     */
+    private final int ringSize;
 
     private volatile int step;
     private volatile int minStep;
     private  volatile long updateTimestamp;
 
+    /**
+     * 上一次切换Segment的时间，用于计算消耗速度
+     */
+    private volatile long switchTimestamp;
+
+    /**
+     * 最近一个Segment的消耗速度，单位 id/毫秒
+     */
+    private volatile double consumeRate;
+
+    /**
+     * StepPolicy平滑之后的消耗速度，单位 id/毫秒
+     */
+    private volatile double smoothedConsumeRate;
+
+    /**
+     * 最近一次从db装载Segment的耗时，单位毫秒
+     */
+    private volatile long refillLatency;
+
+    /**
+     * 当前业务tag单独的配置，为null时使用SegmentIDGenImpl的默认配置
+     */
+    private volatile TagConfig config;
+
+    /**
+     * 挂起的异步取号请求，准备nextSegment的线程结束时重新尝试完成这些请求。第一次挂起请求时创建
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile ConcurrentLinkedQueue<PendingRequest> pendingRequests;
+
+    /**
+     * 是否已经安排了挂起请求的超时检查，1表示已经安排，保证同一时间只有一个检查任务
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile int expiryScheduled;
+
+    /**
+     * 条带化取号时每个线程独占的一段id，只在业务tag开启了条带化时使用，第一次使用时创建
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile ThreadLocal<StripedChunk> stripedChunk;
+
+    /**
+     * 当前业务tag的监控指标，创建SegmentBuffer时设置，取号时直接使用，不需要按业务tag查找
+     */
+    private volatile TagMetrics metrics = NoopSegmentMetrics.NOOP_TAG_METRICS;
+
+    /**
+     * 是否已经从SegmentIDGenImpl的cache中删除，IdAllocator据此重新查找业务tag
+     */
+    private volatile boolean removed;
+
+    /**
+     * 关键业务tag的应急号段，db正常时提前申请，只在熔断器打开、当前Segment耗尽时使用。
+     * 每次申请都是新的Segment对象，取号不需要加锁
+     */
+    private volatile Segment reserve;
+
+    /**
+     * 按需装载模式下检查空闲时看到的当前Segment和value，以及从什么时候开始没有变化，只在检查空闲的线程中访问
+     */
+    private Segment idleSegment;
+    private long idleValue;
+    private long idleSince;
+
     public SegmentBuffer() {
-        segments = new Segment[]{new Segment(this), new Segment(this)};
+        this(false);
+    }
+
+    public SegmentBuffer(boolean lockFree) {
+        this(lockFree, DEFAULT_RING_SIZE);
+    }
+
+    public SegmentBuffer(boolean lockFree, int ringSize) {
+        if (ringSize < 2) {
+            throw new IllegalArgumentException("ringSize must gte 2");
+        }
+        /**
+         * 无锁模式下每次装载都创建新的Segment，不需要segments数组
+         */
+        if (lockFree) {
+            segments = null;
+            current = new Segment(this);
+            readySegments = new ConcurrentLinkedQueue<>();
+        } else {
+            segments = new Segment[ringSize];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = new Segment(this);
+            }
+            readySegments = null;
+        }
         currentPos=0;
-        nextReady=false;
+        readyCount=0;
         initOk=false;
-        threadRunning = new AtomicBoolean(false);
-        lock = new ReentrantReadWriteLock();
+        threadRunning = 0;
+        lockStripe = NEXT_STRIPE.getAndIncrement() & (LOCK_STRIPES - 1);
+        this.lockFree = lockFree;
+        this.ringSize = ringSize;
     }
 
 
     public Segment getCurrent(){
-        return segments[currentPos];
+        return lockFree ? current : segments[currentPos];
+    }
+
+    /**
+     * 无锁模式下发布当前Segment
+     * @param segment
+     */
+    public void setCurrent(Segment segment) {
+        current = segment;
+    }
+
+    /**
+     * 无锁模式下切换当前Segment
+     * @param expect
+     * @param update
+     * @return
+     */
+    public boolean compareAndSetCurrent(Segment expect, Segment update) {
+        return CURRENT_UPDATER.compareAndSet(this, expect, update);
+    }
+
+    public boolean isThreadRunning() {
+        return threadRunning == 1;
+    }
+
+    public void setThreadRunning(boolean running) {
+        threadRunning = running ? 1 : 0;
+    }
+
+    public boolean compareAndSetThreadRunning(boolean expect, boolean update) {
+        return THREAD_RUNNING_UPDATER.compareAndSet(this, expect ? 1 : 0, update ? 1 : 0);
+    }
+
+    public boolean compareAndSetExpiryScheduled(boolean expect, boolean update) {
+        return EXPIRY_SCHEDULED_UPDATER.compareAndSet(this, expect ? 1 : 0, update ? 1 : 0);
+    }
+
+    public void setExpiryScheduled(boolean scheduled) {
+        expiryScheduled = scheduled ? 1 : 0;
+    }
+
+    /**
+     * 挂起的异步取号请求队列，不存在时创建
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public Queue<PendingRequest> getPendingRequests() {
+        ConcurrentLinkedQueue<PendingRequest> queue = pendingRequests;
+        if (queue == null) {
+            PENDING_REQUESTS_UPDATER.compareAndSet(this, null, new ConcurrentLinkedQueue<PendingRequest>());
+            queue = pendingRequests;
+        }
+        return queue;
+    }
+
+    /**
+     * 挂起的异步取号请求队列，没有挂起过请求时返回null
+     * @return
+     */
+    public Queue<PendingRequest> getPendingRequestsIfPresent() {
+        return pendingRequests;
+    }
+
+    @SuppressWarnings("unchecked")
+    public ThreadLocal<StripedChunk> getStripedChunk() {
+        ThreadLocal<StripedChunk> threadLocal = stripedChunk;
+        if (threadLocal == null) {
+            STRIPED_CHUNK_UPDATER.compareAndSet(this, null, ThreadLocal.withInitial(StripedChunk::new));
+            threadLocal = stripedChunk;
+        }
+        return threadLocal;
     }
 
     public Lock rLock() {
-        return lock.readLock();
+        return LOCKS[lockStripe].readLock();
     }
 
     public Lock wLock() {
-        return lock.writeLock();
+        return LOCKS[lockStripe].writeLock();
     }
 
     public int nextPos() {
-        return (currentPos + 1) % 2;
+        return (currentPos + 1) % segments.length;
     }
 
     public void switchPos() {
         currentPos = nextPos();
     }
 
+    public boolean isNextReady() {
+        return readyCount > 0;
+    }
+
+    /**
+     * 双buffer的语义，供源码中的实现使用
+     * @param nextReady
+     */
+    public void setNextReady(boolean nextReady) {
+        readyCount = nextReady ? 1 : 0;
+    }
+
+    /**
+     * 加锁模式下准备线程要装载的Segment下标，也就是已经准备就绪的Segment之后的第一个位置。
+     * 切换Segment时currentPos加1、readyCount减1，因此装载过程中这个位置不会变化
+     * @return
+     */
+    public int loadPos() {
+        return (currentPos + readyCount + 1) % segments.length;
+    }
+
+    /**
+     * 是否还可以继续准备Segment，当前Segment之外最多准备 ringSize - 1 个
+     * @return
+     */
+    public boolean hasFreeSlot() {
+        return readyCount < ringSize - 1;
+    }
+
+    public int incrementReadyCount() {
+        return READY_COUNT_UPDATER.incrementAndGet(this);
+    }
+
+    public int decrementReadyCount() {
+        return READY_COUNT_UPDATER.decrementAndGet(this);
+    }
+
+    /**
+     * 等待准备nextSegment的线程结束或者准备好一个Segment，最多等待timeoutMillis毫秒
+     * @param timeoutMillis
+     * @return 是否等到了准备线程结束或者Segment准备就绪
+     * @throws InterruptedException
+     */
+    public boolean awaitRefill(long timeoutMillis) throws InterruptedException {
+        if (threadRunning == 0 || readyCount > 0) {
+            return true;
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        /**
+         * 监视器按条带共享，其他业务tag的唤醒只会让这里重新判断条件。
+         * 不使用SegmentBuffer本身作为监视器，因为初始化Buffer时会持有SegmentBuffer的锁访问db
+         */
+        final Object refillMonitor = REFILL_MONITORS[lockStripe];
+        synchronized (refillMonitor) {
+            /**
+             * 准备线程先设置threadRunning为false或者增加readyCount再获取监视器唤醒，因此在监视器内判断不会丢失唤醒
+             */
+            while (threadRunning == 1 && readyCount == 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(refillMonitor, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 准备nextSegment的线程准备好一个Segment或者设置threadRunning为false之后调用，唤醒所有等待的取号线程
+     */
+    public void signalRefillDone() {
+        final Object refillMonitor = REFILL_MONITORS[lockStripe];
+        synchronized (refillMonitor) {
+            refillMonitor.notifyAll();
+        }
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("SegmentBuffer{");
         sb.append("key='").append(key).append('\'');
-        sb.append(", segments=").append(Arrays.toString(segments));
-        sb.append(", currentPos=").append(currentPos);
-        sb.append(", nextReady=").append(nextReady);
+        if (lockFree) {
+            sb.append(", current=").append(current);
+            sb.append(", ready=").append(readySegments);
+        } else {
+            sb.append(", segments=").append(Arrays.toString(segments));
+            sb.append(", currentPos=").append(currentPos);
+        }
+        if (reserve != null) {
+            sb.append(", reserve=").append(reserve);
+        }
+        sb.append(", readyCount=").append(readyCount);
+        sb.append(", prefetchDepth=").append(prefetchDepth);
         sb.append(", initOk=").append(initOk);
-        sb.append(", threadRunning=").append(threadRunning);
+        sb.append(", threadRunning=").append(threadRunning == 1);
         sb.append(", step=").append(step);
         sb.append(", minStep=").append(minStep);
         sb.append(", updateTimestamp=").append(updateTimestamp);
@@ -0,0 +1,40 @@
+package com.sachin.idgen.leaf.core.segment.model;
+
+/**
+ * 条带化取号时每个线程独占的一段id。
+ * 通过一次批量申请从当前Segment中取出，之后在线程内发放，不需要写共享变量
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class StripedChunk {
+
+    /**
+     * 申请到的id，跨越Segment时不一定连续
+     */
+    private long[] ids = new long[0];
+    /**
+     * 下一个发放的id在ids中的位置
+     */
+    private int pos;
+
+    /**
+     * @return 线程内还没有发放的id，没有时返回-1
+     */
+    public long next() {
+        return pos < ids.length ? ids[pos++] : -1;
+    }
+
+    /**
+     * 获取用于装载新的一段id的数组，chunkSize不变时复用原来的数组
+     * @param chunkSize
+     * @return
+     */
+    public long[] reset(int chunkSize) {
+        if (ids.length != chunkSize) {
+            ids = new long[chunkSize];
+        }
+        pos = 0;
+        return ids;
+    }
+}
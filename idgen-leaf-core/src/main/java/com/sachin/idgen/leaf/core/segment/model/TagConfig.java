@@ -0,0 +1,57 @@
+package com.sachin.idgen.leaf.core.segment.model;
+
+import lombok.Data;
+
+/**
+ * 业务tag级别的取号配置，没有单独配置的业务tag使用SegmentIDGenImpl的默认配置
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+public class TagConfig {
+
+    /**
+     * 当前Segment耗尽时，取号线程单次等待nextSegment准备完成的最长时间，单位毫秒。
+     * 超时之后取号线程重新检查SegmentBuffer的状态，总的等待时间由blockTimeoutMillis限制
+     */
+    private long maxWaitMillis = 10;
+
+    /**
+     * 没有开启降级时，当前Segment耗尽之后阻塞取号以及挂起的异步取号请求最长等待多少毫秒，
+     * 超时之后返回 EXCEPTION_ID_DB_UNAVAILABLE，小于等于0表示不限制，db不可用时取号线程会一直等待。
+     * 开启降级时使用DegradeConfig的maxBlockMillis
+     */
+    private long blockTimeoutMillis = 3000;
+
+    /**
+     * 装载nextSegment失败之后多久再次装载，单位毫秒。
+     * 退避期间threadRunning保持为true，等待的取号线程和挂起的异步请求不会立即重新提交装载，避免db故障时反复访问db
+     */
+    private long refillBackoffMillis = 100;
+
+    /**
+     * Segment环的大小，也就是当前Segment加上最多可以提前准备的Segment个数，默认为双buffer。
+     * 只在创建SegmentBuffer时生效
+     */
+    private int ringSize = SegmentBuffer.DEFAULT_RING_SIZE;
+
+    /**
+     * 一个Segment期望维持的时间，单位毫秒，StepPolicy据此调整step
+     */
+    private long segmentDurationMillis = 15 * 60 * 1000L;
+
+    /**
+     * step的上限
+     */
+    private int maxStep = 1000000;
+
+    /**
+     * 条带化取号时每个线程一次申请的id个数，0表示不开启。
+     * 开启之后每个线程通过一次原子操作从当前Segment申请一段id，然后在线程内发放，热点业务tag在多核下不会争用Segment的value。
+     * 代价：id仍然唯一，但是不再全局单调递增，不同线程发放的id是交错的；
+     * 线程持有但没有发放的id在线程不再取号时会被跳过，关闭时也不会写入本地号段日志。
+     * 只对nextId/get生效
+     */
+    private int stripedChunkSize = 0;
+}
@@ -0,0 +1,38 @@
+package com.sachin.idgen.leaf.core.segment.model;
+
+import lombok.Data;
+
+/**
+ * 业务tag同步的配置。
+ *
+ * 默认与源码一致，每次都读取全部的业务tag。开启增量同步之后只读取update_time不早于上次同步时间的记录，
+ * 再通过count(*)与本地缓存的个数比较，个数不一致（有业务tag被删除）时立即全量同步；
+ * 每 fullSyncEvery 次同步之后做一次全量同步兜底。
+ * leaf_alloc需要在update_time上建立索引，否则数据库仍然是全表扫描，只是不再传输所有的业务tag
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+public class TagSyncConfig {
+
+    /**
+     * 同步间隔，单位毫秒
+     */
+    private long intervalMillis = 60 * 1000L;
+
+    /**
+     * 是否开启增量同步
+     */
+    private boolean incremental = false;
+
+    /**
+     * 每隔多少次增量同步做一次全量同步
+     */
+    private int fullSyncEvery = 10;
+
+    /**
+     * 增量同步时向前多读的时间，单位毫秒，覆盖应用与数据库之间的时钟偏差以及提交延迟
+     */
+    private long overlapMillis = 10 * 1000L;
+}
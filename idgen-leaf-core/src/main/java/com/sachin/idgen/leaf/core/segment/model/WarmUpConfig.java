@@ -0,0 +1,36 @@
+package com.sachin.idgen.leaf.core.segment.model;
+
+import lombok.Data;
+
+import java.util.Set;
+
+/**
+ * init时预热SegmentBuffer的配置。开启之后init会并行地从db装载业务tag的第一个Segment，
+ * 避免发布之后每个业务tag的第一次取号都同步访问db
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+public class WarmUpConfig {
+
+    /**
+     * 是否在init时预热
+     */
+    private boolean enabled = false;
+
+    /**
+     * 需要预热的业务tag，为null表示预热所有的业务tag
+     */
+    private Set<String> tags;
+
+    /**
+     * 同时装载的业务tag个数
+     */
+    private int parallelism = 8;
+
+    /**
+     * init等待预热完成的最长时间，单位毫秒。超时之后init直接返回，没有完成的业务tag在后台继续装载
+     */
+    private long timeoutMillis = 5000;
+}
@@ -0,0 +1,47 @@
+package com.sachin.idgen.leaf.core.segment.policy;
+
+import com.sachin.idgen.leaf.core.segment.model.Segment;
+import com.sachin.idgen.leaf.core.segment.model.SegmentBuffer;
+
+/**
+ * 默认的预取策略。
+ *
+ * 当前Segment剩余的id少于 prefetchRatio * step 时开始准备后续的Segment（默认0.9，也就是消耗了10%）；
+ * 预取的深度根据消耗速度计算：已经准备好的id至少要够 safetyFactor 次db装载期间的消耗，
+ * 这样在可预期的高峰期（比如零点的批处理任务）可以提前准备多个Segment
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class DefaultSegmentRingPolicy implements SegmentRingPolicy {
+
+    private final double prefetchRatio;
+    private final double safetyFactor;
+
+    public DefaultSegmentRingPolicy() {
+        this(0.9, 2);
+    }
+
+    public DefaultSegmentRingPolicy(double prefetchRatio, double safetyFactor) {
+        this.prefetchRatio = prefetchRatio;
+        this.safetyFactor = safetyFactor;
+    }
+
+    @Override
+    public boolean shouldPrefetch(SegmentBuffer buffer, Segment current, long idle) {
+        return idle < prefetchRatio * current.getStep();
+    }
+
+    @Override
+    public int prefetchDepth(SegmentBuffer buffer) {
+        int step = buffer.getStep();
+        if (step <= 0) {
+            return 1;
+        }
+        /**
+         * 一次db装载期间消耗的id个数，装载耗时不足1毫秒时按1毫秒计算
+         */
+        double consumedDuringRefill = buffer.getConsumeRate() * Math.max(1, buffer.getRefillLatency());
+        return (int) Math.ceil(safetyFactor * consumedDuringRefill / step);
+    }
+}
@@ -0,0 +1,32 @@
+package com.sachin.idgen.leaf.core.segment.policy;
+
+import com.sachin.idgen.leaf.core.segment.model.SegmentBuffer;
+import com.sachin.idgen.leaf.core.segment.model.TagConfig;
+
+/**
+ * 源码中的step调整策略：一个Segment维持的时间少于segmentDuration则step翻倍，
+ * 超过两倍segmentDuration则step减半，但是不小于数据库中配置的step
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class DefaultStepPolicy implements StepPolicy {
+
+    @Override
+    public int nextStep(SegmentBuffer buffer, TagConfig config, long duration) {
+        final long segmentDuration = config.getSegmentDurationMillis();
+        int nextStep = buffer.getStep();
+        if (duration < segmentDuration) {
+            if (nextStep * 2 > config.getMaxStep()) {
+
+            }else{
+                nextStep = nextStep * 2;
+            }
+        } else if (duration < segmentDuration * 2) {
+
+        }else{
+            nextStep = nextStep / 2 >= buffer.getMinStep() ? nextStep / 2 : nextStep;
+        }
+        return nextStep;
+    }
+}
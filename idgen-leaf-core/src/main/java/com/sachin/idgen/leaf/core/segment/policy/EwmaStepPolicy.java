@@ -0,0 +1,46 @@
+package com.sachin.idgen.leaf.core.segment.policy;
+
+import com.sachin.idgen.leaf.core.segment.model.SegmentBuffer;
+import com.sachin.idgen.leaf.core.segment.model.TagConfig;
+
+/**
+ * 根据实际消耗速度计算step：用指数加权移动平均（EWMA）平滑消耗速度，
+ * 使下一个Segment恰好维持segmentDuration，并且至少够 latencyFactor 次db装载期间的消耗。
+ *
+ * 消耗速度优先使用切换Segment时测量的值，它只与实际取号有关，不受预取深度的影响；
+ * 还没有切换过Segment时用 step / duration 估算。
+ * 相比翻倍/减半，突发流量时一次就可以把step调整到需要的大小，低流量时也能很快缩小step，减少重启时浪费的号段
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class EwmaStepPolicy implements StepPolicy {
+
+    /**
+     * 新样本的权重
+     */
+    private final double alpha;
+    private final double latencyFactor;
+
+    public EwmaStepPolicy() {
+        this(0.5, 4);
+    }
+
+    public EwmaStepPolicy(double alpha, double latencyFactor) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must in (0, 1]");
+        }
+        this.alpha = alpha;
+        this.latencyFactor = latencyFactor;
+    }
+
+    @Override
+    public int nextStep(SegmentBuffer buffer, TagConfig config, long duration) {
+        double sample = buffer.getSwitchTimestamp() > 0 ? buffer.getConsumeRate() : (double) buffer.getStep() / Math.max(1, duration);
+        double previous = buffer.getSmoothedConsumeRate();
+        double rate = previous > 0 ? alpha * sample + (1 - alpha) * previous : sample;
+        buffer.setSmoothedConsumeRate(rate);
+        double lasting = Math.max(config.getSegmentDurationMillis(), latencyFactor * buffer.getRefillLatency());
+        return (int) Math.min(Integer.MAX_VALUE, Math.ceil(rate * lasting));
+    }
+}
@@ -0,0 +1,29 @@
+package com.sachin.idgen.leaf.core.segment.policy;
+
+import com.sachin.idgen.leaf.core.segment.model.Segment;
+import com.sachin.idgen.leaf.core.segment.model.SegmentBuffer;
+
+/**
+ * Segment环的预取策略：决定什么时候开始准备后续的Segment，以及需要提前准备好几个Segment
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public interface SegmentRingPolicy {
+
+    /**
+     * 是否需要开始准备后续的Segment，每次取号都会调用，实现需要足够轻量
+     * @param buffer
+     * @param current 当前使用的Segment
+     * @param idle 当前Segment剩余的id个数
+     * @return
+     */
+    boolean shouldPrefetch(SegmentBuffer buffer, Segment current, long idle);
+
+    /**
+     * 需要提前准备好的Segment个数，切换Segment时调用，结果会被限制在[1, ringSize - 1]之间
+     * @param buffer
+     * @return
+     */
+    int prefetchDepth(SegmentBuffer buffer);
+}
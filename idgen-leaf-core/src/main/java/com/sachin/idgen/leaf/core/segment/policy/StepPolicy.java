@@ -0,0 +1,22 @@
+package com.sachin.idgen.leaf.core.segment.policy;
+
+import com.sachin.idgen.leaf.core.segment.model.SegmentBuffer;
+import com.sachin.idgen.leaf.core.segment.model.TagConfig;
+
+/**
+ * step的调整策略：从db装载Segment之前决定这次申请多少个id
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public interface StepPolicy {
+
+    /**
+     * 计算下一个Segment的step，只在准备nextSegment的线程中调用，同一个SegmentBuffer不会并发调用
+     * @param buffer
+     * @param config 业务tag的配置
+     * @param duration 距离上一次从db装载的时间，单位毫秒
+     * @return 下一个Segment的step，调用方会限制在[buffer.minStep, config.maxStep]之间
+     */
+    int nextStep(SegmentBuffer buffer, TagConfig config, long duration);
+}
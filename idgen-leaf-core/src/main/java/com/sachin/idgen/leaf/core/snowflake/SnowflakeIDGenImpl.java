@@ -0,0 +1,240 @@
+package com.sachin.idgen.leaf.core.snowflake;
+
+import com.sachin.idgen.leaf.core.IDGen;
+import com.sachin.idgen.leaf.core.common.BatchResult;
+import com.sachin.idgen.leaf.core.common.ImmutableResult;
+import com.sachin.idgen.leaf.core.common.Result;
+import com.sachin.idgen.leaf.core.common.Status;
+import com.sachin.idgen.leaf.core.common.Utils;
+import com.sachin.idgen.leaf.core.segment.SegmentIDGenImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+/**
+ * 基于时间戳的snowflake取号，取号完全在内存中完成，不需要访问db。
+ *
+ * id的组成：1位符号位 + 41位毫秒时间戳（相对于twepoch） + 10位workerId + 12位自增序列，
+ * workerId通过zookeeper的持久顺序节点分配，见 SnowflakeZookeeperHolder。workerId不会回收，
+ * 分配到的workerId超过 MAX_WORKER_ID 时init返回false
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class SnowflakeIDGenImpl implements IDGen {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnowflakeIDGenImpl.class);
+
+    /**
+     * 时钟回拨且无法通过等待追上时的异常码
+     */
+    public static final long EXCEPTION_ID_CLOCK_BACKWARDS = -5;
+
+    /**
+     * 等待时钟追上时线程被中断的异常码
+     */
+    public static final long EXCEPTION_ID_WAIT_INTERRUPTED = -6;
+
+    /**
+     * workerId未分配时的异常码
+     */
+    public static final long EXCEPTION_ID_WORKER_ID_NOT_READY = -7;
+
+    /**
+     * 默认的起始时间 2010-11-04 09:42:54
+     */
+    public static final long DEFAULT_TWEPOCH = 1288834974657L;
+
+    private static final long WORKER_ID_BITS = 10L;
+    public static final long MAX_WORKER_ID = ~(-1L << WORKER_ID_BITS);
+    private static final long SEQUENCE_BITS = 12L;
+    private static final long WORKER_ID_SHIFT = SEQUENCE_BITS;
+    private static final long TIMESTAMP_LEFT_SHIFT = SEQUENCE_BITS + WORKER_ID_BITS;
+    private static final long SEQUENCE_MASK = ~(-1L << SEQUENCE_BITS);
+
+    /**
+     * 时钟回拨不超过该值（毫秒）时等待时钟追上，超过时直接返回异常
+     */
+    private static final long MAX_BACKWARDS_WAIT_MS = 5;
+
+    private static final Random RANDOM = new Random();
+
+    private final long twepoch;
+    private final SnowflakeZookeeperHolder holder;
+    private volatile long workerId = -1;
+    private long sequence = 0L;
+    private long lastTimestamp = -1L;
+
+    /**
+     * 通过zookeeper分配workerId
+     * @param zkAddress zookeeper地址
+     * @param port 当前服务的端口，ip:port 唯一确定一个workerId
+     */
+    public SnowflakeIDGenImpl(String zkAddress, int port) {
+        this(zkAddress, port, DEFAULT_TWEPOCH);
+    }
+
+    public SnowflakeIDGenImpl(String zkAddress, int port, long twepoch) {
+        checkTwepoch(twepoch);
+        this.twepoch = twepoch;
+        this.holder = new SnowflakeZookeeperHolder(Utils.getIp(), String.valueOf(port), zkAddress);
+    }
+
+    /**
+     * 使用本地指定的workerId，不依赖zookeeper，适用于单机部署或测试
+     * @param workerId
+     * @param twepoch
+     */
+    public SnowflakeIDGenImpl(long workerId, long twepoch) {
+        checkTwepoch(twepoch);
+        checkWorkerId(workerId);
+        this.twepoch = twepoch;
+        this.holder = null;
+        this.workerId = workerId;
+    }
+
+    @Override
+    public boolean init() {
+        if (holder == null) {
+            return true;
+        }
+        if (!holder.init()) {
+            logger.error("snowflake id gen init failed, workerId not assigned");
+            return false;
+        }
+        long assigned = holder.getWorkerID();
+        if (assigned < 0 || assigned > MAX_WORKER_ID) {
+            /**
+             * workerId是持久顺序节点的序号，不会回收，累计出现过的 ip:port 超过 MAX_WORKER_ID + 1 个之后新的实例无法启动，
+             * 需要人工清理 forever 下不再使用的节点并重置顺序节点的计数
+             */
+            logger.error("snowflake id gen init failed, workerId {} out of range [0, {}]", assigned, MAX_WORKER_ID);
+            return false;
+        }
+        workerId = assigned;
+        logger.info("snowflake id gen init ok, workerId {}", workerId);
+        return true;
+    }
+
+    @Override
+    public Result get(String key) {
+        return ImmutableResult.of(nextId(key));
+    }
+
+    @Override
+    public synchronized long nextId(String key) {
+        if (workerId < 0) {
+            return EXCEPTION_ID_WORKER_ID_NOT_READY;
+        }
+        long timestamp = currentTimestamp();
+        if (timestamp < lastTimestamp) {
+            timestamp = waitForClock(timestamp);
+            if (timestamp < 0) {
+                return timestamp;
+            }
+        }
+        return generate(timestamp);
+    }
+
+    @Override
+    public synchronized BatchResult getBatch(String key, int count) {
+        if (workerId < 0) {
+            return new BatchResult(new long[]{EXCEPTION_ID_WORKER_ID_NOT_READY}, Status.EXCEPTION);
+        }
+        if (count <= 0) {
+            return new BatchResult(new long[]{SegmentIDGenImpl.EXCEPTION_ID_BATCH_COUNT_ILLEGAL}, Status.EXCEPTION);
+        }
+        final long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            long timestamp = currentTimestamp();
+            if (timestamp < lastTimestamp) {
+                timestamp = waitForClock(timestamp);
+                if (timestamp < 0) {
+                    return new BatchResult(new long[]{timestamp}, Status.EXCEPTION);
+                }
+            }
+            ids[i] = generate(timestamp);
+        }
+        return new BatchResult(ids, Status.SUCCESS);
+    }
+
+    /**
+     * 生成id，调用方需要持有当前对象的锁并保证timestamp不小于lastTimestamp
+     * @param timestamp
+     * @return
+     */
+    private long generate(long timestamp) {
+        if (lastTimestamp == timestamp) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                /**
+                 * 当前毫秒内的序列已经用完，等待下一毫秒
+                 */
+                sequence = RANDOM.nextInt(100);
+                timestamp = tilNextMillis(lastTimestamp);
+            }
+        } else {
+            /**
+             * 新的毫秒内序列从一个随机值开始，避免取号量小的时候id的末尾总是0，导致按id取模分库分表不均匀
+             */
+            sequence = RANDOM.nextInt(100);
+        }
+        lastTimestamp = timestamp;
+        return ((timestamp - twepoch) << TIMESTAMP_LEFT_SHIFT) | (workerId << WORKER_ID_SHIFT) | sequence;
+    }
+
+    /**
+     * 处理时钟回拨：回拨不超过 MAX_BACKWARDS_WAIT_MS 时等待回拨时间的两倍，之后时钟仍然落后则返回异常码
+     * @param timestamp 当前时间
+     * @return 追上之后的时间，或者异常码
+     */
+    private long waitForClock(long timestamp) {
+        long offset = lastTimestamp - timestamp;
+        if (offset > MAX_BACKWARDS_WAIT_MS) {
+            logger.error("clock moved backwards {}ms, refuse to generate id", offset);
+            return EXCEPTION_ID_CLOCK_BACKWARDS;
+        }
+        try {
+            wait(offset << 1);
+        } catch (InterruptedException e) {
+            logger.warn("Thread{} interrupted while waiting for clock", Thread.currentThread().getName());
+            Thread.currentThread().interrupt();
+            return EXCEPTION_ID_WAIT_INTERRUPTED;
+        }
+        timestamp = currentTimestamp();
+        if (timestamp < lastTimestamp) {
+            logger.error("clock moved backwards {}ms and did not catch up", lastTimestamp - timestamp);
+            return EXCEPTION_ID_CLOCK_BACKWARDS;
+        }
+        return timestamp;
+    }
+
+    private long tilNextMillis(long lastTimestamp) {
+        long timestamp = currentTimestamp();
+        while (timestamp <= lastTimestamp) {
+            timestamp = currentTimestamp();
+        }
+        return timestamp;
+    }
+
+    private long currentTimestamp() {
+        return System.currentTimeMillis();
+    }
+
+    private static void checkTwepoch(long twepoch) {
+        if (twepoch > System.currentTimeMillis()) {
+            throw new IllegalArgumentException("Snowflake not support twepoch gt currentTime");
+        }
+    }
+
+    private static void checkWorkerId(long workerId) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("workerID must gte 0 and lte " + MAX_WORKER_ID);
+        }
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+}
@@ -0,0 +1,241 @@
+package com.sachin.idgen.leaf.core.snowflake;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.commons.io.FileUtils;
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryUntilElapsed;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过zookeeper为snowflake分配workerId。
+ *
+ * 每个 ip:port 在 /snowflake/{leafName}/forever 下对应一个持久顺序节点，节点的序号就是workerId，
+ * 节点数据中记录了该节点最近一次上报的时间戳，启动时如果本机时间小于上报的时间戳说明发生了时钟回拨，拒绝启动。
+ * 分配到的workerId会缓存在本地文件中，zookeeper不可用时使用本地缓存的workerId启动
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class SnowflakeZookeeperHolder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnowflakeZookeeperHolder.class);
+
+    private static final String LEAF_NAME = "leaf-idgen";
+    private static final String PREFIX_ZK_PATH = "/snowflake/" + LEAF_NAME;
+    private static final String PATH_FOREVER = PREFIX_ZK_PATH + "/forever";
+    private static final String WORKER_ID_PROPERTY = "workerID";
+
+    /**
+     * 定时上报时间戳的间隔
+     */
+    private static final long REPORT_INTERVAL_SECONDS = 3;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String ip;
+    private final String port;
+    private final String connectionString;
+    private final String listenAddress;
+    private final String propPath;
+
+    /**
+     * 当前 ip:port 对应的持久顺序节点
+     */
+    private String zkAddressNode;
+    private int workerID;
+    private volatile long lastUpdateTime;
+
+    public SnowflakeZookeeperHolder(String ip, String port, String connectionString) {
+        this.ip = ip;
+        this.port = port;
+        this.connectionString = connectionString;
+        this.listenAddress = ip + ":" + port;
+        this.propPath = System.getProperty("java.io.tmpdir") + File.separator + LEAF_NAME + "/leafconf/" + port + "/workerID.properties";
+    }
+
+    public boolean init() {
+        CuratorFramework curator = null;
+        try {
+            curator = createWithOptions(connectionString, new RetryUntilElapsed(1000, 4), 10000, 6000);
+            curator.start();
+            Stat stat = curator.checkExists().forPath(PATH_FOREVER);
+            if (stat == null) {
+                /**
+                 * 第一次启动，创建根节点和当前节点
+                 */
+                zkAddressNode = createNode(curator);
+                workerID = parseSequence(zkAddressNode);
+            } else {
+                Map<String, Integer> nodeMap = new HashMap<>();
+                Map<String, String> realNode = new HashMap<>();
+                List<String> keys = curator.getChildren().forPath(PATH_FOREVER);
+                for (String key : keys) {
+                    String[] nodeKey = key.split("-");
+                    realNode.put(nodeKey[0], key);
+                    nodeMap.put(nodeKey[0], Integer.parseInt(nodeKey[1]));
+                }
+                Integer workerId = nodeMap.get(listenAddress);
+                if (workerId != null) {
+                    /**
+                     * 已经分配过workerId，需要校验本机时间不小于上次上报的时间
+                     */
+                    zkAddressNode = PATH_FOREVER + "/" + realNode.get(listenAddress);
+                    workerID = workerId;
+                    if (!checkInitTimeStamp(curator, zkAddressNode)) {
+                        /**
+                         * 时钟回拨时不能退化为使用本地缓存的workerId，否则可能生成重复的id
+                         */
+                        logger.error("init timestamp check error, forever node timestamp gt this node time");
+                        curator.close();
+                        return false;
+                    }
+                } else {
+                    zkAddressNode = createNode(curator);
+                    workerID = parseSequence(zkAddressNode);
+                }
+            }
+            updateLocalWorkerID(workerID);
+            scheduledUploadData(curator, zkAddressNode);
+            logger.info("snowflake workerId {} assigned by zookeeper node {}", workerID, zkAddressNode);
+            return true;
+        } catch (Exception e) {
+            logger.error("start node ERROR, try to use local workerId", e);
+            if (curator != null) {
+                curator.close();
+            }
+            return initFromLocalFile();
+        }
+    }
+
+    /**
+     * zookeeper不可用时使用本地缓存的workerId。
+     * 本地缓存只能保证同一台机器同一个端口重启之后拿到相同的workerId，无法校验时钟是否回拨
+     * @return
+     */
+    private boolean initFromLocalFile() {
+        File file = new File(propPath);
+        if (!file.exists()) {
+            logger.error("local workerId file {} not exists", propPath);
+            return false;
+        }
+        try {
+            Properties properties = new Properties();
+            properties.load(new StringReader(FileUtils.readFileToString(file, StandardCharsets.UTF_8)));
+            workerID = Integer.parseInt(properties.getProperty(WORKER_ID_PROPERTY));
+            logger.warn("START FAILED, use local node file properties workerID {}", workerID);
+            return true;
+        } catch (Exception e) {
+            logger.error("read local workerId file {} error", propPath, e);
+            return false;
+        }
+    }
+
+    private boolean checkInitTimeStamp(CuratorFramework curator, String zkAddressNode) throws Exception {
+        byte[] bytes = curator.getData().forPath(zkAddressNode);
+        Endpoint endPoint = deBuildData(bytes);
+        return endPoint.getTimestamp() <= System.currentTimeMillis();
+    }
+
+    private String createNode(CuratorFramework curator) throws Exception {
+        return curator.create()
+                .creatingParentsIfNeeded()
+                .withMode(CreateMode.PERSISTENT_SEQUENTIAL)
+                .forPath(PATH_FOREVER + "/" + listenAddress + "-", buildData());
+    }
+
+    private int parseSequence(String node) {
+        String[] nodeKey = node.split("-");
+        return Integer.parseInt(nodeKey[nodeKey.length - 1]);
+    }
+
+    /**
+     * 定时上报当前时间，用于下次启动时校验时钟回拨
+     * @param curator
+     * @param zkAddressNode
+     */
+    private void scheduledUploadData(final CuratorFramework curator, final String zkAddressNode) {
+        ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r, "schedule-upload-time");
+            t.setDaemon(true);
+            return t;
+        });
+        service.scheduleWithFixedDelay(() -> updateNewData(curator, zkAddressNode), 1L, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void updateNewData(CuratorFramework curator, String path) {
+        try {
+            if (System.currentTimeMillis() < lastUpdateTime) {
+                /**
+                 * 时钟回拨，不上报比上次更小的时间戳
+                 */
+                return;
+            }
+            curator.setData().forPath(path, buildData());
+            lastUpdateTime = System.currentTimeMillis();
+        } catch (Exception e) {
+            logger.info("update init data error path is {} error is {}", path, e);
+        }
+    }
+
+    private void updateLocalWorkerID(int workerID) {
+        File leafConfFile = new File(propPath);
+        try {
+            FileUtils.writeStringToFile(leafConfFile, WORKER_ID_PROPERTY + "=" + workerID, StandardCharsets.UTF_8);
+            logger.info("write local workerId file {} workerID {}", propPath, workerID);
+        } catch (IOException e) {
+            logger.warn("write local workerId file {} error", propPath, e);
+        }
+    }
+
+    private CuratorFramework createWithOptions(String connectionString, RetryPolicy retryPolicy, int connectionTimeoutMs, int sessionTimeoutMs) {
+        return CuratorFrameworkFactory.builder().connectString(connectionString)
+                .retryPolicy(retryPolicy)
+                .connectionTimeoutMs(connectionTimeoutMs)
+                .sessionTimeoutMs(sessionTimeoutMs)
+                .build();
+    }
+
+    private byte[] buildData() throws IOException {
+        Endpoint endpoint = new Endpoint(ip, port, System.currentTimeMillis());
+        return objectMapper.writeValueAsBytes(endpoint);
+    }
+
+    private Endpoint deBuildData(byte[] bytes) throws IOException {
+        return objectMapper.readValue(bytes, Endpoint.class);
+    }
+
+    public int getWorkerID() {
+        return workerID;
+    }
+
+    /**
+     * 上报到zookeeper节点中的数据
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class Endpoint {
+        private String ip;
+        private String port;
+        private long timestamp;
+    }
+}
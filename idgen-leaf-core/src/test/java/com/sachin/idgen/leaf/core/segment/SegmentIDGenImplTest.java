@@ -0,0 +1,368 @@
+package com.sachin.idgen.leaf.core.segment;
+
+import com.sachin.idgen.leaf.core.IdAllocator;
+import com.sachin.idgen.leaf.core.common.BatchResult;
+import com.sachin.idgen.leaf.core.common.RangeResult;
+import com.sachin.idgen.leaf.core.common.Result;
+import com.sachin.idgen.leaf.core.common.Status;
+import com.sachin.idgen.leaf.core.segment.dao.impl.FaultInjectingIDAllocDao;
+import com.sachin.idgen.leaf.core.segment.dao.impl.MemoryIDAllocDao;
+import com.sachin.idgen.leaf.core.segment.model.DegradeConfig;
+import com.sachin.idgen.leaf.core.segment.model.LazyLoadConfig;
+import com.sachin.idgen.leaf.core.segment.model.TagConfig;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 每种取号方式在并发下发放的id唯一；除了条带化取号之外，发放的id是从第一个id开始连续的，没有空洞。
+ * 所有用例分别在加锁模式和无锁模式下执行
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@RunWith(Parameterized.class)
+public class SegmentIDGenImplTest {
+
+    private static final String TAG = "test-tag";
+    private static final int THREADS = 8;
+
+    @Parameterized.Parameters(name = "lockFree={0}")
+    public static Collection<Object[]> modes() {
+        return Arrays.asList(new Object[][]{{false}, {true}});
+    }
+
+    private final boolean lockFree;
+    private final MemoryIDAllocDao dao = new MemoryIDAllocDao();
+    private SegmentIDGenImpl idGen;
+    private ExecutorService executor;
+
+    public SegmentIDGenImplTest(boolean lockFree) {
+        this.lockFree = lockFree;
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (idGen != null) {
+            idGen.close();
+        }
+    }
+
+    @Test
+    public void nextIdIsUniqueAndContiguous() throws Exception {
+        dao.addTag(TAG, 0, 100);
+        init(new TagConfig());
+        assertContiguous(concurrently(20000, () -> new long[]{idGen.nextId(TAG)}));
+    }
+
+    @Test
+    public void handleIsUniqueAndContiguous() throws Exception {
+        dao.addTag(TAG, 0, 100);
+        init(new TagConfig());
+        final IdAllocator handle = idGen.handle(TAG);
+        assertContiguous(concurrently(20000, () -> new long[]{handle.nextId()}));
+    }
+
+    @Test
+    public void batchIsUniqueAndContiguous() throws Exception {
+        dao.addTag(TAG, 0, 100);
+        init(new TagConfig());
+        assertContiguous(concurrently(500, () -> {
+            final BatchResult result = idGen.getBatch(TAG, 1 + ThreadLocalRandom.current().nextInt(300));
+            assertEquals(Status.SUCCESS, result.getStatus());
+            return result.getIds();
+        }));
+    }
+
+    @Test
+    public void asyncIsUniqueAndContiguous() throws Exception {
+        dao.addTag(TAG, 0, 100);
+        init(new TagConfig());
+        final List<Long> ids = concurrently(1000, () -> {
+            final int count = 1 + ThreadLocalRandom.current().nextInt(200);
+            switch (ThreadLocalRandom.current().nextInt(3)) {
+                case 0: {
+                    final Result result = idGen.getAsync(TAG).get(5, TimeUnit.SECONDS);
+                    assertEquals(Status.SUCCESS, result.getStatus());
+                    return new long[]{result.getId()};
+                }
+                case 1: {
+                    final BatchResult result = idGen.getBatchAsync(TAG, count).get(5, TimeUnit.SECONDS);
+                    assertEquals(Status.SUCCESS, result.getStatus());
+                    return result.getIds();
+                }
+                default: {
+                    final RangeResult result = idGen.leaseAsync(TAG, count).get(5, TimeUnit.SECONDS);
+                    assertEquals(Status.SUCCESS, result.getStatus());
+                    return expand(result.getRanges(), count);
+                }
+            }
+        });
+        assertContiguous(ids);
+    }
+
+    /**
+     * 线程持有但没有发放的id会被跳过，因此只校验唯一
+     */
+    @Test
+    public void stripedIsUnique() throws Exception {
+        dao.addTag(TAG, 0, 100);
+        final TagConfig config = new TagConfig();
+        config.setStripedChunkSize(16);
+        init(config);
+        assertUnique(concurrently(20000, () -> new long[]{idGen.nextId(TAG)}));
+    }
+
+    @Test
+    public void ringIsUniqueAndContiguous() throws Exception {
+        dao.addTag(TAG, 0, 100);
+        final TagConfig config = new TagConfig();
+        config.setRingSize(4);
+        init(config);
+        assertContiguous(concurrently(500, () -> {
+            final BatchResult result = idGen.getBatch(TAG, 1 + ThreadLocalRandom.current().nextInt(100));
+            assertEquals(Status.SUCCESS, result.getStatus());
+            return result.getIds();
+        }));
+    }
+
+    @Test
+    public void batchedRefillIsUniqueAndContiguous() throws Exception {
+        final String[] tags = {"batched-1", "batched-2", "batched-3", "batched-4"};
+        for (String tag : tags) {
+            dao.addTag(tag, 0, 100);
+        }
+        idGen = newIdGen(new TagConfig());
+        idGen.enableRefillBatching(1, 16, 2);
+        assertTrue(idGen.init());
+        final List<Long>[] ids = concurrently(tags.length, 5000, (thread) -> new long[]{idGen.nextId(tags[thread % tags.length])});
+        for (List<Long> perTag : ids) {
+            assertContiguous(perTag);
+        }
+    }
+
+    /**
+     * 业务tag空闲被淘汰时没有发放的号段归还给db，重新装载之后从归还的位置继续发放
+     */
+    @Test
+    public void evictedTagIsReloadedContiguously() throws Exception {
+        dao.addTag(TAG, 0, 100);
+        idGen = newIdGen(new TagConfig());
+        final LazyLoadConfig lazyLoadConfig = new LazyLoadConfig();
+        lazyLoadConfig.setEnabled(true);
+        lazyLoadConfig.setIdleTtlMillis(50);
+        lazyLoadConfig.setEvictIntervalMillis(20);
+        idGen.setLazyLoadConfig(lazyLoadConfig);
+        assertTrue(idGen.init());
+
+        final List<Long> ids = new ArrayList<>(concurrently(1000, () -> new long[]{idGen.nextId(TAG)}));
+        waitUntil(() -> !idGen.getCache().containsKey(TAG), 3000);
+        ids.addAll(concurrently(1000, () -> new long[]{idGen.nextId(TAG)}));
+        assertContiguous(ids);
+    }
+
+    /**
+     * db不可用时熔断器打开，取号快速失败；db恢复之后熔断器关闭，发放的id与故障之前的不重复
+     */
+    @Test
+    public void breakerFailsFastAndRecovers() throws Exception {
+        dao.addTag(TAG, 0, 100);
+        final FaultInjectingIDAllocDao faulty = new FaultInjectingIDAllocDao(dao);
+        idGen = new SegmentIDGenImpl();
+        idGen.setIdAllocDao(faulty);
+        idGen.setLockFree(lockFree);
+        final DegradeConfig degradeConfig = new DegradeConfig();
+        degradeConfig.setEnabled(true);
+        degradeConfig.setFailureThreshold(1);
+        degradeConfig.setOpenMillis(100);
+        degradeConfig.setMaxBlockMillis(200);
+        idGen.setDegradeConfig(degradeConfig);
+        assertTrue(idGen.init());
+
+        final Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(ids.add(idGen.nextId(TAG)));
+        }
+        faulty.setFailureRate(1);
+        long id;
+        final long start = System.nanoTime();
+        while ((id = idGen.nextId(TAG)) >= 0) {
+            assertTrue(ids.add(id));
+        }
+        assertEquals(SegmentIDGenImpl.EXCEPTION_ID_DB_UNAVAILABLE, id);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+
+        faulty.setFailureRate(0);
+        final long deadline = System.currentTimeMillis() + 3000;
+        while ((id = idGen.nextId(TAG)) < 0) {
+            assertTrue("breaker did not close", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertTrue(ids.add(id));
+        for (int i = 0; i < 500; i++) {
+            assertTrue(ids.add(idGen.nextId(TAG)));
+        }
+    }
+
+    /**
+     * 没有开启降级时db不可用，阻塞取号等待blockTimeoutMillis之后返回，不会无限等待
+     */
+    @Test
+    public void blockingWaitIsBoundedWithoutDegrade() throws Exception {
+        dao.addTag(TAG, 0, 100);
+        final FaultInjectingIDAllocDao faulty = new FaultInjectingIDAllocDao(dao);
+        idGen = new SegmentIDGenImpl();
+        idGen.setIdAllocDao(faulty);
+        idGen.setLockFree(lockFree);
+        final TagConfig config = new TagConfig();
+        config.setBlockTimeoutMillis(200);
+        idGen.setDefaultTagConfig(config);
+        assertTrue(idGen.init());
+
+        faulty.setFailureRate(1);
+        long id;
+        final long start = System.nanoTime();
+        while ((id = idGen.nextId(TAG)) >= 0) {
+        }
+        assertEquals(SegmentIDGenImpl.EXCEPTION_ID_DB_UNAVAILABLE, id);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void unknownTagAndIllegalCount() throws Exception {
+        dao.addTag(TAG, 0, 100);
+        init(new TagConfig());
+        assertEquals(SegmentIDGenImpl.EXCEPTION_ID_KEY_NOT_EXISTS, idGen.nextId("missing"));
+        assertEquals(SegmentIDGenImpl.EXCEPTION_ID_BATCH_COUNT_ILLEGAL, idGen.getBatch(TAG, 0).getIds()[0]);
+        assertEquals(SegmentIDGenImpl.EXCEPTION_ID_KEY_NOT_EXISTS, idGen.leaseAsync("missing", 10).get().getRanges()[0]);
+    }
+
+    private interface IdSource {
+        long[] next() throws Exception;
+    }
+
+    private interface ThreadIdSource {
+        long[] next(int thread) throws Exception;
+    }
+
+    private SegmentIDGenImpl newIdGen(TagConfig config) {
+        final SegmentIDGenImpl gen = new SegmentIDGenImpl();
+        gen.setIdAllocDao(dao);
+        gen.setLockFree(lockFree);
+        gen.setDefaultTagConfig(config);
+        return gen;
+    }
+
+    private void init(TagConfig config) {
+        idGen = newIdGen(config);
+        assertTrue(idGen.init());
+    }
+
+    /**
+     * THREADS个线程各自调用rounds次source
+     * @return 所有线程取到的id
+     */
+    private List<Long> concurrently(int rounds, final IdSource source) throws Exception {
+        return concurrently(1, rounds, (thread) -> source.next())[0];
+    }
+
+    /**
+     * @param groups 按照线程序号对groups取模分组
+     * @return 每一组线程取到的id
+     */
+    @SuppressWarnings("unchecked")
+    private List<Long>[] concurrently(int groups, final int rounds, final ThreadIdSource source) throws Exception {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS);
+        }
+        final List<Future<List<Long>>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                final List<Long> ids = new ArrayList<>();
+                for (int i = 0; i < rounds; i++) {
+                    for (long id : source.next(thread)) {
+                        ids.add(id);
+                    }
+                }
+                return ids;
+            }));
+        }
+        final List<Long>[] result = new List[groups];
+        for (int g = 0; g < groups; g++) {
+            result[g] = new ArrayList<>();
+        }
+        for (int t = 0; t < THREADS; t++) {
+            result[t % groups].addAll(futures.get(t).get(30, TimeUnit.SECONDS));
+        }
+        return result;
+    }
+
+    private static long[] expand(long[] ranges, int count) {
+        final long[] ids = new long[count];
+        int index = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (long id = ranges[i]; id < ranges[i + 1]; id++) {
+                ids[index++] = id;
+            }
+        }
+        assertEquals(count, index);
+        return ids;
+    }
+
+    private static void assertUnique(List<Long> ids) {
+        final Set<Long> unique = new HashSet<>();
+        for (long id : ids) {
+            assertTrue("illegal id " + id, id >= 0);
+            assertTrue("duplicate id " + id, unique.add(id));
+        }
+    }
+
+    private static void assertContiguous(List<Long> ids) {
+        final long[] sorted = new long[ids.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = ids.get(i);
+        }
+        Arrays.sort(sorted);
+        assertTrue("illegal id " + sorted[0], sorted[0] >= 0);
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[i - 1] + 1) {
+                fail(sorted[i] == sorted[i - 1] ? "duplicate id " + sorted[i] : "gap between " + sorted[i - 1] + " and " + sorted[i]);
+            }
+        }
+    }
+
+    private interface Condition {
+        boolean test();
+    }
+
+    private static void waitUntil(Condition condition, long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.test()) {
+            assertTrue("condition not met in " + timeoutMillis + "ms", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.sachin.idgen.leaf.core.segment.dao.impl;
+
+import com.sachin.idgen.leaf.core.segment.SegmentIDGenImpl;
+import com.sachin.idgen.leaf.core.segment.model.LeafAlloc;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 两个分片，每个分片的主库和备库都是内嵌的H2内存库，备库中的max_id落后于主库，模拟异步复制的延迟
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class ShardingIDAllocDaoTest {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private static final String DDL = "create table leaf_alloc ("
+            + "big_tag varchar(128) not null primary key, "
+            + "max_id bigint not null default 1, "
+            + "step int not null, "
+            + "description varchar(256), "
+            + "update_time timestamp not null default current_timestamp)";
+
+    private H2DataSource primary1;
+    private H2DataSource standby1;
+    private H2DataSource primary2;
+    private H2DataSource standby2;
+    private ShardingIDAllocDao dao;
+    private SegmentIDGenImpl idGen;
+
+    /**
+     * 主库不可用时获取连接抛出SQLState为08的异常，与连接被拒绝相同
+     */
+    private static class H2DataSource extends UnpooledDataSource {
+
+        private volatile boolean down = false;
+
+        private H2DataSource(String name) {
+            super("org.h2.Driver", "jdbc:h2:mem:" + name + "-" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (down) {
+                throw new SQLNonTransientConnectionException("connection refused", "08001");
+            }
+            return super.getConnection();
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            if (down) {
+                throw new SQLNonTransientConnectionException("connection refused", "08001");
+            }
+            return super.getConnection(username, password);
+        }
+
+        private void execute(String sql) throws SQLException {
+            try (Connection connection = getConnection(); Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+            }
+        }
+
+        private void insert(String tag, long maxId, int step) throws SQLException {
+            execute("insert into leaf_alloc(big_tag, max_id, step) values('" + tag + "', " + maxId + ", " + step + ")");
+        }
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        primary1 = new H2DataSource("shard1");
+        standby1 = new H2DataSource("shard1-standby");
+        primary2 = new H2DataSource("shard2");
+        standby2 = new H2DataSource("shard2-standby");
+        for (H2DataSource dataSource : Arrays.asList(primary1, standby1, primary2, standby2)) {
+            dataSource.execute(DDL);
+        }
+        dao = new ShardingIDAllocDao(Arrays.asList(
+                new ShardingIDAllocDao.Shard("shard1", new IDAllocDaoImpl(primary1), new IDAllocDaoImpl(standby1)),
+                new ShardingIDAllocDao.Shard("shard2", new IDAllocDaoImpl(primary2), new IDAllocDaoImpl(standby2))));
+    }
+
+    @After
+    public void tearDown() {
+        if (idGen != null) {
+            idGen.close();
+        }
+        dao.close();
+    }
+
+    @Test
+    public void tagsAreAllocatedOnTheirShard() throws SQLException {
+        final List<String> tags = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tags.add("tag-" + i);
+            insert("tag-" + i, 1, 10);
+        }
+        assertEquals(20, dao.getAllTags().size());
+        assertEquals(20, dao.countTags());
+
+        idGen = newIdGen();
+        for (String tag : tags) {
+            long previous = -1;
+            for (int i = 0; i < 100; i++) {
+                final long id = idGen.nextId(tag);
+                assertTrue("illegal id " + id + " of " + tag, id > previous);
+                previous = id;
+            }
+        }
+        for (String tag : tags) {
+            assertTrue(maxId(primaryOf(tag), tag) > 100);
+            assertEquals(-1, maxId(standbyOf(tag), tag));
+        }
+    }
+
+    /**
+     * 主库连续连接失败之后切换到备库，切换之前把备库落后的max_id提升到从主库读到的值，切换前后发放的id不重复
+     */
+    @Test
+    public void failoverFencesLaggingStandby() throws SQLException {
+        final String tag = "failover-tag";
+        insert(tag, 1, 10);
+        standbyOf(tag).insert(tag, 1, 10);
+        final ShardingIDAllocDao.Shard shard = dao.route(tag);
+
+        idGen = newIdGen();
+        final Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ids.add(idGen.nextId(tag)));
+        }
+        final long primaryMaxId = maxId(primaryOf(tag), tag);
+        primaryOf(tag).down = true;
+
+        int issued = 0;
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (issued < 100) {
+            assertTrue("shard did not fail over", System.currentTimeMillis() < deadline);
+            final long id = idGen.nextId(tag);
+            if (id >= 0) {
+                assertTrue("duplicate id " + id, ids.add(id));
+                issued++;
+            }
+        }
+        assertTrue(shard.isFailedOver());
+        assertTrue(maxId(standbyOf(tag), tag) > primaryMaxId);
+    }
+
+    /**
+     * 主库返回的不是连接级别的失败时不切换，异常直接抛给调用方
+     */
+    @Test
+    public void sqlErrorDoesNotFailOver() throws SQLException {
+        final String tag = "broken-tag";
+        insert(tag, 1, 10);
+        standbyOf(tag).insert(tag, 1, 10);
+        primaryOf(tag).execute("drop table leaf_alloc");
+        for (int i = 0; i < dao.getFailoverThreshold() + 1; i++) {
+            try {
+                dao.updateMaxIdAndGetLeafAlloc(tag);
+                fail("expected exception");
+            } catch (RuntimeException expected) {
+            }
+        }
+        assertFalse(dao.route(tag).isFailedOver());
+    }
+
+    @Test
+    public void manualFailoverAndFailback() throws SQLException {
+        final String tag = "manual-tag";
+        insert(tag, 1, 10);
+        standbyOf(tag).insert(tag, 1, 10);
+        final ShardingIDAllocDao.Shard shard = dao.route(tag);
+
+        final LeafAlloc fromPrimary = dao.updateMaxIdAndGetLeafAlloc(tag);
+        assertNotNull(fromPrimary);
+        dao.failover(shard.getName());
+        assertTrue(shard.isFailedOver());
+        final LeafAlloc fromStandby = dao.updateMaxIdAndGetLeafAlloc(tag);
+        assertTrue(fromStandby.getMaxId() > fromPrimary.getMaxId());
+        assertEquals(fromPrimary.getMaxId(), maxId(primaryOf(tag), tag));
+
+        dao.failback(shard.getName());
+        assertFalse(shard.isFailedOver());
+        assertEquals(fromPrimary.getMaxId() + 10, dao.updateMaxIdAndGetLeafAlloc(tag).getMaxId());
+    }
+
+    private SegmentIDGenImpl newIdGen() {
+        final SegmentIDGenImpl gen = new SegmentIDGenImpl();
+        gen.setIdAllocDao(dao);
+        assertTrue(gen.init());
+        return gen;
+    }
+
+    private void insert(String tag, long maxId, int step) throws SQLException {
+        primaryOf(tag).insert(tag, maxId, step);
+    }
+
+    private H2DataSource primaryOf(String tag) {
+        return "shard1".equals(dao.route(tag).getName()) ? primary1 : primary2;
+    }
+
+    private H2DataSource standbyOf(String tag) {
+        return "shard1".equals(dao.route(tag).getName()) ? standby1 : standby2;
+    }
+
+    private static long maxId(H2DataSource dataSource, String tag) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             ResultSet resultSet = connection.createStatement().executeQuery("select max_id from leaf_alloc where big_tag = '" + tag + "'")) {
+            return resultSet.next() ? resultSet.getLong(1) : -1;
+        }
+    }
+}
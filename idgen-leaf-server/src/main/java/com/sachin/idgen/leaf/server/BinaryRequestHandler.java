@@ -0,0 +1,132 @@
+package com.sachin.idgen.leaf.server;
+
+import com.sachin.idgen.leaf.client.protocol.IdProtocol;
+import com.sachin.idgen.leaf.client.protocol.IdRequest;
+import com.sachin.idgen.leaf.client.protocol.IdResponse;
+import com.sachin.idgen.leaf.core.common.BatchResult;
+import com.sachin.idgen.leaf.core.common.RangeResult;
+import com.sachin.idgen.leaf.core.common.Result;
+import com.sachin.idgen.leaf.core.common.Status;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 处理二进制协议的请求，每个连接一个实例。
+ *
+ * 内存中有可用id时在IO线程中直接写入响应，同一次read解码出的所有请求的响应在channelReadComplete时一起flush；
+ * 需要等待Segment装载的请求在装载完成之后写入响应，写入动作切回IO线程执行。
+ * 未完成的请求数达到上限时暂停读取，降到一半以下时恢复
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class BinaryRequestHandler extends SimpleChannelInboundHandler<IdRequest> {
+
+    private static final Logger logger = LoggerFactory.getLogger(BinaryRequestHandler.class);
+
+    private final IdService service;
+    private final int maxPendingRequests;
+    /**
+     * 等待Segment装载的请求数，只在IO线程中访问
+     */
+    private int pending = 0;
+
+    public BinaryRequestHandler(IdService service, int maxPendingRequests) {
+        this.service = service;
+        this.maxPendingRequests = maxPendingRequests;
+    }
+
+    @Override
+    protected void channelRead0(final ChannelHandlerContext ctx, final IdRequest request) {
+        switch (request.getType()) {
+            case IdProtocol.TYPE_GET: {
+                CompletableFuture<Result> future = service.get(request.getKey());
+                Result result = future.getNow(null);
+                if (result != null) {
+                    ctx.write(toResponse(request, result));
+                    return;
+                }
+                suspend(ctx);
+                future.whenComplete((r, t) -> resume(ctx, t == null ? toResponse(request, r) : error(request, t)));
+                return;
+            }
+            case IdProtocol.TYPE_BATCH: {
+                CompletableFuture<BatchResult> future = service.getBatch(request.getKey(), request.getCount());
+                BatchResult result = future.getNow(null);
+                if (result != null) {
+                    ctx.write(toResponse(request, result));
+                    return;
+                }
+                suspend(ctx);
+                future.whenComplete((r, t) -> resume(ctx, t == null ? toResponse(request, r) : error(request, t)));
+                return;
+            }
+            case IdProtocol.TYPE_LEASE: {
+                CompletableFuture<RangeResult> future = service.lease(request.getKey(), request.getCount());
+                RangeResult result = future.getNow(null);
+                if (result != null) {
+                    ctx.write(toLeaseResponse(request, result));
+                    return;
+                }
+                suspend(ctx);
+                future.whenComplete((r, t) -> resume(ctx, t == null ? toLeaseResponse(request, r) : error(request, t)));
+                return;
+            }
+            default:
+                logger.warn("unknown request type {} from {}, close it", request.getType(), ctx.channel().remoteAddress());
+                ctx.close();
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        ctx.flush();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        logger.warn("binary connection {} exception, close it", ctx.channel().remoteAddress(), cause);
+        ctx.close();
+    }
+
+    private void suspend(ChannelHandlerContext ctx) {
+        if (++pending >= maxPendingRequests) {
+            ctx.channel().config().setAutoRead(false);
+        }
+    }
+
+    private void resume(final ChannelHandlerContext ctx, final IdResponse response) {
+        if (!ctx.executor().inEventLoop()) {
+            ctx.executor().execute(() -> resume(ctx, response));
+            return;
+        }
+        ctx.writeAndFlush(response);
+        if (--pending <= maxPendingRequests / 2 && !ctx.channel().config().isAutoRead()) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    private static IdResponse toResponse(IdRequest request, Result result) {
+        return new IdResponse(request.getRequestId(), request.getType(), result.getStatus(), new long[]{result.getId()});
+    }
+
+    private static IdResponse toResponse(IdRequest request, BatchResult result) {
+        return new IdResponse(request.getRequestId(), request.getType(), result.getStatus(), result.getIds());
+    }
+
+    /**
+     * 租用号段的响应中只返回区间，不返回每一个id；失败时ranges中只有异常码，与批量取号相同
+     */
+    private static IdResponse toLeaseResponse(IdRequest request, RangeResult result) {
+        return new IdResponse(request.getRequestId(), request.getType(), result.getStatus(), result.getRanges());
+    }
+
+    private static IdResponse error(IdRequest request, Throwable t) {
+        logger.warn("get id for {} exception", request.getKey(), t);
+        return new IdResponse(request.getRequestId(), request.getType(), Status.EXCEPTION, new long[]{IdProtocol.EXCEPTION_ID_SERVER_ERROR});
+    }
+}
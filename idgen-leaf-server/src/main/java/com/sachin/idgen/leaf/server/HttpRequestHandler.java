@@ -0,0 +1,183 @@
+package com.sachin.idgen.leaf.server;
+
+import com.sachin.idgen.leaf.client.protocol.IdProtocol;
+import com.sachin.idgen.leaf.core.common.BatchResult;
+import com.sachin.idgen.leaf.core.common.Result;
+import com.sachin.idgen.leaf.core.common.Status;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 处理HTTP取号请求，每个连接一个实例，接口与Leaf原有的HTTP接口兼容：
+ * GET /api/segment/get/{key} 返回一个id；
+ * GET /api/segment/batch/{key}?count=n 返回n个id，以逗号分隔。
+ * 取号失败时返回500，响应体为异常码。
+ *
+ * HTTP/1.1的pipeline要求按照请求的顺序返回响应，异步完成的响应先排队，前面的响应都写出之后才写出
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpRequestHandler.class);
+
+    private static final String GET_PREFIX = "/api/segment/get/";
+    private static final String BATCH_PREFIX = "/api/segment/batch/";
+
+    private final IdService service;
+    /**
+     * 按照请求顺序排队的响应，只在IO线程中访问
+     */
+    private final ArrayDeque<PendingResponse> responses = new ArrayDeque<>();
+
+    private static class PendingResponse {
+        private final boolean keepAlive;
+        private FullHttpResponse response;
+
+        private PendingResponse(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+    }
+
+    public HttpRequestHandler(IdService service) {
+        this.service = service;
+    }
+
+    @Override
+    protected void channelRead0(final ChannelHandlerContext ctx, FullHttpRequest request) {
+        final PendingResponse pending = new PendingResponse(HttpUtil.isKeepAlive(request));
+        responses.add(pending);
+        if (!request.decoderResult().isSuccess()) {
+            complete(ctx, pending, response(HttpResponseStatus.BAD_REQUEST, "bad request"));
+            return;
+        }
+        if (request.method() != HttpMethod.GET) {
+            complete(ctx, pending, response(HttpResponseStatus.METHOD_NOT_ALLOWED, "only GET is supported"));
+            return;
+        }
+        final QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
+        final String path = decoder.path();
+        if (path.startsWith(GET_PREFIX) && path.length() > GET_PREFIX.length()) {
+            service.get(path.substring(GET_PREFIX.length()))
+                    .whenComplete((r, t) -> complete(ctx, pending, t == null ? toResponse(r) : error(t)));
+        } else if (path.startsWith(BATCH_PREFIX) && path.length() > BATCH_PREFIX.length()) {
+            final int count;
+            try {
+                List<String> counts = decoder.parameters().get("count");
+                count = counts == null ? 1 : Integer.parseInt(counts.get(0));
+            } catch (NumberFormatException e) {
+                complete(ctx, pending, response(HttpResponseStatus.BAD_REQUEST, "bad count"));
+                return;
+            }
+            service.getBatch(path.substring(BATCH_PREFIX.length()), count)
+                    .whenComplete((r, t) -> complete(ctx, pending, t == null ? toResponse(r) : error(t)));
+        } else {
+            complete(ctx, pending, response(HttpResponseStatus.NOT_FOUND, "not found"));
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        ctx.flush();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for (PendingResponse pending : responses) {
+            if (pending.response != null) {
+                pending.response.release();
+            }
+        }
+        responses.clear();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        logger.warn("http connection {} exception, close it", ctx.channel().remoteAddress(), cause);
+        ctx.close();
+    }
+
+    private void complete(final ChannelHandlerContext ctx, final PendingResponse pending, final FullHttpResponse response) {
+        if (!ctx.executor().inEventLoop()) {
+            ctx.executor().execute(() -> complete(ctx, pending, response));
+            return;
+        }
+        if (!ctx.channel().isActive()) {
+            response.release();
+            return;
+        }
+        pending.response = response;
+        boolean written = false;
+        PendingResponse head;
+        while ((head = responses.peek()) != null && head.response != null) {
+            responses.poll();
+            written = true;
+            if (head.keepAlive) {
+                head.response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+                ctx.write(head.response);
+            } else {
+                ctx.writeAndFlush(head.response).addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+        }
+        if (written) {
+            ctx.flush();
+        }
+    }
+
+    private static FullHttpResponse toResponse(Result result) {
+        if (result.getStatus() != Status.SUCCESS) {
+            return response(HttpResponseStatus.INTERNAL_SERVER_ERROR, String.valueOf(result.getId()));
+        }
+        return response(HttpResponseStatus.OK, String.valueOf(result.getId()));
+    }
+
+    private static FullHttpResponse toResponse(BatchResult result) {
+        final long[] ids = result.getIds();
+        if (result.getStatus() != Status.SUCCESS) {
+            return response(HttpResponseStatus.INTERNAL_SERVER_ERROR, String.valueOf(ids[0]));
+        }
+        final StringBuilder sb = new StringBuilder(ids.length * 12);
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(ids[i]);
+        }
+        return response(HttpResponseStatus.OK, sb.toString());
+    }
+
+    private static FullHttpResponse error(Throwable t) {
+        logger.warn("get id exception", t);
+        return response(HttpResponseStatus.INTERNAL_SERVER_ERROR, String.valueOf(IdProtocol.EXCEPTION_ID_SERVER_ERROR));
+    }
+
+    private static FullHttpResponse response(HttpResponseStatus status, String body) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status,
+                Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+        return response;
+    }
+}
@@ -0,0 +1,105 @@
+package com.sachin.idgen.leaf.server;
+
+import com.sachin.idgen.leaf.core.IDGen;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 独立部署的取号服务，少量的取号服务持有号段，业务服务通过网络取号，不再各自访问leaf_alloc表。
+ *
+ * 基于Netty，二进制协议与HTTP共用一个端口，连接建立之后由ProtocolDetector根据前两个字节选择协议。
+ * 二进制协议支持pipeline、批量取号以及客户端租用号段，见IdProtocol
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class IdServer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdServer.class);
+
+    private final IdServerConfig config;
+    private final IdService service;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel channel;
+
+    public IdServer(IDGen idGen, IdServerConfig config) {
+        this.config = config;
+        this.service = new IdService(idGen, config.getMaxBatchCount(), config.getMaxLeaseCount());
+    }
+
+    /**
+     * 绑定端口，IDGen需要已经init
+     * @throws InterruptedException
+     */
+    public synchronized void start() throws InterruptedException {
+        if (channel != null) {
+            throw new IllegalStateException("server already started");
+        }
+        bossGroup = new NioEventLoopGroup(config.getBossThreads(), new DefaultThreadFactory("leaf-server-boss"));
+        workerGroup = new NioEventLoopGroup(config.getWorkerThreads(), new DefaultThreadFactory("leaf-server-worker"));
+        try {
+            ServerBootstrap bootstrap = new ServerBootstrap()
+                    .group(bossGroup, workerGroup)
+                    .channel(NioServerSocketChannel.class)
+                    .option(ChannelOption.SO_BACKLOG, config.getBacklog())
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new ProtocolDetector(service, config));
+                        }
+                    });
+            channel = bootstrap.bind(config.getHost(), config.getPort()).sync().channel();
+        } catch (InterruptedException | RuntimeException e) {
+            shutdownGroups();
+            throw e;
+        }
+        logger.info("leaf server listening on {}", channel.localAddress());
+    }
+
+    /**
+     * 实际绑定的端口
+     * @return
+     */
+    public int getPort() {
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    /**
+     * 关闭端口和所有连接，不关闭IDGen
+     */
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        channel.close().syncUninterruptibly();
+        shutdownGroups();
+        channel = null;
+        logger.info("leaf server closed");
+    }
+
+    private void shutdownGroups() {
+        bossGroup.shutdownGracefully(0, 2, TimeUnit.SECONDS).syncUninterruptibly();
+        workerGroup.shutdownGracefully(0, 2, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    public IdServerConfig getConfig() {
+        return config;
+    }
+}
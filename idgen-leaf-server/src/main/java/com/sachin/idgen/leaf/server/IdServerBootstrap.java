@@ -0,0 +1,124 @@
+package com.sachin.idgen.leaf.server;
+
+import com.sachin.idgen.leaf.core.segment.SegmentIDGenImpl;
+import com.sachin.idgen.leaf.core.segment.dao.IDAllocDao;
+import com.sachin.idgen.leaf.core.segment.dao.impl.IDAllocDaoImpl;
+import com.sachin.idgen.leaf.core.segment.dao.impl.MappedFileIDAllocDao;
+import com.sachin.idgen.leaf.core.segment.dao.impl.MemoryIDAllocDao;
+import com.sachin.idgen.leaf.core.segment.model.DegradeConfig;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+
+/**
+ * 取号服务的启动入口，读取配置文件，创建SegmentIDGenImpl并启动IdServer，例如：
+ * java -jar idgen-leaf-server/target/leaf-server.jar leaf-server.properties
+ * 不指定配置文件时读取classpath中的leaf-server.properties。
+ *
+ * leaf.segment.dao 选择号段的存储：jdbc 使用leaf_alloc表；file 使用MappedFileIDAllocDao；
+ * memory 使用MemoryIDAllocDao，业务tag由 leaf.memory.tags 指定，只用于测试
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class IdServerBootstrap {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdServerBootstrap.class);
+
+    private static final String DEFAULT_CONFIG = "leaf-server.properties";
+
+    public static void main(String[] args) throws Exception {
+        final Properties properties = load(args.length > 0 ? args[0] : null);
+        final IDAllocDao dao = createDao(properties);
+
+        final SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+        idGen.setIdAllocDao(dao);
+        idGen.setLockFree(Boolean.parseBoolean(properties.getProperty("leaf.segment.lockFree", "false")));
+        idGen.setDegradeConfig(degradeConfig(properties));
+        if (!idGen.init()) {
+            throw new IllegalStateException("segment id gen init failed");
+        }
+
+        IdServerConfig config = new IdServerConfig();
+        config.setHost(properties.getProperty("leaf.server.host", config.getHost()));
+        config.setPort(Integer.parseInt(properties.getProperty("leaf.server.port", String.valueOf(config.getPort()))));
+        config.setWorkerThreads(Integer.parseInt(properties.getProperty("leaf.server.workerThreads", String.valueOf(config.getWorkerThreads()))));
+        config.setHttpEnabled(Boolean.parseBoolean(properties.getProperty("leaf.server.httpEnabled", String.valueOf(config.isHttpEnabled()))));
+        config.setMaxBatchCount(Integer.parseInt(properties.getProperty("leaf.server.maxBatchCount", String.valueOf(config.getMaxBatchCount()))));
+        config.setMaxLeaseCount(Integer.parseInt(properties.getProperty("leaf.server.maxLeaseCount", String.valueOf(config.getMaxLeaseCount()))));
+
+        final IdServer server = new IdServer(idGen, config);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            idGen.close();
+            if (dao instanceof Closeable) {
+                try {
+                    ((Closeable) dao).close();
+                } catch (IOException e) {
+                    logger.warn("close dao exception", e);
+                }
+            }
+        }, "leaf-server-shutdown"));
+    }
+
+    private static Properties load(String path) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = path != null ? new FileInputStream(path)
+                : IdServerBootstrap.class.getClassLoader().getResourceAsStream(DEFAULT_CONFIG)) {
+            if (in == null) {
+                throw new IOException(DEFAULT_CONFIG + " not found in classpath");
+            }
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    private static DegradeConfig degradeConfig(Properties properties) {
+        DegradeConfig config = new DegradeConfig();
+        config.setEnabled(Boolean.parseBoolean(properties.getProperty("leaf.segment.degrade.enabled", String.valueOf(config.isEnabled()))));
+        config.setMaxBlockMillis(Long.parseLong(properties.getProperty("leaf.segment.degrade.maxBlockMillis", String.valueOf(config.getMaxBlockMillis()))));
+        config.setSlowCallMillis(Long.parseLong(properties.getProperty("leaf.segment.degrade.slowCallMillis", String.valueOf(config.getSlowCallMillis()))));
+        final String reserveTags = properties.getProperty("leaf.segment.degrade.reserveTags", "").trim();
+        if (!reserveTags.isEmpty()) {
+            config.setReserveTags(new HashSet<>(Arrays.asList(reserveTags.split("\\s*,\\s*"))));
+        }
+        return config;
+    }
+
+    private static IDAllocDao createDao(Properties properties) throws IOException {
+        final String type = properties.getProperty("leaf.segment.dao", "jdbc");
+        switch (type) {
+            case "jdbc":
+                PooledDataSource dataSource = new PooledDataSource(
+                        properties.getProperty("leaf.jdbc.driver", "com.mysql.jdbc.Driver"),
+                        properties.getProperty("leaf.jdbc.url"),
+                        properties.getProperty("leaf.jdbc.username"),
+                        properties.getProperty("leaf.jdbc.password"));
+                dataSource.setPoolMaximumActiveConnections(Integer.parseInt(properties.getProperty("leaf.jdbc.maxActive", "10")));
+                return new IDAllocDaoImpl(dataSource);
+            case "file":
+                return new MappedFileIDAllocDao(new File(properties.getProperty("leaf.file.path", "leaf_alloc.dat")));
+            case "memory":
+                MemoryIDAllocDao dao = new MemoryIDAllocDao();
+                final int step = Integer.parseInt(properties.getProperty("leaf.memory.step", "1000"));
+                for (String tag : properties.getProperty("leaf.memory.tags", "").split(",")) {
+                    if (!tag.trim().isEmpty()) {
+                        dao.addTag(tag.trim(), 0, step);
+                    }
+                }
+                return dao;
+            default:
+                throw new IllegalArgumentException("unknown leaf.segment.dao " + type);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.sachin.idgen.leaf.server;
+
+import com.sachin.idgen.leaf.client.protocol.IdProtocol;
+import lombok.Data;
+
+/**
+ * 取号服务的配置
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+@Data
+public class IdServerConfig {
+
+    private String host = "0.0.0.0";
+    /**
+     * 二进制协议与HTTP共用的端口，为0时随机分配
+     */
+    private int port = 8080;
+
+    private int bossThreads = 1;
+    /**
+     * IO线程数，为0时使用Netty的默认值，即CPU核数的两倍
+     */
+    private int workerThreads = 0;
+    private int backlog = 1024;
+
+    /**
+     * 是否接受HTTP请求，关闭时只接受二进制协议
+     */
+    private boolean httpEnabled = true;
+
+    /**
+     * 一次批量取号最多的id个数
+     */
+    private int maxBatchCount = 10000;
+    /**
+     * 客户端一次租用号段最多的id个数
+     */
+    private int maxLeaseCount = 100000;
+    /**
+     * 二进制协议每个连接最多的未完成请求数，超过时暂停读取该连接，避免单个连接占用过多内存
+     */
+    private int maxPendingRequests = 4096;
+    private int maxFrameLength = IdProtocol.DEFAULT_MAX_FRAME_LENGTH;
+    /**
+     * 合并flush：连续write这么多个响应之后才真正flush一次
+     */
+    private int flushConsolidation = 256;
+}
@@ -0,0 +1,80 @@
+package com.sachin.idgen.leaf.server;
+
+import com.sachin.idgen.leaf.client.protocol.IdProtocol;
+import com.sachin.idgen.leaf.core.AsyncIDGen;
+import com.sachin.idgen.leaf.core.IDGen;
+import com.sachin.idgen.leaf.core.common.BatchResult;
+import com.sachin.idgen.leaf.core.common.RangeResult;
+import com.sachin.idgen.leaf.core.common.Result;
+import com.sachin.idgen.leaf.core.common.Status;
+import com.sachin.idgen.leaf.core.segment.SegmentIDGenImpl;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 二进制协议与HTTP共用的取号入口。
+ *
+ * IDGen实现了AsyncIDGen时使用异步取号，IO线程不会因为等待Segment装载而阻塞；
+ * 否则在IO线程中同步取号，只适用于不会阻塞的实现，例如snowflake
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class IdService {
+
+    private final IDGen idGen;
+    private final AsyncIDGen asyncIdGen;
+    private final int maxBatchCount;
+    private final int maxLeaseCount;
+
+    public IdService(IDGen idGen, int maxBatchCount, int maxLeaseCount) {
+        this.idGen = idGen;
+        this.asyncIdGen = idGen instanceof AsyncIDGen ? (AsyncIDGen) idGen : null;
+        this.maxBatchCount = maxBatchCount;
+        this.maxLeaseCount = maxLeaseCount;
+    }
+
+    public CompletableFuture<Result> get(String key) {
+        if (asyncIdGen != null) {
+            return asyncIdGen.getAsync(key);
+        }
+        return CompletableFuture.completedFuture(idGen.get(key));
+    }
+
+    public CompletableFuture<BatchResult> getBatch(String key, int count) {
+        return getBatch(key, count, maxBatchCount);
+    }
+
+    /**
+     * 为客户端租用号段，个数上限与批量取号不同，结果以区间的形式返回。
+     * 异步取号时每个Segment只申请一次区间，不需要生成每一个id；同步取号时由批量取号的结果压缩为区间
+     * @param key
+     * @param count
+     * @return
+     */
+    public CompletableFuture<RangeResult> lease(String key, int count) {
+        if (count <= 0 || count > maxLeaseCount) {
+            return CompletableFuture.completedFuture(new RangeResult(new long[]{SegmentIDGenImpl.EXCEPTION_ID_BATCH_COUNT_ILLEGAL}, Status.EXCEPTION));
+        }
+        if (asyncIdGen != null) {
+            return asyncIdGen.leaseAsync(key, count);
+        }
+        final BatchResult result = idGen.getBatch(key, count);
+        return CompletableFuture.completedFuture(result.getStatus() == Status.SUCCESS ? new RangeResult(IdProtocol.toRanges(result.getIds()), Status.SUCCESS)
+                : new RangeResult(result.getIds(), result.getStatus()));
+    }
+
+    private CompletableFuture<BatchResult> getBatch(String key, int count, int maxCount) {
+        if (count <= 0 || count > maxCount) {
+            return CompletableFuture.completedFuture(new BatchResult(new long[]{SegmentIDGenImpl.EXCEPTION_ID_BATCH_COUNT_ILLEGAL}, Status.EXCEPTION));
+        }
+        if (asyncIdGen != null) {
+            return asyncIdGen.getBatchAsync(key, count);
+        }
+        return CompletableFuture.completedFuture(idGen.getBatch(key, count));
+    }
+
+    public IDGen getIdGen() {
+        return idGen;
+    }
+}
@@ -0,0 +1,56 @@
+package com.sachin.idgen.leaf.server;
+
+import com.sachin.idgen.leaf.client.protocol.IdProtocol;
+import com.sachin.idgen.leaf.client.protocol.ServerCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.flush.FlushConsolidationHandler;
+
+import java.util.List;
+
+/**
+ * 根据连接上的前两个字节判断协议，以二进制协议的magic开头时使用二进制协议，否则按照HTTP处理，
+ * 判断之后把对应的handler加入pipeline并移除自己，已经读到的字节交给新的handler
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class ProtocolDetector extends ByteToMessageDecoder {
+
+    private static final int MAX_HTTP_CONTENT_LENGTH = 64 * 1024;
+
+    private final IdService service;
+    private final IdServerConfig config;
+
+    public ProtocolDetector(IdService service, IdServerConfig config) {
+        this.service = service;
+        this.config = config;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (in.readableBytes() < 2) {
+            return;
+        }
+        final ChannelPipeline pipeline = ctx.pipeline();
+        if (IdProtocol.isBinary(in)) {
+            pipeline.addLast(new FlushConsolidationHandler(config.getFlushConsolidation(), true),
+                    new ServerCodec(config.getMaxFrameLength()),
+                    new BinaryRequestHandler(service, config.getMaxPendingRequests()));
+        } else if (config.isHttpEnabled()) {
+            pipeline.addLast(new FlushConsolidationHandler(config.getFlushConsolidation(), true),
+                    new HttpServerCodec(),
+                    new HttpObjectAggregator(MAX_HTTP_CONTENT_LENGTH),
+                    new HttpRequestHandler(service));
+        } else {
+            in.skipBytes(in.readableBytes());
+            ctx.close();
+            return;
+        }
+        pipeline.remove(this);
+    }
+}
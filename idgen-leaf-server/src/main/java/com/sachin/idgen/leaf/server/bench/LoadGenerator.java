@@ -0,0 +1,204 @@
+package com.sachin.idgen.leaf.server.bench;
+
+import com.sachin.idgen.leaf.client.protocol.ClientCodec;
+import com.sachin.idgen.leaf.client.protocol.IdProtocol;
+import com.sachin.idgen.leaf.client.protocol.IdRequest;
+import com.sachin.idgen.leaf.client.protocol.IdResponse;
+import com.sachin.idgen.leaf.core.common.Status;
+import com.sachin.idgen.leaf.core.segment.SegmentIDGenImpl;
+import com.sachin.idgen.leaf.core.segment.dao.impl.MemoryIDAllocDao;
+import com.sachin.idgen.leaf.core.segment.metrics.LatencyHistogram;
+import com.sachin.idgen.leaf.server.IdServer;
+import com.sachin.idgen.leaf.server.IdServerConfig;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 取号服务的压测客户端，通过二进制协议取号，输出QPS和耗时分位数。
+ *
+ * 每个连接保持pipeline个未完成的请求，收到一个响应就立即发送下一个请求。
+ * 先预热一秒，之后的seconds秒计入结果；耗时的分位数为LatencyHistogram中所在桶的上界，单位微秒，相对误差不超过1/32。
+ * host为embedded时在当前进程中启动一个使用MemoryIDAllocDao的IdServer，通过loopback压测，例如：
+ * java -cp idgen-leaf-server/target/leaf-server.jar com.sachin.idgen.leaf.server.bench.LoadGenerator embedded 0 4 64 10
+ * 参数依次为：host port 连接数 pipeline深度 秒数 [业务tag] [每个请求的id个数]
+ *
+ * @Author Sachin
+ * @Date 2026/10/18
+ **/
+public class LoadGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final long WARM_UP_MILLIS = 1000;
+    private static final String EMBEDDED = "embedded";
+    /**
+     * 每个2的幂区间分成32个桶，按2的幂分桶时p99和p999经常落在同一个桶，看不出差别
+     */
+    private static final int HISTOGRAM_SUB_BUCKET_BITS = 5;
+
+    private final int pipeline;
+    private final String tag;
+    private final int batch;
+    private final LatencyHistogram histogram = new LatencyHistogram(HISTOGRAM_SUB_BUCKET_BITS);
+    private volatile boolean running = true;
+    private volatile boolean recording = false;
+
+    private LoadGenerator(int pipeline, String tag, int batch) {
+        this.pipeline = pipeline;
+        this.tag = tag;
+        this.batch = batch;
+    }
+
+    /**
+     * 一个连接，requestId为发送时间所在的槽，同一时间一个槽只有一个未完成的请求
+     */
+    private class LoadConnection extends SimpleChannelInboundHandler<IdResponse> {
+        private final long[] sendNanos = new long[pipeline];
+        private long requests;
+        private long ids;
+        private long errors;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            for (int slot = 0; slot < pipeline; slot++) {
+                send(ctx, slot);
+            }
+            ctx.flush();
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, IdResponse response) {
+            final int slot = response.getRequestId();
+            if (recording) {
+                histogram.record(System.nanoTime() - sendNanos[slot]);
+                requests++;
+                if (response.getStatus() == Status.SUCCESS) {
+                    ids += response.getIds().length;
+                } else {
+                    errors++;
+                }
+            }
+            if (running) {
+                send(ctx, slot);
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.warn("load connection {} exception, close it", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+
+        private void send(ChannelHandlerContext ctx, int slot) {
+            sendNanos[slot] = System.nanoTime();
+            ctx.write(new IdRequest(slot, batch > 1 ? IdProtocol.TYPE_BATCH : IdProtocol.TYPE_GET, tag, batch));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.out.println("usage: LoadGenerator host port connections pipeline seconds [tag] [batch]");
+            return;
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        final int connections = Integer.parseInt(args[2]);
+        final int pipeline = Integer.parseInt(args[3]);
+        final int seconds = Integer.parseInt(args[4]);
+        final String tag = args.length > 5 ? args[5] : "leaf-load-test";
+        final int batch = args.length > 6 ? Integer.parseInt(args[6]) : 1;
+
+        SegmentIDGenImpl idGen = null;
+        IdServer server = null;
+        if (EMBEDDED.equals(host)) {
+            MemoryIDAllocDao dao = new MemoryIDAllocDao();
+            dao.addTag(tag, 0, 100000);
+            idGen = new SegmentIDGenImpl();
+            idGen.setIdAllocDao(dao);
+            idGen.setLockFree(true);
+            idGen.init();
+            IdServerConfig config = new IdServerConfig();
+            config.setHost("127.0.0.1");
+            config.setPort(port);
+            server = new IdServer(idGen, config);
+            server.start();
+            host = "127.0.0.1";
+            port = server.getPort();
+        }
+
+        final LoadGenerator generator = new LoadGenerator(pipeline, tag, batch);
+        final List<LoadConnection> handlers = new ArrayList<>();
+        final List<Channel> channels = new ArrayList<>();
+        EventLoopGroup group = new NioEventLoopGroup(Math.min(connections, Runtime.getRuntime().availableProcessors()),
+                new DefaultThreadFactory("leaf-load-generator"));
+        try {
+            Bootstrap bootstrap = new Bootstrap()
+                    .group(group)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true);
+            for (int i = 0; i < connections; i++) {
+                final LoadConnection handler = generator.new LoadConnection();
+                handlers.add(handler);
+                channels.add(bootstrap.handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new ClientCodec(), handler);
+                    }
+                }).connect(host, port).sync().channel());
+            }
+
+            Thread.sleep(WARM_UP_MILLIS);
+            generator.recording = true;
+            final long start = System.nanoTime();
+            Thread.sleep(seconds * 1000L);
+            generator.recording = false;
+            final double elapsed = (System.nanoTime() - start) / 1e9;
+            generator.running = false;
+            for (Channel channel : channels) {
+                channel.close().sync();
+            }
+
+            long requests = 0;
+            long ids = 0;
+            long errors = 0;
+            for (LoadConnection handler : handlers) {
+                requests += handler.requests;
+                ids += handler.ids;
+                errors += handler.errors;
+            }
+            LatencyHistogram histogram = generator.histogram;
+            System.out.printf("connections: %d, pipeline: %d, batch: %d, seconds: %.1f%n", connections, pipeline, batch, elapsed);
+            System.out.printf("requests: %d, ids: %d, errors: %d%n", requests, ids, errors);
+            System.out.printf("qps: %.0f, ids/s: %.0f%n", requests / elapsed, ids / elapsed);
+            System.out.printf("latency(us) p50: %d, p99: %d, p999: %d, max: %d%n",
+                    histogram.percentile(0.5), histogram.percentile(0.99), histogram.percentile(0.999), histogram.getMax());
+        } finally {
+            group.shutdownGracefully().syncUninterruptibly();
+            if (server != null) {
+                server.close();
+            }
+            if (idGen != null) {
+                idGen.close();
+            }
+        }
+    }
+}